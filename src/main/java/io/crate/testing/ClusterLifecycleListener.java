@@ -0,0 +1,90 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import io.crate.testing.download.DownloadSource;
+
+import java.nio.file.Path;
+
+/**
+ * Receives timed events about the lifecycle of a {@link CrateTestCluster}.
+ * <p>
+ * All methods have an empty default implementation, so a listener only needs
+ * to override the events it is interested in. Durations are in nanoseconds.
+ * Listeners are called synchronously from the thread starting or stopping the
+ * cluster and should return quickly.
+ *
+ * @see CrateTestCluster.Builder#listener(ClusterLifecycleListener)
+ * @see StartupTimingReport
+ */
+public interface ClusterLifecycleListener {
+
+    /**
+     * Called before a CrateDB distribution is downloaded into the cache.
+     * Not called if the distribution is already cached.
+     */
+    default void downloadStarted(DownloadSource source) {
+    }
+
+    default void downloadFinished(DownloadSource source, long bytes, long durationNanos) {
+    }
+
+    default void extractStarted(Path archive, Path destination) {
+    }
+
+    default void extractFinished(Path destination, int entries, long durationNanos) {
+    }
+
+    /**
+     * Called once the process of a node has been spawned.
+     */
+    default void nodeSpawned(CrateTestServer server, long durationNanos) {
+    }
+
+    /**
+     * Called once the HTTP port of a node accepts connections.
+     * The duration is measured from the moment the process was spawned.
+     */
+    default void nodePortBound(CrateTestServer server, long durationNanos) {
+    }
+
+    /**
+     * Called once a node answers SQL requests.
+     * The duration is measured from the moment the process was spawned.
+     */
+    default void nodeReady(CrateTestServer server, long durationNanos) {
+    }
+
+    /**
+     * Called once all nodes have joined the cluster.
+     * The duration is measured from the start of the cluster.
+     */
+    default void clusterReady(String clusterName, int numberOfNodes, long durationNanos) {
+    }
+
+    default void nodeStopped(CrateTestServer server, long durationNanos) {
+    }
+
+    default void workingDirDeleted(Path workingDir, long durationNanos) {
+    }
+}
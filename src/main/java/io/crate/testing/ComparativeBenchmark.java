@@ -0,0 +1,218 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same {@link Workload} against clusters of different CrateDB versions, one
+ * cluster after the other, and compares their throughput and latencies.
+ * <p>
+ * Every cluster is started, prepared with the {@link Setup}, warmed up and measured
+ * with identical settings and stopped before the next one is started. The first
+ * cluster is the baseline of the {@link #report(List)}.
+ * <pre>
+ * List&lt;WorkloadResult&gt; results = ComparativeBenchmark.builder(workload)
+ *     .cluster(CrateTestCluster.fromVersion("4.8.4"))
+ *     .cluster(CrateTestCluster.fromVersion("5.0.0"))
+ *     .setup(cluster -&gt; cluster.execute("create table t (id int)"))
+ *     .closedLoop(8)
+ *     .build()
+ *     .run();
+ * System.out.println(ComparativeBenchmark.report(results));
+ * </pre>
+ */
+public class ComparativeBenchmark {
+
+    /**
+     * Prepares a started cluster, e.g. creates and fills tables.
+     */
+    public interface Setup {
+        void run(CrateTestCluster cluster) throws Exception;
+    }
+
+    private interface Load {
+        WorkloadResult run(WorkloadDriver driver, Workload workload, long duration, TimeUnit unit) throws InterruptedException;
+    }
+
+    private final Workload workload;
+    private final List<CrateTestCluster.Builder> clusters;
+    private final Setup setup;
+    private final Load load;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final long seed;
+
+    private ComparativeBenchmark(Builder builder) {
+        this.workload = builder.workload;
+        this.clusters = new ArrayList<>(builder.clusters);
+        this.setup = builder.setup;
+        this.load = builder.load;
+        this.warmupMillis = builder.warmupMillis;
+        this.measureMillis = builder.measureMillis;
+        this.seed = builder.seed;
+    }
+
+    public static Builder builder(Workload workload) {
+        return new Builder(workload);
+    }
+
+    /**
+     * @return the results of the measurement phase, one per cluster in the order they were added
+     */
+    public List<WorkloadResult> run() throws Exception {
+        List<WorkloadResult> results = new ArrayList<>();
+        for (CrateTestCluster.Builder builder : clusters) {
+            CrateTestCluster cluster = builder.build();
+            try {
+                cluster.before();
+            } catch (Throwable t) {
+                // a cluster which failed to start is already stopped
+                throw new IllegalStateException("Could not start cluster", t);
+            }
+            try {
+                if (setup != null) {
+                    setup.run(cluster);
+                }
+                WorkloadDriver driver = new WorkloadDriver(cluster, seed);
+                if (warmupMillis > 0) {
+                    load.run(driver, workload, warmupMillis, TimeUnit.MILLISECONDS);
+                }
+                WorkloadResult result = load.run(driver, workload, measureMillis, TimeUnit.MILLISECONDS);
+                Utils.log("%s", result.report());
+                results.add(result);
+            } finally {
+                cluster.after();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return a table with throughput and latency percentiles per version and statement, and the
+     * relative change compared to the first result
+     */
+    public static String report(List<WorkloadResult> results) {
+        if (results.isEmpty()) {
+            return "";
+        }
+        WorkloadResult baseline = results.get(0);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-12s %-20s %-16s %-20s %-20s%n",
+            "version", "statement", "throughput/s", "p50 ms", "p99 ms"));
+        for (WorkloadResult result : results) {
+            sb.append(String.format(Locale.ENGLISH, "%-12s %-20s %-16s%n",
+                result.crateVersion(), "*", withDelta(result.throughput(), baseline.throughput(), "%.1f")));
+            for (Map.Entry<String, LatencyHistogram> entry : result.latencies().entrySet()) {
+                LatencyHistogram base = baseline.latencies().get(entry.getKey());
+                LatencyHistogram histogram = entry.getValue();
+                sb.append(String.format(Locale.ENGLISH, "%-12s %-20s %-16s %-20s %-20s%n",
+                    result.crateVersion(),
+                    entry.getKey(),
+                    "",
+                    withDelta(histogram.millisAtPercentile(50), base.millisAtPercentile(50), "%.3f"),
+                    withDelta(histogram.millisAtPercentile(99), base.millisAtPercentile(99), "%.3f")));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String withDelta(double value, double baseline, String format) {
+        String formatted = String.format(Locale.ENGLISH, format, value);
+        if (baseline == 0 || value == baseline) {
+            return formatted;
+        }
+        return String.format(Locale.ENGLISH, "%s (%+.1f%%)", formatted, (value - baseline) / baseline * 100);
+    }
+
+    public static class Builder {
+
+        private final Workload workload;
+        private final List<CrateTestCluster.Builder> clusters = new ArrayList<>();
+        private Setup setup;
+        private Load load = (driver, workload, duration, unit) -> driver.runClosedLoop(workload, 1, duration, unit);
+        private long warmupMillis = TimeUnit.SECONDS.toMillis(10);
+        private long measureMillis = TimeUnit.SECONDS.toMillis(30);
+        private long seed = 42L;
+
+        private Builder(Workload workload) {
+            this.workload = workload;
+        }
+
+        /**
+         * Add a cluster to compare. Each cluster is built and started only when its turn comes.
+         */
+        public Builder cluster(CrateTestCluster.Builder cluster) {
+            clusters.add(cluster);
+            return this;
+        }
+
+        public Builder setup(Setup setup) {
+            this.setup = setup;
+            return this;
+        }
+
+        public Builder warmup(long duration, TimeUnit unit) {
+            this.warmupMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder measure(long duration, TimeUnit unit) {
+            this.measureMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Send statements at a fixed rate, see {@link WorkloadDriver#runOpenLoop}.
+         */
+        public Builder openLoop(double ratePerSecond, int maxConcurrency) {
+            this.load = (driver, workload, duration, unit) ->
+                driver.runOpenLoop(workload, ratePerSecond, duration, unit, maxConcurrency);
+            return this;
+        }
+
+        /**
+         * Send statements from a fixed number of workers, see {@link WorkloadDriver#runClosedLoop}.
+         */
+        public Builder closedLoop(int workers) {
+            this.load = (driver, workload, duration, unit) -> driver.runClosedLoop(workload, workers, duration, unit);
+            return this;
+        }
+
+        public ComparativeBenchmark build() {
+            if (clusters.isEmpty()) {
+                throw new IllegalArgumentException("No clusters to compare");
+            }
+            return new ComparativeBenchmark(this);
+        }
+    }
+}
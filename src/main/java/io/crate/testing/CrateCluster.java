@@ -0,0 +1,98 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Starts a {@link CrateTestCluster} for a JUnit 5 test class using the {@link CrateTestClusterExtension}.
+ * <pre>
+ * &#64;CrateCluster(version = "5.0.0", numberOfNodes = 3)
+ * class MyTest {
+ *
+ *     &#64;Test
+ *     void test(CrateTestCluster cluster) throws Exception {
+ *         cluster.execute("select 1");
+ *     }
+ * }
+ * </pre>
+ * If none of {@link #version()}, {@link #url()} or {@link #file()} is set, the distribution is taken
+ * from the system properties, see {@link CrateTestCluster#fromSysProperties()}.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@ExtendWith(CrateTestClusterExtension.class)
+public @interface CrateCluster {
+
+    /**
+     * Lifetime of a cluster started by the {@link CrateTestClusterExtension}.
+     */
+    enum Scope {
+
+        /**
+         * The cluster is started for a test class and stopped after it.
+         */
+        CLASS,
+
+        /**
+         * The cluster is shared by all test classes with the same configuration and
+         * stopped at the end of the test run.
+         */
+        SESSION
+    }
+
+    /**
+     * @return the CrateDB version to download, see {@link CrateTestCluster#fromVersion(String)}
+     */
+    String version() default "";
+
+    /**
+     * @return the URL to download the distribution from, see {@link CrateTestCluster#fromURL(String)}
+     */
+    String url() default "";
+
+    /**
+     * @return the path of a tar.gz distribution, see {@link CrateTestCluster#fromFile(String)}
+     */
+    String file() default "";
+
+    int numberOfNodes() default 1;
+
+    String clusterName() default "TestingCluster";
+
+    /**
+     * @return true to restrict the ports of the cluster to the {@link ForkSlot} of this JVM
+     */
+    boolean forkSlot() default false;
+
+    Scope scope() default Scope.SESSION;
+}
@@ -29,43 +29,73 @@ import io.crate.testing.download.DownloadSources;
 import io.crate.testing.download.FileDownloadSource;
 import org.junit.rules.ExternalResource;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CrateTestCluster extends ExternalResource {
 
-    private static final Path CRATE_TMP_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "crate.testing");
+    static final Path CRATE_TMP_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "crate.testing");
 
     private static final Path TMP_CACHE_DIR = CRATE_TMP_DIR.resolve("downloads");
     public static final Path TMP_WORKING_DIR = CRATE_TMP_DIR.resolve("working");
     private static final String LATEST_DISTRIBUTION_VERSION_IDENTIFIER = "latest";
+    private static final Object DOWNLOAD_LOCK = new Object();
+    private static final int HEALTH_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int DECOMMISSION_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final int REBALANCE_TIMEOUT_MILLIS = 5 * 60 * 1000;
 
-    private final UUID clusterUUID = UUID.randomUUID();
+    private volatile UUID clusterUUID;
 
     private final int numberOfNodes;
     private final String clusterName;
     private final Path workingDir;
     private final DownloadSource downloadSource;
     private final Map<String, Object> settings;
+    private final Map<Integer, Map<String, Object>> nodeSettings;
+    private final boolean configFile;
+    private final boolean loopbackPerNode;
     private final String hostAddress;
     private final boolean keepWorkingDir;
     private final String crateVersion;
     private final Map<String, Object> commandLineArguments;
+    private final List<ClusterLifecycleListener> listeners;
+    private final QueryLatencyRecorder latencyRecorder;
+    private final QueryRegressionRecorder regressionRecorder;
+    private final ForkSlot forkSlot;
+    private final NodeResources nodeResources;
+    private final boolean faultInjection;
+    private final long keepWarmMillis;
+    private final String configHash;
+    private volatile boolean warm;
+    private volatile boolean harnessPinned;
+    private final String leaseId = UUID.randomUUID().toString();
+    private final Map<CrateTestServer, FaultProxy[]> proxies = new ConcurrentHashMap<>();
 
     private final int transportPortsFrom;
     private final int transportPortsTo;
@@ -84,19 +114,70 @@ public class CrateTestCluster extends ExternalResource {
         this.workingDir = builder.workingDir;
         this.downloadSource = builder.downloadSource;
         this.settings = builder.settings;
+        this.nodeSettings = new TreeMap<>(builder.nodeSettings);
+        this.configFile = builder.configFile;
+        this.loopbackPerNode = builder.loopbackPerNode;
+        if (loopbackPerNode && !LoopbackAddress.isSupported()) {
+            throw new IllegalArgumentException("A loopback address per node is only supported on Linux");
+        }
         this.hostAddress = builder.hostAddress;
         this.keepWorkingDir = builder.keepWorkingDir;
         this.crateVersion = builder.crateVersion;
         this.commandLineArguments = builder.commandLineArguments;
+        this.listeners = new ArrayList<>(builder.listeners);
+        this.latencyRecorder = builder.latencyRecorder;
+        this.regressionRecorder = builder.regressionRecorder;
+        this.forkSlot = builder.forkSlot;
+        this.nodeResources = builder.nodeResources;
+        this.faultInjection = builder.faultInjection;
+        if (builder.keepWarmMillis > 0 && builder.faultInjection) {
+            throw new IllegalArgumentException("A cluster with fault injection cannot be kept warm");
+        }
+        if (builder.keepWarmMillis > 0 && builder.loopbackPerNode) {
+            throw new IllegalArgumentException("A cluster with a loopback address per node cannot be kept warm");
+        }
+        this.keepWarmMillis = builder.keepWarmMillis;
 
-        this.transportPortsFrom=builder.transportPortsFrom;
-        this.transportPortsTo=builder.transportPortsTo;
+        if (builder.forkSlot == null) {
+            this.transportPortsFrom=builder.transportPortsFrom;
+            this.transportPortsTo=builder.transportPortsTo;
 
-        this.httpPortsFrom=builder.httpPortsFrom;
-        this.httpPortsTo=builder.httpPortsTo;
+            this.httpPortsFrom=builder.httpPortsFrom;
+            this.httpPortsTo=builder.httpPortsTo;
 
-        this.psqlPortsFrom=builder.psqlPortsFrom;
-        this.psqlPortsTo=builder.psqlPortsTo;
+            this.psqlPortsFrom=builder.psqlPortsFrom;
+            this.psqlPortsTo=builder.psqlPortsTo;
+        } else {
+            // nodes behind fault injection proxies bind a backend port next to the port of their proxy
+            int portsPerNode = builder.faultInjection ? 2 : 1;
+            int[] transportPorts = builder.forkSlot.portRange(
+                builder.transportPortsFrom, builder.transportPortsTo, builder.numberOfNodes * portsPerNode);
+            this.transportPortsFrom=transportPorts[0];
+            this.transportPortsTo=transportPorts[1];
+
+            int[] httpPorts = builder.forkSlot.portRange(
+                builder.httpPortsFrom, builder.httpPortsTo, builder.numberOfNodes * portsPerNode);
+            this.httpPortsFrom=httpPorts[0];
+            this.httpPortsTo=httpPorts[1];
+
+            int[] psqlPorts = builder.forkSlot.portRange(builder.psqlPortsFrom, builder.psqlPortsTo, builder.numberOfNodes);
+            this.psqlPortsFrom=psqlPorts[0];
+            this.psqlPortsTo=psqlPorts[1];
+        }
+        this.configHash = Utils.sha1(String.format(Locale.ENGLISH,
+            "source=%s version=%s nodes=%d name=%s dir=%s host=%s settings=%s node_settings=%s config_file=%s loopback_per_node=%s args=%s ports=%d-%d,%d-%d,%d-%d",
+            downloadSource, crateVersion, numberOfNodes, clusterName, workingDir.toAbsolutePath(), hostAddress,
+            new TreeMap<>(settings), nodeSettings, configFile, loopbackPerNode,
+            commandLineArguments == null ? null : new TreeMap<>(commandLineArguments),
+            transportPortsFrom, transportPortsTo, httpPortsFrom, httpPortsTo, psqlPortsFrom, psqlPortsTo));
+        if (builder.clusterUUID != null) {
+            this.clusterUUID = builder.clusterUUID;
+        } else if (keepWarmMillis > 0) {
+            // a warm cluster has to be found again by the next JVM with the same configuration
+            this.clusterUUID = UUID.nameUUIDFromBytes(configHash.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.clusterUUID = UUID.randomUUID();
+        }
     }
 
     public static class Builder {
@@ -108,10 +189,21 @@ public class CrateTestCluster extends ExternalResource {
         private String clusterName = "TestingCluster";
         private Path workingDir = TMP_WORKING_DIR;
         private Map<String, Object> settings = Collections.emptyMap();
+        private final Map<Integer, Map<String, Object>> nodeSettings = new HashMap<>();
+        private boolean configFile = false;
+        private boolean loopbackPerNode = false;
         private String hostAddress = InetAddress.getLoopbackAddress().getHostAddress();
         private boolean keepWorkingDir = false;
         private String crateVersion;
         private Map<String, Object> commandLineArguments;
+        private final List<ClusterLifecycleListener> listeners = new ArrayList<>();
+        private ForkSlot forkSlot;
+        private QueryLatencyRecorder latencyRecorder;
+        private QueryRegressionRecorder regressionRecorder;
+        private NodeResources nodeResources;
+        private boolean faultInjection = false;
+        private long keepWarmMillis = 0;
+        private UUID clusterUUID;
 
         private int transportPortsFrom=4200;
         private int transportPortsTo=4400;
@@ -166,15 +258,52 @@ public class CrateTestCluster extends ExternalResource {
             return this;
         }
 
+        /**
+         * Settings of all nodes, merged into the settings set before. The given map is copied and not modified.
+         */
         public Builder settings(Map<String, Object> settings) {
             if (this.settings.isEmpty()) {
-                this.settings = settings;
+                this.settings = new HashMap<>(settings);
             } else {
                 this.settings.putAll(settings);
             }
             return this;
         }
 
+        /**
+         * Settings of a single node, which are applied on top of {@link #settings(Map)}.
+         *
+         * @param node index of the node in {@link CrateTestCluster#servers()}
+         */
+        public Builder nodeSettings(int node, Map<String, Object> settings) {
+            if (node < 0) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid node index: %d", node));
+            }
+            this.nodeSettings.computeIfAbsent(node, k -> new HashMap<>()).putAll(settings);
+            return this;
+        }
+
+        /**
+         * Write the settings of every node into a {@code crate.yml} in a config directory of the node,
+         * which is passed as {@code path.conf}, instead of passing each setting as a command line option.
+         * This keeps the command line short for large settings maps.
+         */
+        public Builder configFile(boolean configFile) {
+            this.configFile = configFile;
+            return this;
+        }
+
+        /**
+         * Give every node an address of its own out of the {@code 127.0.0.0/8} loopback network on which it binds
+         * the default ports 4200, 4300 and 5432, instead of allocating random ports from the configured ranges
+         * on the {@link #host(String)}. Clusters of parallel test JVMs then no longer compete for ports.
+         * Addresses are coordinated through lock files in the temp directory. Only supported on Linux.
+         */
+        public Builder loopbackPerNode(boolean loopbackPerNode) {
+            this.loopbackPerNode = loopbackPerNode;
+            return this;
+        }
+
         public Builder httpPort(int from, int to) {
             this.httpPortsFrom=from;
             this.httpPortsTo=to;
@@ -220,11 +349,94 @@ public class CrateTestCluster extends ExternalResource {
             return this;
         }
 
+        /**
+         * Use the working directory of another cluster with the same UUID, including its data,
+         * e.g. to restart a cluster with different node settings. See {@link ParameterSweep}.
+         */
+        Builder clusterUUID(UUID clusterUUID) {
+            this.clusterUUID = clusterUUID;
+            return this;
+        }
+
         public Builder commandLineArguments(Map<String, Object> commandLineArguments) {
             this.commandLineArguments = commandLineArguments;
             return this;
         }
 
+        /**
+         * Register a listener which receives timed events about downloading,
+         * extracting, starting and stopping the cluster.
+         * Can be called multiple times to register several listeners.
+         */
+        public Builder listener(ClusterLifecycleListener listener) {
+            this.listeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Restrict the http, transport and psql port ranges to the share of the given slot,
+         * so that clusters of parallel test JVMs do not compete for the same ports.
+         * Use {@link ForkSlot#current()} to acquire the slot of this JVM.
+         */
+        public Builder forkSlot(ForkSlot forkSlot) {
+            this.forkSlot = forkSlot;
+            return this;
+        }
+
+        /**
+         * Record the latency of all statements executed through {@link CrateTestServer#execute},
+         * {@link CrateTestServer#psqlConnection()} and the methods built on top of them.
+         */
+        public Builder latencyRecorder(QueryLatencyRecorder latencyRecorder) {
+            this.latencyRecorder = latencyRecorder;
+            return this;
+        }
+
+        /**
+         * Record the results, plans and durations of the statements executed through {@link CrateTestServer#execute}
+         * into a golden file, or compare them with it, see {@link QueryRegressionRecorder}.
+         */
+        public Builder regressionRecorder(QueryRegressionRecorder regressionRecorder) {
+            this.regressionRecorder = regressionRecorder;
+            return this;
+        }
+
+        /**
+         * Pin the nodes and the test JVM to CPUs and limit the heap of the nodes.
+         * The CPUs are taken from the {@link #forkSlot(ForkSlot)} if one is set.
+         */
+        public Builder nodeResources(NodeResources nodeResources) {
+            this.nodeResources = nodeResources;
+            return this;
+        }
+
+        /**
+         * Put a {@link FaultProxy} in front of the transport and HTTP port of every node.
+         * Nodes publish the ports of their proxies, so traffic between nodes and from the test
+         * to the nodes passes through them. See {@link #transportProxy(int)} and {@link #httpProxy(int)}.
+         */
+        public Builder faultInjection(boolean faultInjection) {
+            this.faultInjection = faultInjection;
+            return this;
+        }
+
+        /**
+         * Keep the cluster running after {@link #after()} and after the JVM exits, so that the next
+         * test run with the same configuration reattaches to it instead of starting new nodes.
+         * The output of the nodes is written to log files in the {@link #crateWorkingDir()}.
+         * <p>
+         * While a cluster uses the nodes, from {@link #before()} to {@link #after()}, they are leased to it:
+         * another cluster with the same configuration starts separate nodes instead of sharing them, and
+         * they are not stopped. Once released, nodes which were not used for the given time are stopped,
+         * see {@link #stopWarmClusters()} to stop all of them immediately. Nodes which are stopped or killed
+         * by a test make the cluster stop regularly at the end. Not supported together with
+         * {@link #faultInjection(boolean)}.
+         */
+        public Builder keepWarm(long timeToLive, TimeUnit unit) {
+            this.keepWarmMillis = unit.toMillis(timeToLive);
+            return this;
+        }
+
         public CrateTestCluster build() {
             return new CrateTestCluster(this);
         }
@@ -257,44 +469,228 @@ public class CrateTestCluster extends ExternalResource {
     }
 
     private CrateTestServer[] buildServers() {
-        int transportPorts[] = new int[numberOfNodes];
-        int httpPorts[] = new int[numberOfNodes];
-        int psqlPorts[] = new int[numberOfNodes];
-        for (int i = 0; i < numberOfNodes; i++) {
-            transportPorts[i] = Utils.randomAvailablePort(transportPortsFrom, transportPortsTo);
-            httpPorts[i] = Utils.randomAvailablePort(httpPortsFrom, httpPortsTo);
-            psqlPorts[i] = Utils.randomAvailablePort(psqlPortsFrom, psqlPortsTo);
+        return buildServers(new CrateTestServer[0], numberOfNodes);
+    }
+
+    /**
+     * @param existing nodes of the cluster which are already running
+     * @return the new nodes; their seed hosts include the existing nodes
+     */
+    private CrateTestServer[] buildServers(CrateTestServer[] existing, int count) {
+        int transportPorts[] = new int[existing.length + count];
+        int httpPorts[] = new int[count];
+        int psqlPorts[] = new int[count];
+        String[] hosts = new String[existing.length + count];
+        LoopbackAddress[] loopbackAddresses = new LoopbackAddress[count];
+        Set<Integer> assignedPorts = new HashSet<>();
+        for (int i = 0; i < existing.length; i++) {
+            transportPorts[i] = existing[i].transportPort();
+            hosts[i] = existing[i].crateHost();
+            assignedPorts.add(existing[i].transportPort());
+            assignedPorts.add(existing[i].httpPort());
+            assignedPorts.add(existing[i].psqlPort());
+        }
+        if (loopbackPerNode) {
+            acquireLoopbackAddresses(loopbackAddresses);
+            for (int i = 0; i < count; i++) {
+                hosts[existing.length + i] = loopbackAddresses[i].host();
+                transportPorts[existing.length + i] = LoopbackAddress.TRANSPORT_PORT;
+                httpPorts[i] = LoopbackAddress.HTTP_PORT;
+                psqlPorts[i] = LoopbackAddress.PSQL_PORT;
+            }
+            // fault injection proxies listen on the default ports
+            assignedPorts.add(LoopbackAddress.TRANSPORT_PORT);
+            assignedPorts.add(LoopbackAddress.HTTP_PORT);
+            assignedPorts.add(LoopbackAddress.PSQL_PORT);
+        } else {
+            for (int i = 0; i < count; i++) {
+                hosts[existing.length + i] = hostAddress;
+                int transportPort = Utils.randomAvailablePort(transportPortsFrom, transportPortsTo, assignedPorts);
+                transportPorts[existing.length + i] = transportPort;
+                assignedPorts.add(transportPort);
+                httpPorts[i] = Utils.randomAvailablePort(httpPortsFrom, httpPortsTo, assignedPorts);
+                assignedPorts.add(httpPorts[i]);
+                psqlPorts[i] = Utils.randomAvailablePort(psqlPortsFrom, psqlPortsTo, assignedPorts);
+                assignedPorts.add(psqlPorts[i]);
+            }
+        }
+        int[] backendTransportPorts = new int[count];
+        int[] backendHttpPorts = new int[count];
+        if (faultInjection) {
+            for (FaultProxy[] nodeProxies : proxies.values()) {
+                assignedPorts.add(nodeProxies[0].backendPort());
+                assignedPorts.add(nodeProxies[1].backendPort());
+            }
+            for (int i = 0; i < count; i++) {
+                backendTransportPorts[i] = Utils.randomAvailablePort(transportPortsFrom, transportPortsTo, assignedPorts);
+                assignedPorts.add(backendTransportPorts[i]);
+                backendHttpPorts[i] = Utils.randomAvailablePort(httpPortsFrom, httpPortsTo, assignedPorts);
+                assignedPorts.add(backendHttpPorts[i]);
+            }
+        }
+        CrateTestServer[] servers = new CrateTestServer[count];
+        int totalNodes = existing.length + count;
+        int[][] cpus = nodeResources == null ? new int[totalNodes + 1][] : nodeResources.assignCpus(forkSlot, totalNodes);
+        Map<String, Object> nodeSettings = settings;
+        if (existing.length > 0) {
+            // added nodes share the working directory and need a free node data directory
+            nodeSettings = new HashMap<>(settings);
+            nodeSettings.put("node.max_local_storage_nodes", totalNodes);
         }
-        CrateTestServer[] servers = new CrateTestServer[numberOfNodes];
 
-        String[] unicastHosts = getUnicastHosts(hostAddress, transportPorts);
-        for (int i = 0; i < numberOfNodes; i++) {
+        String[] unicastHosts = getUnicastHosts(hosts, transportPorts);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> serverSettings = settingsOfNode(nodeSettings, existing.length + i);
+            if (faultInjection) {
+                // the node binds the backend ports and publishes the ports of its proxies
+                serverSettings = new HashMap<>(serverSettings);
+                serverSettings.put("transport.tcp.port", backendTransportPorts[i]);
+                serverSettings.put("transport.publish_port", transportPorts[existing.length + i]);
+                serverSettings.put("http.port", backendHttpPorts[i]);
+                serverSettings.put("http.publish_port", httpPorts[i]);
+            }
             servers[i] = new CrateTestServer(
                 clusterName,
                 httpPorts[i],
-                transportPorts[i],
+                transportPorts[existing.length + i],
                 psqlPorts[i],
                 crateWorkingDir(),
-                hostAddress,
-                settings,
+                hosts[existing.length + i],
+                serverSettings,
                 commandLineArguments,
                 crateVersion,
                 unicastHosts
             );
+            servers[i].latencyRecorder(latencyRecorder);
+            servers[i].regressionRecorder(regressionRecorder);
+            servers[i].configFile(configFile);
+            servers[i].loopbackAddress(loopbackAddresses[i]);
+            servers[i].resources(nodeResources, cpus[existing.length + i + 1]);
+            servers[i].keepRunning(keepWarmMillis > 0);
+            if (faultInjection) {
+                startProxies(servers[i], backendTransportPorts[i], backendHttpPorts[i]);
+            }
         }
         return servers;
     }
 
+    private Map<String, Object> settingsOfNode(Map<String, Object> clusterSettings, int node) {
+        Map<String, Object> overrides = nodeSettings.get(node);
+        if (overrides == null) {
+            return clusterSettings;
+        }
+        Map<String, Object> result = new HashMap<>(clusterSettings);
+        result.putAll(overrides);
+        return result;
+    }
+
+    private void startProxies(CrateTestServer server, int backendTransportPort, int backendHttpPort) {
+        try {
+            FaultProxy transportProxy = FaultProxy.start(server.crateHost(), server.transportPort(), backendTransportPort);
+            FaultProxy httpProxy;
+            try {
+                httpProxy = FaultProxy.start(server.crateHost(), server.httpPort(), backendHttpPort);
+            } catch (IOException e) {
+                transportProxy.close();
+                throw e;
+            }
+            proxies.put(server, new FaultProxy[]{transportProxy, httpProxy});
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start fault injection proxies", e);
+        }
+    }
+
+    private static void acquireLoopbackAddresses(LoopbackAddress[] addresses) {
+        try {
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = LoopbackAddress.acquire(LoopbackAddress.ADDRESSES_DIR);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (LoopbackAddress address : addresses) {
+                if (address != null) {
+                    releaseLoopbackAddress(address);
+                }
+            }
+            throw new IllegalStateException("Could not acquire loopback addresses", e);
+        }
+    }
+
+    private static void releaseLoopbackAddress(LoopbackAddress address) {
+        try {
+            address.release();
+        } catch (IOException e) {
+            Utils.log("Error while releasing loopback address %s: %s", address, e);
+        }
+    }
+
+    /**
+     * Release the proxies and the loopback address of a node which is removed from the cluster.
+     */
+    private void releaseNode(CrateTestServer server) {
+        closeProxies(server);
+        LoopbackAddress address = server.loopbackAddress();
+        if (address != null) {
+            releaseLoopbackAddress(address);
+        }
+    }
+
+    private void closeProxies(CrateTestServer server) {
+        FaultProxy[] nodeProxies = proxies.remove(server);
+        if (nodeProxies != null) {
+            for (FaultProxy proxy : nodeProxies) {
+                try {
+                    proxy.close();
+                } catch (IOException e) {
+                    Utils.log("Error while closing fault proxy on port %d: %s", proxy.listenPort(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index index of the node in {@link #servers()}
+     * @return the proxy in front of the transport port of the node, which carries the traffic from other nodes
+     * @throws IllegalStateException if the cluster was not built with {@link Builder#faultInjection(boolean)}
+     */
+    public FaultProxy transportProxy(int index) {
+        return proxies(index)[0];
+    }
+
+    /**
+     * @param index index of the node in {@link #servers()}
+     * @return the proxy in front of the HTTP port of the node
+     * @throws IllegalStateException if the cluster was not built with {@link Builder#faultInjection(boolean)}
+     */
+    public FaultProxy httpProxy(int index) {
+        return proxies(index)[1];
+    }
+
+    private FaultProxy[] proxies(int index) {
+        FaultProxy[] nodeProxies = proxies.get(server(index));
+        if (nodeProxies == null) {
+            throw new IllegalStateException("fault injection is not enabled for this cluster");
+        }
+        return nodeProxies;
+    }
+
     private static String[] getUnicastHosts(String hostAddress, int[] transportPorts) {
+        String[] hosts = new String[transportPorts.length];
+        Arrays.fill(hosts, hostAddress);
+        return getUnicastHosts(hosts, transportPorts);
+    }
+
+    private static String[] getUnicastHosts(String[] hosts, int[] transportPorts) {
         String[] result = new String[transportPorts.length];
         for (int i = 0; i < transportPorts.length; i++) {
-            result[i] = String.format(Locale.ENGLISH, "%s:%d", hostAddress, transportPorts[i]);
+            result[i] = String.format(Locale.ENGLISH, "%s:%d", hosts[i], transportPorts[i]);
         }
         return result;
     }
 
-    private void waitUntilClusterIsReady(final int timeoutMillis) throws TimeoutException, InterruptedException {
+    private void waitUntilClusterIsReady(final int timeoutMillis, long[] spawnedAtNanos) throws TimeoutException, InterruptedException {
         final CrateTestServer[] localServers = serversSafe();
+        final boolean[] bound = new boolean[localServers.length];
+        final boolean[] ready = new boolean[localServers.length];
         long startInNanos = System.nanoTime();
         long sleepMs = 1;
         double nsToMs = 0.000001;
@@ -307,6 +703,9 @@ public class CrateTestCluster extends ExternalResource {
                 }
                 Thread.sleep(sleepMs);
                 sleepMs = sleepMs * 2;
+                if (!listeners.isEmpty()) {
+                    probeNodes(localServers, spawnedAtNanos, bound, ready);
+                }
                 if (clusterIsReady(localServers)) {
                     break;
                 }
@@ -316,8 +715,46 @@ public class CrateTestCluster extends ExternalResource {
         }
     }
 
+    /**
+     * Check every node that is not ready yet whether its HTTP port is bound and
+     * whether it answers SQL requests, and notify the listeners about it.
+     */
+    private void probeNodes(CrateTestServer[] servers, long[] spawnedAtNanos, boolean[] bound, boolean[] ready) {
+        for (int i = 0; i < servers.length; i++) {
+            CrateTestServer server = servers[i];
+            if (!bound[i]) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(server.crateHost(), server.httpPort()), 100);
+                    bound[i] = true;
+                    long elapsed = System.nanoTime() - spawnedAtNanos[i];
+                    notifyListeners(l -> l.nodePortBound(server, elapsed));
+                } catch (IOException e) {
+                    continue;
+                }
+            }
+            if (!ready[i]) {
+                try {
+                    if (numberOfNodes(nodeUrl(server)) >= 0) {
+                        ready[i] = true;
+                        long elapsed = System.nanoTime() - spawnedAtNanos[i];
+                        notifyListeners(l -> l.nodeReady(server, elapsed));
+                    }
+                } catch (IOException e) {
+                    // not ready yet
+                }
+            }
+        }
+    }
+
     private boolean clusterIsReady(CrateTestServer[] servers) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) randomUrlFromServers().openConnection();
+        return servers.length == numberOfNodes(randomUrlFromServers());
+    }
+
+    /**
+     * @return the number of nodes the node behind the given URL sees, or -1 if it did not answer successfully
+     */
+    private static int numberOfNodes(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("POST");
 
         String query = "{\"stmt\": \"select count(*) as nodes from sys.nodes\"}";
@@ -331,49 +768,209 @@ public class CrateTestCluster extends ExternalResource {
             JsonObject response = parseResponse(connection.getInputStream());
             JsonArray rows = response.getAsJsonArray("rows");
             JsonArray rowsNestedArray = rows.get(0).getAsJsonArray();
-            return servers.length == rowsNestedArray.get(0).getAsInt();
+            return rowsNestedArray.get(0).getAsInt();
         }
-        return false;
+        return -1;
     }
 
     private URL randomUrlFromServers() throws MalformedURLException {
-        CrateTestServer server = randomServer();
+        return nodeUrl(randomServer());
+    }
+
+    private static URL nodeUrl(CrateTestServer server) throws MalformedURLException {
         return new URL(String.format("http://%s:%d/_sql", server.crateHost(), server.httpPort()));
     }
 
     private static JsonObject parseResponse(InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-        StringBuilder res = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            res.append(line);
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
         }
-        br.close();
-        return new JsonParser().parse(res.toString()).getAsJsonObject();
     }
 
     @Override
     public void before() throws Throwable {
-        prepareEnvironment();
-        startCluster();
+        if (keepWarmMillis > 0) {
+            startWarm();
+        } else {
+            prepareEnvironment();
+            startCluster();
+        }
+    }
+
+    private void startWarm() throws Throwable {
+        synchronized (WarmCluster.class) {
+            int reaped = WarmCluster.reapExpired();
+            if (reaped > 0) {
+                Utils.log("Stopped %d expired warm clusters", reaped);
+            }
+            try (FileChannel ignored = WarmCluster.lock(configHash)) {
+                WarmCluster state = WarmCluster.read(configHash);
+                if (state != null && state.isLeased()) {
+                    // the nodes are in use by another cluster, which may be in another JVM
+                    Utils.log("Warm cluster %s is in use, starting a separate cluster", configHash);
+                    clusterUUID = UUID.randomUUID();
+                    prepareEnvironment();
+                    startCluster();
+                    return;
+                }
+                if (state != null) {
+                    if (attach(state)) {
+                        warm = true;
+                        return;
+                    }
+                    state.destroy();
+                }
+                prepareEnvironment();
+                startCluster();
+                try {
+                    writeWarmState(new WarmCluster(), true);
+                    warm = true;
+                } catch (IOException e) {
+                    Utils.log("Could not keep cluster warm, it is stopped after the tests: %s", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reattach to the nodes of a cluster kept warm by a previous JVM.
+     *
+     * @return false if the nodes are not running or not healthy
+     */
+    private boolean attach(WarmCluster state) {
+        if (!state.isAlive() || state.nodes.size() != numberOfNodes) {
+            return false;
+        }
+        long startNanos = System.nanoTime();
+        int[] transportPorts = new int[numberOfNodes];
+        for (int i = 0; i < numberOfNodes; i++) {
+            transportPorts[i] = state.nodes.get(i).transportPort;
+        }
+        String[] unicastHosts = getUnicastHosts(hostAddress, transportPorts);
+        int[][] cpus = nodeResources == null ? new int[numberOfNodes + 1][] : nodeResources.assignCpus(forkSlot, numberOfNodes);
+        CrateTestServer[] attached = new CrateTestServer[numberOfNodes];
+        for (int i = 0; i < numberOfNodes; i++) {
+            WarmCluster.Node node = state.nodes.get(i);
+            attached[i] = new CrateTestServer(
+                clusterName,
+                node.httpPort,
+                node.transportPort,
+                node.psqlPort,
+                crateWorkingDir(),
+                hostAddress,
+                settingsOfNode(settings, i),
+                commandLineArguments,
+                crateVersion,
+                unicastHosts
+            );
+            attached[i].latencyRecorder(latencyRecorder);
+            attached[i].regressionRecorder(regressionRecorder);
+            attached[i].configFile(configFile);
+            attached[i].resources(nodeResources, cpus[i + 1]);
+            attached[i].keepRunning(true);
+            if (!attached[i].attach(node.pid)) {
+                return false;
+            }
+        }
+        servers = attached;
+        if (!isHealthy(true)) {
+            servers = null;
+            return false;
+        }
+        try {
+            writeWarmState(state, true);
+        } catch (IOException e) {
+            Utils.log("Could not update warm cluster state: %s", e);
+        }
+        Utils.log("Reattached to warm cluster %s", configHash);
+        long elapsed = System.nanoTime() - startNanos;
+        notifyListeners(l -> l.clusterReady(clusterName, numberOfNodes, elapsed));
+        return true;
+    }
+
+    /**
+     * Record the running nodes.
+     *
+     * @param leased true while this cluster uses the nodes, false to release them and start the time to live
+     */
+    private void writeWarmState(WarmCluster state, boolean leased) throws IOException {
+        state.configHash = configHash;
+        state.workingDir = crateWorkingDir().toAbsolutePath().toString();
+        state.ttlMillis = keepWarmMillis;
+        if (leased) {
+            state.lease(leaseId);
+        } else {
+            state.release(System.currentTimeMillis());
+        }
+        state.nodes.clear();
+        for (CrateTestServer server : serversSafe()) {
+            state.nodes.add(WarmCluster.node(server));
+        }
+        state.write();
+        state.spawnReaper();
+    }
+
+    /**
+     * Keep the nodes running for the next JVM if all of them are running and release the lease,
+     * which starts the time to live.
+     *
+     * @return false if the cluster has to be stopped
+     */
+    private boolean keepWarm(CrateTestServer[] localServers) {
+        if (localServers.length != numberOfNodes || runningServers(localServers).size() != numberOfNodes) {
+            return false;
+        }
+        synchronized (WarmCluster.class) {
+            try (FileChannel ignored = WarmCluster.lock(configHash)) {
+                WarmCluster state = WarmCluster.read(configHash);
+                writeWarmState(state == null ? new WarmCluster() : state, false);
+                return true;
+            } catch (IOException e) {
+                Utils.log("Could not keep cluster warm: %s", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stop all clusters kept running by {@link Builder#keepWarm(long, TimeUnit)} on this machine which are
+     * not in use by a running cluster, e.g. when switching branches.
+     *
+     * @return the number of stopped clusters
+     */
+    public static int stopWarmClusters() throws IOException {
+        synchronized (WarmCluster.class) {
+            return WarmCluster.reapAll();
+        }
     }
 
     public void startCluster() throws Throwable {
+        long startNanos = System.nanoTime();
         servers = buildServers();
-        for (CrateTestServer server : servers) {
+        if (nodeResources != null) {
+            harnessPinned = NodeResources.pinCurrentProcess(nodeResources.assignCpus(forkSlot, numberOfNodes)[0]);
+        }
+        long[] spawnedAtNanos = new long[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            CrateTestServer server = servers[i];
+            spawnedAtNanos[i] = System.nanoTime();
             try {
-                server.before();
-            } catch (IllegalStateException e) {
+                spawn(server);
+            } catch (Throwable t) {
                 after(); // ensure that all testservers are shutdown (and free their port)
-                throw new IllegalStateException("Crate Test Cluster not started completely", e);
+                throw new IllegalStateException("Crate Test Cluster not started completely", t);
             }
+            long elapsed = System.nanoTime() - spawnedAtNanos[i];
+            notifyListeners(l -> l.nodeSpawned(server, elapsed));
         }
         try {
-            waitUntilClusterIsReady(30 * 1000);
+            waitUntilClusterIsReady(30 * 1000, spawnedAtNanos);
         } catch (Exception e) {
             after();
             throw new IllegalStateException("Crate Test Cluster not started completely", e);
         }
+        long elapsed = System.nanoTime() - startNanos;
+        notifyListeners(l -> l.clusterReady(clusterName, numberOfNodes, elapsed));
     }
 
     public void prepareEnvironment() throws IOException {
@@ -382,10 +979,14 @@ public class CrateTestCluster extends ExternalResource {
         Path crateWorkingDir = crateWorkingDir();
 
         if (Files.notExists(crateWorkingDir)) {
-            Utils.uncompressTarGZ(
+            notifyListeners(l -> l.extractStarted(downloadedCrateTarGz, crateWorkingDir));
+            long startNanos = System.nanoTime();
+            int entries = Utils.uncompressTarGZ(
                     downloadedCrateTarGz.toFile(),
                     crateWorkingDir.toFile()
             );
+            long elapsed = System.nanoTime() - startNanos;
+            notifyListeners(l -> l.extractFinished(crateWorkingDir, entries, elapsed));
         }
     }
 
@@ -403,27 +1004,47 @@ public class CrateTestCluster extends ExternalResource {
 
         Path tarGz;
         if (downloadSource instanceof FileDownloadSource) {
-            tarGz = Paths.get(downloadSource.downloadUrl().getPath());
+            try {
+                tarGz = Paths.get(downloadSource.downloadUrl().toURI());
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Provided download source url is malformed", e);
+            }
         } else {
             tarGz = TMP_CACHE_DIR.resolve(tarGzFileName);
         }
 
+        // parallel test JVMs share the cache, so only one of them may download a distribution at a time
+        synchronized (DOWNLOAD_LOCK) {
+            try (FileChannel lockChannel = FileChannel.open(TMP_CACHE_DIR.resolve(tarGzFileName + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                downloadCrateTarGz(tarGzFileName, tarGz);
+            }
+        }
+        return tarGz;
+    }
+
+    private void downloadCrateTarGz(String tarGzFileName, Path tarGz) throws IOException {
         boolean isLatestDistribution = tarGzFileName.contains(LATEST_DISTRIBUTION_VERSION_IDENTIFIER);
         if (!isLatestDistribution && Files.exists(tarGz)) {
             Utils.log("No need to download crate. Already downloaded %s to: %s", downloadSource, tarGz);
         } else {
             Path tarGzPart = TMP_CACHE_DIR.resolve(String.format("%s.part-%s", tarGzFileName, clusterUUID));
             Utils.log("Downloading Crate %s to: %s", downloadSource, tarGzPart);
+            notifyListeners(l -> l.downloadStarted(downloadSource));
+            long startNanos = System.nanoTime();
+            long bytes;
             try (InputStream in = downloadSource.downloadUrl().openStream()) {
-                Files.copy(in, tarGzPart);
+                bytes = Files.copy(in, tarGzPart);
             }
+            long elapsed = System.nanoTime() - startNanos;
+            notifyListeners(l -> l.downloadFinished(downloadSource, bytes, elapsed));
             if(isLatestDistribution) {
                 Files.move(tarGzPart, tarGz, StandardCopyOption.REPLACE_EXISTING);
             } else {
                 Files.move(tarGzPart, tarGz);
             }
         }
-        return tarGz;
     }
 
     private String fileNameFromDownloadSource(DownloadSource downloadSource) throws MalformedURLException {
@@ -431,6 +1052,13 @@ public class CrateTestCluster extends ExternalResource {
         return filePath.substring(filePath.lastIndexOf("/") + 1);
     }
 
+    /**
+     * @return the version extracted from the download source, or {@code latest}
+     */
+    public String crateVersion() {
+        return crateVersion;
+    }
+
     public Path crateWorkingDir() {
         return Paths.get(
                 String.format("%s_%s", downloadSource.folder(workingDir.toFile()).toString(), clusterUUID)
@@ -440,8 +1068,22 @@ public class CrateTestCluster extends ExternalResource {
     @Override
     public void after() {
         CrateTestServer[] localServers = serversSafe();
+        unpinHarness();
+        if (warm) {
+            warm = false;
+            if (keepWarm(localServers)) {
+                Utils.log("Keeping cluster %s warm", configHash);
+                servers = null;
+                return;
+            }
+            deleteWarmState();
+        }
         for (CrateTestServer server : localServers) {
+            long startNanos = System.nanoTime();
             server.after();
+            releaseNode(server);
+            long elapsed = System.nanoTime() - startNanos;
+            notifyListeners(l -> l.nodeStopped(server, elapsed));
         }
         try {
             removeCrateDir();
@@ -451,11 +1093,44 @@ public class CrateTestCluster extends ExternalResource {
         servers = null;
     }
 
+    private void unpinHarness() {
+        if (!harnessPinned) {
+            return;
+        }
+        harnessPinned = false;
+        try {
+            NodeResources.unpinCurrentProcess();
+        } catch (IOException e) {
+            Utils.log("Could not restore the CPUs of the test JVM: %s", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteWarmState() {
+        synchronized (WarmCluster.class) {
+            try (FileChannel ignored = WarmCluster.lock(configHash)) {
+                Files.deleteIfExists(WarmCluster.stateFile(configHash));
+            } catch (IOException e) {
+                Utils.log("Could not delete warm cluster state: %s", e);
+            }
+        }
+    }
+
     private void removeCrateDir() throws IOException {
         Path cratePath = crateWorkingDir();
         if (Files.exists(cratePath) && !keepWorkingDir) {
+            long startNanos = System.nanoTime();
             Utils.deletePath(cratePath);
             assert Files.notExists(cratePath);
+            long elapsed = System.nanoTime() - startNanos;
+            notifyListeners(l -> l.workingDirDeleted(cratePath, elapsed));
+        }
+    }
+
+    private void notifyListeners(Consumer<ClusterLifecycleListener> event) {
+        for (ClusterLifecycleListener listener : listeners) {
+            event.accept(listener);
         }
     }
 
@@ -466,13 +1141,611 @@ public class CrateTestCluster extends ExternalResource {
         return servers;
     }
 
+    /**
+     * @return a random running node, or a random node if none is running
+     */
     public CrateTestServer randomServer() {
         CrateTestServer[] localServers = serversSafe();
-        return localServers[ThreadLocalRandom.current().nextInt(localServers.length)];
+        List<CrateTestServer> running = runningServers(localServers);
+        if (running.isEmpty()) {
+            return localServers[ThreadLocalRandom.current().nextInt(localServers.length)];
+        }
+        return running.get(ThreadLocalRandom.current().nextInt(running.size()));
+    }
+
+    private static List<CrateTestServer> runningServers(CrateTestServer[] localServers) {
+        List<CrateTestServer> running = new ArrayList<>(localServers.length);
+        for (CrateTestServer server : localServers) {
+            if (server.isRunning()) {
+                running.add(server);
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Stop a node and wait up to 60 seconds for the remaining nodes, see {@link #stopNode(int, long, TimeUnit)}.
+     */
+    public long stopNode(int index) throws TimeoutException, InterruptedException {
+        return stopNode(index, HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop a node. Its ports and data directory are kept, so it can be started again using
+     * {@link #startNode(int)}. Waits until the remaining nodes see each other and all primary shards
+     * are active. Replicas of the stopped node may stay unassigned, e.g. for the
+     * {@code unassigned.node_left.delayed_timeout} or if no other node can hold them.
+     *
+     * @param index index of the node in {@link #servers()}
+     * @return the milliseconds it took after stopping the node until the remaining nodes were available
+     */
+    public long stopNode(int index, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+        CrateTestServer server = server(index);
+        long startNanos = System.nanoTime();
+        server.after();
+        long stoppedNanos = System.nanoTime();
+        notifyListeners(l -> l.nodeStopped(server, stoppedNanos - startNanos));
+        waitUntilPrimariesActive(unit.toMillis(timeout));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stoppedNanos);
+    }
+
+    /**
+     * Start the process of a node.
+     *
+     * @throws IOException if the process could not be started, instead of waiting for a node which never comes up
+     */
+    private static void spawn(CrateTestServer server) throws Throwable {
+        server.before();
+        // a failure to spawn the process is recorded in the pid
+        try {
+            server.pid().toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Start a node and wait up to 60 seconds for the cluster, see {@link #startNode(int, long, TimeUnit)}.
+     */
+    public long startNode(int index) throws Throwable {
+        return startNode(index, HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a node which was stopped using {@link #stopNode(int)} and wait until it rejoined
+     * the cluster and all shards, replicas included, are started.
+     *
+     * @param index index of the node in {@link #servers()}
+     * @return the milliseconds from starting the node until the cluster was healthy
+     */
+    public long startNode(int index, long timeout, TimeUnit unit) throws Throwable {
+        CrateTestServer server = server(index);
+        if (server.isRunning()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "node %d is already running", index));
+        }
+        long startNanos = System.nanoTime();
+        spawn(server);
+        long spawned = System.nanoTime() - startNanos;
+        notifyListeners(l -> l.nodeSpawned(server, spawned));
+        waitUntilHealthy(unit.toMillis(timeout));
+        long elapsed = System.nanoTime() - startNanos;
+        notifyListeners(l -> l.nodeReady(server, elapsed));
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    /**
+     * Stop and start a node, see {@link #stopNode(int)} and {@link #startNode(int)}.
+     *
+     * @return the milliseconds from stopping the node until the cluster was healthy again
+     */
+    public long restartNode(int index) throws Throwable {
+        return restartNode(index, HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop and start a node, see {@link #stopNode(int, long, TimeUnit)} and {@link #startNode(int, long, TimeUnit)}.
+     *
+     * @param timeout the time to wait after stopping and after starting the node
+     * @return the milliseconds from stopping the node until the cluster was healthy again
+     */
+    public long restartNode(int index, long timeout, TimeUnit unit) throws Throwable {
+        long startNanos = System.nanoTime();
+        stopNode(index, timeout, unit);
+        startNode(index, timeout, unit);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Restart all nodes one after the other, waiting for the cluster to be healthy after each restart.
+     *
+     * @return the duration of each restart in milliseconds, see {@link #restartNode(int)}
+     */
+    public long[] rollingRestart() throws Throwable {
+        return rollingRestart(HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Restart all nodes one after the other, waiting for the cluster to be healthy after each restart.
+     *
+     * @param timeout the time to wait after stopping and after starting each node
+     * @return the duration of each restart in milliseconds, see {@link #restartNode(int, long, TimeUnit)}
+     */
+    public long[] rollingRestart(long timeout, TimeUnit unit) throws Throwable {
+        CrateTestServer[] localServers = serversSafe();
+        long[] durations = new long[localServers.length];
+        for (int i = 0; i < localServers.length; i++) {
+            durations[i] = restartNode(i, timeout, unit);
+        }
+        return durations;
+    }
+
+    /**
+     * Start additional nodes and wait up to 5 minutes for the shards to be rebalanced,
+     * see {@link #addNodes(int, long, TimeUnit)}.
+     */
+    public ScalingReport addNodes(int count) throws Throwable {
+        return addNodes(count, REBALANCE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start additional nodes which join the running cluster and wait until the shards are
+     * rebalanced: first until the balancer moves shards or the new nodes already hold their
+     * share of the shards, then until no shard is relocating or initializing anymore.
+     * The new nodes are appended to {@link #servers()}. Nodes which fail to start or to join
+     * the cluster are stopped and removed again.
+     *
+     * @param timeout the time to wait for the new nodes to join and, separately, for the rebalancing
+     */
+    public ScalingReport addNodes(int count, long timeout, TimeUnit unit) throws Throwable {
+        if (count <= 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid number of nodes: %d", count));
+        }
+        CrateTestServer[] existing = serversSafe();
+        CrateTestServer[] added = buildServers(existing, count);
+        CrateTestServer[] all = Arrays.copyOf(existing, existing.length + count);
+        System.arraycopy(added, 0, all, existing.length, count);
+        servers = all;
+
+        long startNanos = System.nanoTime();
+        try {
+            for (CrateTestServer server : added) {
+                long spawnedNanos = System.nanoTime();
+                spawn(server);
+                long spawned = System.nanoTime() - spawnedNanos;
+                notifyListeners(l -> l.nodeSpawned(server, spawned));
+            }
+            waitUntilJoined(added, unit.toMillis(timeout));
+        } catch (Throwable t) {
+            for (CrateTestServer server : added) {
+                server.after();
+                releaseNode(server);
+            }
+            servers = existing;
+            throw t;
+        }
+        int maxRelocatingShards = waitUntilRebalanced(added, unit.toMillis(timeout));
+        long elapsedNanos = System.nanoTime() - startNanos;
+        for (CrateTestServer server : added) {
+            notifyListeners(l -> l.nodeReady(server, elapsedNanos));
+        }
+        long movedBytes = 0;
+        for (CrateTestServer server : added) {
+            movedBytes += shardBytes(server, server);
+        }
+        return new ScalingReport(existing.length, all.length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+            maxRelocatingShards, movedBytes);
+    }
+
+    /**
+     * Decommission nodes and wait up to 5 minutes for the shards to be rebalanced,
+     * see {@link #removeNodes(int, long, TimeUnit)}.
+     */
+    public ScalingReport removeNodes(int count) throws TimeoutException, InterruptedException, IOException {
+        return removeNodes(count, REBALANCE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decommission the last nodes of {@link #servers()} and wait until the shards are
+     * rebalanced on the remaining nodes. The data of a decommissioned node is moved to the
+     * other nodes before it shuts down.
+     *
+     * @param timeout the time to wait for the rebalancing after the nodes were decommissioned
+     */
+    public ScalingReport removeNodes(int count, long timeout, TimeUnit unit)
+        throws TimeoutException, InterruptedException, IOException {
+        CrateTestServer[] existing = serversSafe();
+        if (count <= 0 || count >= existing.length) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "invalid number of nodes to remove: %d, cluster has %d nodes", count, existing.length));
+        }
+        CrateTestServer[] remaining = Arrays.copyOf(existing, existing.length - count);
+        CrateTestServer[] removed = Arrays.copyOfRange(existing, existing.length - count, existing.length);
+        long movedBytes = 0;
+        for (CrateTestServer server : removed) {
+            movedBytes += shardBytes(remaining[0], server);
+        }
+
+        long startNanos = System.nanoTime();
+        int maxRelocatingShards = 0;
+        for (CrateTestServer server : removed) {
+            maxRelocatingShards = Math.max(maxRelocatingShards, decommission(server, remaining[0]));
+        }
+        servers = remaining;
+        maxRelocatingShards = Math.max(maxRelocatingShards,
+            waitUntilRebalanced(new CrateTestServer[0], unit.toMillis(timeout)));
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return new ScalingReport(existing.length, remaining.length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+            maxRelocatingShards, movedBytes);
+    }
+
+    /**
+     * @return the maximum number of relocating shards seen while waiting
+     */
+    private int decommission(CrateTestServer server, CrateTestServer coordinator)
+        throws IOException, InterruptedException, TimeoutException {
+        String nodeName = nodeName(server);
+        long startNanos = System.nanoTime();
+        int maxRelocatingShards = 0;
+        if (!CrateVersion.of(crateVersion).supportsDecommission()) {
+            // older versions have no decommission statement, so the node is drained by excluding it from allocation
+            coordinator.execute("SET GLOBAL TRANSIENT \"cluster.routing.allocation.exclude._name\" = ?", nodeName);
+            long deadline = System.currentTimeMillis() + DECOMMISSION_TIMEOUT_MILLIS;
+            while (shardBytes(coordinator, server) > 0 || count(coordinator.execute(
+                "select count(*) from sys.shards where node['name'] = ?", nodeName)) > 0) {
+                maxRelocatingShards = Math.max(maxRelocatingShards, relocatingShards(coordinator));
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException(String.format(Locale.ENGLISH, "Node %s was not drained within %dms",
+                        nodeName, DECOMMISSION_TIMEOUT_MILLIS));
+                }
+                Thread.sleep(100);
+            }
+            server.after();
+            coordinator.execute("RESET GLOBAL \"cluster.routing.allocation.exclude._name\"");
+        } else {
+            try {
+                server.execute("ALTER CLUSTER DECOMMISSION ?", nodeName);
+            } catch (IOException e) {
+                // the node may shut down before it responds
+            }
+            long deadline = System.currentTimeMillis() + DECOMMISSION_TIMEOUT_MILLIS;
+            while (server.isRunning()) {
+                maxRelocatingShards = Math.max(maxRelocatingShards, relocatingShards(coordinator));
+                if (System.currentTimeMillis() > deadline) {
+                    Utils.log("Node %s did not shut down within %dms after being decommissioned, stopping it",
+                        nodeName, DECOMMISSION_TIMEOUT_MILLIS);
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            server.after();
+        }
+        releaseNode(server);
+        long elapsed = System.nanoTime() - startNanos;
+        notifyListeners(l -> l.nodeStopped(server, elapsed));
+        return maxRelocatingShards;
+    }
+
+    /**
+     * Wait until all running nodes see each other.
+     *
+     * @throws IllegalStateException if one of the added nodes exits
+     */
+    private void waitUntilJoined(CrateTestServer[] added, long timeoutMillis) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            for (CrateTestServer server : added) {
+                if (!server.isRunning()) {
+                    throw new IllegalStateException(String.format(Locale.ENGLISH,
+                        "Node %s:%d exited before it joined cluster %s", server.crateHost(), server.httpPort(), clusterName));
+                }
+            }
+            try {
+                if (allNodesJoined(runningServers(serversSafe()))) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not reachable yet
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException(String.format(Locale.ENGLISH,
+                    "Nodes did not join cluster %s within %dms", clusterName, timeoutMillis));
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * @param added nodes which should receive shards; the balancer starts moving shards some time after they joined
+     * @return the maximum number of relocating shards seen while waiting
+     */
+    private int waitUntilRebalanced(CrateTestServer[] added, long timeoutMillis) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        int maxRelocatingShards = 0;
+        boolean moving = added.length == 0;
+        while (true) {
+            List<CrateTestServer> running = runningServers(serversSafe());
+            if (!running.isEmpty()) {
+                int relocating = relocatingShards(running.get(0));
+                maxRelocatingShards = Math.max(maxRelocatingShards, relocating);
+                moving = moving || relocating > 0 || holdShareOfShards(running.get(0), added, running.size());
+            }
+            if (moving && isHealthy(true)) {
+                return maxRelocatingShards;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException(String.format(Locale.ENGLISH, moving
+                    ? "Cluster %s was not rebalanced within %dms"
+                    : "No shards were moved to the new nodes of cluster %s within %dms", clusterName, timeoutMillis));
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * @return true if every added node holds at least its even share of the active shards, which is where
+     * the balancer stops moving shards to it
+     */
+    private static boolean holdShareOfShards(CrateTestServer coordinator, CrateTestServer[] added, int nodes) {
+        try {
+            long share = count(coordinator.execute(
+                "select count(*) from sys.shards where routing_state in ('STARTED', 'RELOCATING')")) / nodes;
+            for (CrateTestServer server : added) {
+                if (count(coordinator.execute("select count(*) from sys.shards where node['name'] = ? and routing_state = 'STARTED'",
+                    nodeName(server))) < share) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int relocatingShards(CrateTestServer server) {
+        try {
+            return (int) Math.max(0, count(server.execute("select count(*) from sys.shards where routing_state = 'RELOCATING'")));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String nodeName(CrateTestServer server) throws IOException {
+        // nodes on their own loopback address share the HTTP port, so the port alone is ambiguous
+        SqlResult result = server.execute("select name from sys.nodes where rest_url = ?",
+            server.crateHost() + ":" + server.httpPort());
+        if (result.rows().isEmpty()) {
+            throw new IOException(String.format(Locale.ENGLISH, "Cannot determine the name of node %s:%d",
+                server.crateHost(), server.httpPort()));
+        }
+        return (String) result.rows().get(0)[0];
+    }
+
+    /**
+     * @return the size of all shards of the given node, as seen by the coordinator
+     */
+    private static long shardBytes(CrateTestServer coordinator, CrateTestServer server) throws IOException {
+        SqlResult result = coordinator.execute(
+            "select sum(size) from sys.shards where node['name'] = ?", nodeName(server));
+        Object bytes = result.rows().isEmpty() ? null : result.rows().get(0)[0];
+        return bytes == null ? 0 : ((Number) bytes).longValue();
+    }
+
+    /**
+     * Kill a node and wait up to 60 seconds for the remaining nodes, see {@link #killNode(int, long, TimeUnit)}.
+     */
+    public long killNode(int index) throws TimeoutException, InterruptedException {
+        return killNode(index, HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kill a node using {@code SIGKILL} and wait until the remaining nodes see each other and all
+     * primary shards are active. Like after {@link #stopNode(int, long, TimeUnit)}, the replicas of the
+     * killed node may stay unassigned. The node can be started again on the same data directory using
+     * {@link #startNode(int)}.
+     *
+     * @return the milliseconds it took after killing the node until the remaining nodes were available
+     */
+    public long killNode(int index, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+        CrateTestServer server = server(index);
+        long startNanos = System.nanoTime();
+        server.kill();
+        long killedNanos = System.nanoTime();
+        notifyListeners(l -> l.nodeStopped(server, killedNanos - startNanos));
+        waitUntilPrimariesActive(unit.toMillis(timeout));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - killedNanos);
+    }
+
+    /**
+     * Kill and start a node, waiting up to 60 seconds each, see {@link #killAndRestartNode(int, long, TimeUnit)}.
+     */
+    public long killAndRestartNode(int index) throws Throwable {
+        return killAndRestartNode(index, HEALTH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Kill a node using {@code SIGKILL}, start it again on the same data directory and wait
+     * until the cluster is healthy.
+     *
+     * @param timeout the time to wait after killing and after starting the node
+     * @return the milliseconds from killing the node until the cluster was healthy again
+     */
+    public long killAndRestartNode(int index, long timeout, TimeUnit unit) throws Throwable {
+        long startNanos = System.nanoTime();
+        killNode(index, timeout, unit);
+        startNode(index, timeout, unit);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Suspend a node using {@code SIGSTOP}. The node stays part of the cluster until the
+     * other nodes notice that it does not respond anymore.
+     */
+    public void freezeNode(int index) throws IOException, InterruptedException {
+        server(index).freeze();
+    }
+
+    /**
+     * Resume a node suspended by {@link #freezeNode(int)} and wait until the cluster is healthy.
+     *
+     * @return the milliseconds from resuming the node until the cluster was healthy
+     */
+    public long unfreezeNode(int index) throws IOException, InterruptedException, TimeoutException {
+        long startNanos = System.nanoTime();
+        server(index).unfreeze();
+        waitUntilHealthy(HEALTH_TIMEOUT_MILLIS);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Suspend a node for the given duration, like a long GC pause would, and wait until the
+     * cluster is healthy again.
+     *
+     * @return the milliseconds from resuming the node until the cluster was healthy
+     */
+    public long freezeNode(int index, long duration, TimeUnit unit)
+        throws IOException, InterruptedException, TimeoutException {
+        freezeNode(index);
+        try {
+            unit.sleep(duration);
+        } catch (InterruptedException e) {
+            server(index).unfreeze();
+            throw e;
+        }
+        return unfreezeNode(index);
+    }
+
+    private CrateTestServer server(int index) {
+        CrateTestServer[] localServers = serversSafe();
+        if (index < 0 || index >= localServers.length) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "invalid node index %d, cluster has %d nodes", index, localServers.length));
+        }
+        return localServers[index];
+    }
+
+    /**
+     * Wait until every running node sees all running nodes and no shard is initializing,
+     * relocating or unassigned.
+     */
+    void waitUntilHealthy(long timeoutMillis) throws TimeoutException, InterruptedException {
+        waitUntil(timeoutMillis, true);
+    }
+
+    /**
+     * Wait until every running node sees all running nodes and all primary shards are active.
+     * Unlike {@link #waitUntilHealthy(long)}, this is reached after a node left a cluster with replicated
+     * tables while its replicas are not allocated again.
+     */
+    private void waitUntilPrimariesActive(long timeoutMillis) throws TimeoutException, InterruptedException {
+        waitUntil(timeoutMillis, false);
+    }
+
+    private void waitUntil(long timeoutMillis, boolean allShards) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!isHealthy(allShards)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException(String.format(Locale.ENGLISH,
+                    "Cluster %s did not become %s within %dms",
+                    clusterName, allShards ? "healthy" : "available with all primary shards active", timeoutMillis));
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * @param allShards true to require all shards to be started, false to only require active primaries
+     */
+    private boolean isHealthy(boolean allShards) {
+        List<CrateTestServer> running = runningServers(serversSafe());
+        try {
+            if (!allNodesJoined(running)) {
+                return false;
+            }
+            if (running.isEmpty()) {
+                return true;
+            }
+            String statement = allShards
+                ? "select count(*) from sys.shards where routing_state <> 'STARTED'"
+                : "select count(*) from sys.shards where \"primary\" = true and routing_state in ('UNASSIGNED', 'INITIALIZING')";
+            return count(running.get(0).execute(statement)) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean allNodesJoined(List<CrateTestServer> running) throws IOException {
+        for (CrateTestServer server : running) {
+            if (count(server.execute("select count(*) from sys.nodes")) != running.size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long count(SqlResult result) {
+        return result.rows().isEmpty() ? -1 : ((Number) result.rows().get(0)[0]).longValue();
     }
 
     public Collection<CrateTestServer> servers() {
         return Collections.unmodifiableList(Arrays.asList(serversSafe()));
     }
 
+    /**
+     * Execute a SQL statement on a random node of the cluster.
+     *
+     * @see CrateTestServer#execute(String, Object...)
+     */
+    public SqlResult execute(String statement, Object... args) throws IOException {
+        return randomServer().execute(statement, args);
+    }
+
+    /**
+     * Change runtime settings of the cluster using {@code SET GLOBAL TRANSIENT}, e.g. between the iterations
+     * of a benchmark, without restarting the nodes. The settings are lost on a full cluster restart.
+     */
+    public void setGlobal(Map<String, Object> settings) throws IOException {
+        if (settings.isEmpty()) {
+            return;
+        }
+        List<String> assignments = new ArrayList<>();
+        for (String setting : settings.keySet()) {
+            assignments.add(quoteIdent(setting) + " = ?");
+        }
+        execute("SET GLOBAL TRANSIENT " + String.join(", ", assignments), settings.values().toArray());
+    }
+
+    /**
+     * @see #setGlobal(Map)
+     */
+    public void setGlobal(String setting, Object value) throws IOException {
+        setGlobal(Collections.singletonMap(setting, value));
+    }
+
+    /**
+     * Reset runtime settings to their defaults or the values of the node settings using {@code RESET GLOBAL}.
+     */
+    public void resetGlobal(String... settings) throws IOException {
+        if (settings.length == 0) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (String setting : settings) {
+            names.add(quoteIdent(setting));
+        }
+        execute("RESET GLOBAL " + String.join(", ", names));
+    }
+
+    private static String quoteIdent(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Execute a SQL statement on a random node and read the rows of the result one at a time.
+     *
+     * @see CrateTestServer#stream(String, Object...)
+     */
+    public ResultStream stream(String statement, Object... args) throws IOException {
+        return randomServer().stream(statement, args);
+    }
+
 }
@@ -0,0 +1,221 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.platform.commons.support.AnnotationSupport;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * JUnit 5 extension which starts a {@link CrateTestCluster} and injects it, or a random node of it
+ * as {@link CrateTestServer}, into constructors, lifecycle methods and test methods.
+ * <p>
+ * Clusters are kept in the {@link ExtensionContext.Store} of the test class or, with
+ * {@link CrateCluster.Scope#SESSION}, of the root context, so that all test classes with the same
+ * configuration share one cluster which is stopped at the end of the test run. Starting a cluster
+ * happens at most once per scope and key, also if test classes are executed concurrently.
+ * <p>
+ * The extension is either configured using the {@link CrateCluster} annotation or registered
+ * programmatically, but not both:
+ * <pre>
+ * &#64;RegisterExtension
+ * static final CrateTestClusterExtension CLUSTER = CrateTestClusterExtension.sessionScoped(
+ *     "three-nodes", () -&gt; CrateTestCluster.fromVersion("5.0.0").numberOfNodes(3));
+ * </pre>
+ */
+public class CrateTestClusterExtension implements BeforeAllCallback, ParameterResolver {
+
+    /**
+     * Name of a resource lock for the clusters of this extension. If parallel execution is enabled,
+     * tests which change a shared cluster, e.g. using {@link CrateTestCluster#stopNode(int)}, should
+     * declare {@code @ResourceLock(value = RESOURCE_LOCK, mode = READ_WRITE)} and all other tests
+     * {@code @ResourceLock(value = RESOURCE_LOCK, mode = READ)}.
+     */
+    public static final String RESOURCE_LOCK = "io.crate.testing.cluster";
+
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(CrateTestClusterExtension.class);
+    private static final String CLASS_SCOPE_KEY = "cluster";
+
+    private final CrateCluster.Scope scope;
+    private final String key;
+    private final Supplier<CrateTestCluster.Builder> builder;
+
+    /**
+     * Create an extension configured by the {@link CrateCluster} annotation of the test class.
+     */
+    public CrateTestClusterExtension() {
+        this(null, null, null);
+    }
+
+    private CrateTestClusterExtension(CrateCluster.Scope scope, String key, Supplier<CrateTestCluster.Builder> builder) {
+        this.scope = scope;
+        this.key = key;
+        this.builder = builder;
+    }
+
+    /**
+     * @param key identifies the cluster; test classes using the same key share the cluster
+     * @param builder creates the builder of the cluster if no cluster with this key is running yet
+     */
+    public static CrateTestClusterExtension sessionScoped(String key, Supplier<CrateTestCluster.Builder> builder) {
+        return new CrateTestClusterExtension(CrateCluster.Scope.SESSION, key, builder);
+    }
+
+    /**
+     * @param builder creates the builder of the cluster, which is started once per test class
+     */
+    public static CrateTestClusterExtension classScoped(Supplier<CrateTestCluster.Builder> builder) {
+        return new CrateTestClusterExtension(CrateCluster.Scope.CLASS, CLASS_SCOPE_KEY, builder);
+    }
+
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        cluster(context);
+    }
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        Class<?> type = parameterContext.getParameter().getType();
+        return type == CrateTestCluster.class || type == CrateTestServer.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        CrateTestCluster cluster = cluster(extensionContext);
+        if (parameterContext.getParameter().getType() == CrateTestServer.class) {
+            return cluster.randomServer();
+        }
+        return cluster;
+    }
+
+    /**
+     * @return the cluster of the given test class or test, started if necessary
+     */
+    public CrateTestCluster cluster(ExtensionContext context) {
+        ExtensionContext classContext = outermostClassContext(context);
+        CrateCluster.Scope localScope = scope;
+        String localKey = key;
+        Supplier<CrateTestCluster.Builder> localBuilder = builder;
+        if (localBuilder == null) {
+            CrateCluster config = findConfig(classContext);
+            localScope = config == null ? CrateCluster.Scope.SESSION : config.scope();
+            localKey = localScope == CrateCluster.Scope.CLASS ? CLASS_SCOPE_KEY : configKey(config);
+            localBuilder = () -> builder(config);
+        }
+        ExtensionContext owner = localScope == CrateCluster.Scope.SESSION ? context.getRoot() : classContext;
+        Supplier<CrateTestCluster.Builder> creator = localBuilder;
+        ClusterResource resource = owner.getStore(NAMESPACE).getOrComputeIfAbsent(
+            localKey, k -> ClusterResource.start(creator.get().build()), ClusterResource.class);
+        return resource.cluster;
+    }
+
+    /**
+     * Nested test classes use the cluster of their enclosing class.
+     */
+    private static ExtensionContext outermostClassContext(ExtensionContext context) {
+        ExtensionContext classContext = null;
+        for (ExtensionContext current = context; current != null; current = current.getParent().orElse(null)) {
+            if (current.getTestClass().isPresent() && current.getTestMethod().isEmpty()) {
+                classContext = current;
+            }
+        }
+        if (classContext == null) {
+            throw new ParameterResolutionException("A cluster can only be used within a test class");
+        }
+        return classContext;
+    }
+
+    private static CrateCluster findConfig(ExtensionContext classContext) {
+        Optional<CrateCluster> config = AnnotationSupport.findAnnotation(classContext.getRequiredTestClass(), CrateCluster.class);
+        return config.orElse(null);
+    }
+
+    private static String configKey(CrateCluster config) {
+        if (config == null) {
+            return "sysProperties";
+        }
+        return String.format(Locale.ENGLISH, "version=%s url=%s file=%s nodes=%d name=%s forkSlot=%s",
+            config.version(), config.url(), config.file(), config.numberOfNodes(), config.clusterName(), config.forkSlot());
+    }
+
+    private static CrateTestCluster.Builder builder(CrateCluster config) {
+        if (config == null) {
+            return CrateTestCluster.fromSysProperties();
+        }
+        CrateTestCluster.Builder builder;
+        if (!config.version().isEmpty()) {
+            builder = CrateTestCluster.fromVersion(config.version());
+        } else if (!config.url().isEmpty()) {
+            builder = CrateTestCluster.fromURL(config.url());
+        } else if (!config.file().isEmpty()) {
+            builder = CrateTestCluster.fromFile(config.file());
+        } else {
+            builder = CrateTestCluster.fromSysProperties();
+        }
+        builder.numberOfNodes(config.numberOfNodes()).clusterName(config.clusterName());
+        if (config.forkSlot()) {
+            try {
+                builder.forkSlot(ForkSlot.current());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not acquire fork slot", e);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Stops the cluster when the store which holds it is closed.
+     */
+    private static class ClusterResource implements ExtensionContext.Store.CloseableResource {
+
+        private final CrateTestCluster cluster;
+
+        private ClusterResource(CrateTestCluster cluster) {
+            this.cluster = cluster;
+        }
+
+        static ClusterResource start(CrateTestCluster cluster) {
+            try {
+                cluster.before();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException("Crate Test Cluster not started completely", t);
+            }
+            return new ClusterResource(cluster);
+        }
+
+        @Override
+        public void close() {
+            cluster.after();
+        }
+    }
+}
@@ -22,28 +22,31 @@
 package io.crate.testing;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.rules.ExternalResource;
 
 public class CrateTestServer extends ExternalResource {
 
-    private static final CrateVersion MIN_C_OPTION_VERSION = new CrateVersion("1.0.0");
-    private static final CrateVersion VERSION_2_0_0 = new CrateVersion("2.0.0");
-    private static final CrateVersion VERSION_3_2_0 = new CrateVersion("3.2.0");
-    private static final CrateVersion VERSION_4_0_0 = new CrateVersion("4.0.0");
-
     private static final Map<String, String> JDK_8_JAVA_HOME_CANDIDATES = new HashMap<>(3);
     static {
         JDK_8_JAVA_HOME_CANDIDATES.put("/usr/lib/jvm/", "**java-8*");
@@ -60,10 +63,19 @@ public class CrateTestServer extends ExternalResource {
     private final String[] unicastHosts;
     private final Map<String, Object> nodeSettings;
     private final Map<String, Object> commandLineArguments;
-    private final String crateVersion;
-    private final CompletableFuture<Long> pid = new CompletableFuture<>();
+    private final CrateVersion crateVersion;
+    private volatile CompletableFuture<Long> pid = new CompletableFuture<>();
 
-    private Process crateProcess;
+    private volatile ProcessHandle crateProcess;
+    private volatile boolean frozen;
+    private boolean shutdownHookAdded;
+    private boolean keepRunning;
+    private boolean configFile;
+    private LoopbackAddress loopbackAddress;
+    private volatile QueryLatencyRecorder latencyRecorder;
+    private volatile QueryRegressionRecorder regressionRecorder;
+    private NodeResources resources;
+    private int[] cpus;
 
 
     public int httpPort() {
@@ -86,10 +98,202 @@ public class CrateTestServer extends ExternalResource {
         return clusterName;
     }
 
+    /**
+     * @return the pid of the process of the most recent start of this node
+     */
     public CompletionStage<Long> pid() {
         return pid;
     }
 
+    /**
+     * @return true if the process of this node is alive and not frozen
+     */
+    public boolean isRunning() {
+        ProcessHandle process = crateProcess;
+        return process != null && process.isAlive() && !frozen;
+    }
+
+    /**
+     * Suspend the process of this node using {@code SIGSTOP}, e.g. to simulate a long GC pause.
+     * Not supported on Windows.
+     */
+    public void freeze() throws IOException, InterruptedException {
+        signal("STOP");
+        frozen = true;
+    }
+
+    /**
+     * Resume the process of this node after {@link #freeze()} using {@code SIGCONT}.
+     */
+    public void unfreeze() throws IOException, InterruptedException {
+        signal("CONT");
+        frozen = false;
+    }
+
+    /**
+     * Kill the process of this node using {@code SIGKILL}, without giving it a chance to shut down.
+     * The node can be started again on the same data directory using {@link #before()}.
+     */
+    public void kill() throws InterruptedException {
+        ProcessHandle process = crateProcess;
+        if (process != null) {
+            process.destroyForcibly();
+            waitForExit(process);
+        }
+        frozen = false;
+    }
+
+    private static void waitForExit(ProcessHandle process) throws InterruptedException {
+        try {
+            process.onExit().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void signal(String signal) throws IOException, InterruptedException {
+        if (isWindows()) {
+            throw new UnsupportedOperationException("Sending signals to processes is not supported on Windows");
+        }
+        ProcessHandle process = crateProcess;
+        if (process == null || !process.isAlive()) {
+            throw new IllegalStateException("crate server process is not running");
+        }
+        Process kill = new ProcessBuilder("kill", "-" + signal, Long.toString(process.pid()))
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        if (kill.waitFor() != 0) {
+            throw new IOException(String.format(Locale.ENGLISH,
+                "Could not send SIG%s to process %d", signal, process.pid()));
+        }
+    }
+
+    /**
+     * Execute a SQL statement using the HTTP endpoint of this node.
+     *
+     * @param args values for the {@code ?} placeholders of the statement
+     * @throws IOException if the node is not reachable or the statement fails
+     */
+    public SqlResult execute(String statement, Object... args) throws IOException {
+        return executeInSchema(null, statement, args);
+    }
+
+    /**
+     * Execute a SQL statement using the HTTP endpoint of this node and read the rows of the result one at a time,
+     * so that large results don't need to fit into memory. The rows are still computed by the node at once;
+     * use {@link PsqlConnection#stream(int, String, Object...)} to fetch them in pages.
+     *
+     * @throws IOException if the node is not reachable or the statement fails
+     */
+    public ResultStream stream(String statement, Object... args) throws IOException {
+        return HttpSqlClient.stream(crateHost, httpPort, null, statement, args);
+    }
+
+    SqlResult executeInSchema(String defaultSchema, String statement, Object... args) throws IOException {
+        long startNanos = System.nanoTime();
+        SqlResult result = HttpSqlClient.execute(crateHost, httpPort, defaultSchema, statement, args);
+        QueryLatencyRecorder recorder = latencyRecorder;
+        if (recorder != null) {
+            recorder.record(statement, this, startNanos, result);
+        }
+        QueryRegressionRecorder regressions = regressionRecorder;
+        if (regressions != null) {
+            regressions.record(statement, args, this, startNanos, result);
+        }
+        return result;
+    }
+
+    /**
+     * Open a connection to the PostgreSQL wire protocol endpoint of this node as the {@code crate} user.
+     */
+    public PsqlConnection psqlConnection() throws IOException {
+        return PsqlConnection.open(crateHost, psqlPort, "crate").recordLatencies(latencyRecorder, this);
+    }
+
+    void latencyRecorder(QueryLatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    void regressionRecorder(QueryRegressionRecorder regressionRecorder) {
+        this.regressionRecorder = regressionRecorder;
+    }
+
+    /**
+     * @param resources limits of the node, or null
+     * @param cpus CPUs to pin the node to, or null
+     */
+    void resources(NodeResources resources, int[] cpus) {
+        this.resources = resources;
+        this.cpus = cpus;
+    }
+
+    /**
+     * Let the process of this node outlive the JVM: its output goes to {@link #logFile()}
+     * instead of the output of the JVM and it is not stopped by a shutdown hook.
+     */
+    void keepRunning(boolean keepRunning) {
+        this.keepRunning = keepRunning;
+    }
+
+    /**
+     * Write the settings of this node into a {@code crate.yml} in {@link #configDir()} instead of
+     * passing each of them as a command line option.
+     */
+    void configFile(boolean configFile) {
+        this.configFile = configFile;
+    }
+
+    /**
+     * @return the config directory of this node if its settings are written into a config file
+     */
+    Path configDir() {
+        return workingDir.resolve("config-" + fileSuffix());
+    }
+
+    /**
+     * @param loopbackAddress the address lease the node binds, or null
+     */
+    void loopbackAddress(LoopbackAddress loopbackAddress) {
+        this.loopbackAddress = loopbackAddress;
+    }
+
+    LoopbackAddress loopbackAddress() {
+        return loopbackAddress;
+    }
+
+    /**
+     * @return a suffix for the files of this node which is unique within the working directory;
+     * nodes with an address of their own all use the same ports
+     */
+    private String fileSuffix() {
+        return loopbackAddress == null
+            ? Integer.toString(httpPort)
+            : String.format(Locale.ENGLISH, "%s-%d", crateHost, httpPort);
+    }
+
+    /**
+     * @return the file the output of the node is written to if it is kept running
+     */
+    Path logFile() {
+        return workingDir.resolve("crate-testing-" + fileSuffix() + ".log");
+    }
+
+    /**
+     * Use an already running process as the process of this node, e.g. one started by a previous JVM.
+     *
+     * @return false if no process with the given pid exists
+     */
+    boolean attach(long pid) {
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (process.isEmpty() || !process.get().isAlive()) {
+            return false;
+        }
+        crateProcess = process.get();
+        pid().toCompletableFuture().complete(pid);
+        return true;
+    }
+
     public CrateTestServer(String clusterName,
                            int httpPort,
                            int transportPort,
@@ -109,16 +313,22 @@ public class CrateTestServer extends ExternalResource {
         this.workingDir = workingDir;
         this.nodeSettings = settings == null ? Collections.<String, Object>emptyMap() : settings;
         this.commandLineArguments = commandLineArguments == null ? Collections.<String, Object>emptyMap() : commandLineArguments;
-        this.crateVersion = crateVersion;
+        this.crateVersion = CrateVersion.of(crateVersion);
     }
 
     @Override
     protected void before() throws Throwable {
         Utils.log("Starting crate server process...");
+        CompletableFuture<Long> localPid = pid;
+        if (localPid.isDone()) {
+            // restart of a stopped node
+            localPid = new CompletableFuture<>();
+            pid = localPid;
+        }
         try {
-            pid.complete(startCrateAsDaemon());
+            localPid.complete(startCrateAsDaemon());
         } catch (Exception ex) {
-            pid.completeExceptionally(ex);
+            localPid.completeExceptionally(ex);
         }
     }
 
@@ -127,8 +337,12 @@ public class CrateTestServer extends ExternalResource {
         Utils.log("Stopping crate server process...");
         if (crateProcess != null) {
             try {
+                if (frozen) {
+                    // a stopped process does not handle SIGTERM
+                    unfreeze();
+                }
                 crateProcess.destroy();
-                crateProcess.waitFor();
+                waitForExit(crateProcess);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -138,44 +352,58 @@ public class CrateTestServer extends ExternalResource {
     private long startCrateAsDaemon() throws IOException, InterruptedException {
         Map<String, Object> settingsMap = prepareSettings();
 
-        String[] command = new String[settingsMap.size() + commandLineArguments.size() + 1];
-        int idx = 0;
+        List<String> command = new ArrayList<>(NodeResources.pinningCommand(cpus));
 
         String executable = Paths.get(workingDir.toString(), "bin", "crate").toString();
         if (isWindows()) {
             executable = executable.concat(".bat");
         }
-        command[idx++] = executable;
+        command.add(executable);
 
         // crate settings
-        String settingPrefix = MIN_C_OPTION_VERSION.gt(crateVersion) ? "-Des." : "-C";
-        for (Map.Entry<String, Object> entry : settingsMap.entrySet()) {
-            command[idx++] = String.format(Locale.ENGLISH, "%s%s=%s", settingPrefix, entry.getKey(), entry.getValue());
+        String settingPrefix = crateVersion.supportsCOption() ? "-C" : "-Des.";
+        if (configFile) {
+            Path configDir = writeConfig(settingsMap);
+            command.add(String.format(Locale.ENGLISH, "%spath.conf=%s", settingPrefix, configDir.toAbsolutePath()));
+        } else {
+            for (Map.Entry<String, Object> entry : settingsMap.entrySet()) {
+                command.add(String.format(Locale.ENGLISH, "%s%s=%s", settingPrefix, entry.getKey(), entry.getValue()));
+            }
         }
 
         // rest of command line arguments
         for (Map.Entry<String, Object> entry : commandLineArguments.entrySet()) {
             Object value = entry.getValue();
             if (value != null) {
-                command[idx++] = String.format(Locale.ENGLISH, "%s=%s", entry.getKey(), value);
+                command.add(String.format(Locale.ENGLISH, "%s=%s", entry.getKey(), value));
             } else {
-                command[idx++] = entry.getKey();
+                command.add(entry.getKey());
             }
         }
 
         ProcessBuilder processBuilder = new ProcessBuilder(command);
         assert Files.exists(workingDir);
         processBuilder.directory(workingDir.toFile());
-        processBuilder.inheritIO();
+        if (keepRunning) {
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile().toFile()));
+        } else {
+            processBuilder.inheritIO();
+        }
         prepareEnvironment(processBuilder.environment(), crateVersion);
-        crateProcess = processBuilder.start();
+        applyResources(processBuilder.environment());
+        crateProcess = processBuilder.start().toHandle();
 
+        if (shutdownHookAdded || keepRunning) {
+            return crateProcess.pid();
+        }
+        shutdownHookAdded = true;
         // shut down crate process when JVM is cancelled
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
                 try {
-                    Process localProcess = crateProcess;
+                    ProcessHandle localProcess = crateProcess;
                     if (localProcess != null) {
                         localProcess.destroy();
                     }
@@ -200,14 +428,14 @@ public class CrateTestServer extends ExternalResource {
         settings.put("psql.enabled", true);
         settings.put("transport.tcp.port", transportPort);
 
-        if (VERSION_4_0_0.gt(crateVersion)) {
-            settings.put("discovery.zen.ping.unicast.hosts", Utils.join(unicastHosts, ","));
-        } else {
+        if (crateVersion.usesSeedHosts()) {
             settings.put("discovery.seed_hosts", Utils.join(unicastHosts, ","));
             settings.put("cluster.initial_master_nodes", Utils.join(unicastHosts, ","));
+        } else {
+            settings.put("discovery.zen.ping.unicast.hosts", Utils.join(unicastHosts, ","));
         }
 
-        if (VERSION_2_0_0.gt(crateVersion)) {
+        if (crateVersion.usesLegacyDiscovery()) {
             settings.put("discovery.zen.ping.multicast.enabled", "false");
             settings.put("index.storage.type", "memory");
         }
@@ -216,8 +444,81 @@ public class CrateTestServer extends ExternalResource {
         return settings;
     }
 
+    /**
+     * Render the settings into the {@code crate.yml} of {@link #configDir()}, next to a copy of the
+     * other files of the config directory of the distribution, e.g. the logging configuration.
+     * Files which are already up to date are not written again.
+     */
+    private Path writeConfig(Map<String, Object> settings) throws IOException {
+        Path configDir = configDir();
+        Files.createDirectories(configDir);
+        Path distributionConfig = workingDir.resolve("config");
+        if (Files.isDirectory(distributionConfig)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(distributionConfig)) {
+                for (Path file : files) {
+                    Path target = configDir.resolve(file.getFileName().toString());
+                    if (Files.isRegularFile(file) && !file.getFileName().toString().equals("crate.yml") && !Files.exists(target)) {
+                        Files.copy(file, target);
+                    }
+                }
+            }
+        }
+        byte[] content = renderConfig(settings).getBytes(StandardCharsets.UTF_8);
+        Path crateYml = configDir.resolve("crate.yml");
+        if (!Files.exists(crateYml) || !Arrays.equals(Files.readAllBytes(crateYml), content)) {
+            Files.write(crateYml, content);
+        }
+        return configDir;
+    }
+
+    /**
+     * @return the settings as YAML with one line per setting, sorted by key
+     */
+    static String renderConfig(Map<String, Object> settings) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : new TreeMap<>(settings).entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(yamlValue(entry.getValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String yamlValue(Object value) {
+        if (value instanceof Collection) {
+            List<String> elements = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                elements.add(yamlValue(element));
+            }
+            return "[" + String.join(", ", elements) + "]";
+        }
+        // quoted like on the command line, where all values are strings
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : String.valueOf(value).toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
     static void prepareEnvironment(Map<String, String> env, String crateVersion) {
-        if (VERSION_3_2_0.gt(crateVersion)) {
+        prepareEnvironment(env, CrateVersion.of(crateVersion));
+    }
+
+    static void prepareEnvironment(Map<String, String> env, CrateVersion crateVersion) {
+        if (crateVersion.requiresJava8()) {
             for (Map.Entry<String, String> entry : JDK_8_JAVA_HOME_CANDIDATES.entrySet()) {
                 try {
                     Optional<Path> match = match("glob:" + entry.getValue(), entry.getKey());
@@ -228,6 +529,20 @@ public class CrateTestServer extends ExternalResource {
         }
     }
 
+    void applyResources(Map<String, String> env) {
+        if (resources == null) {
+            return;
+        }
+        if (resources.heapSize() != null) {
+            env.put("CRATE_HEAP_SIZE", resources.heapSize());
+        }
+        if (resources.activeProcessorCount() > 0) {
+            String javaOpts = String.format(Locale.ENGLISH, "-XX:ActiveProcessorCount=%d", resources.activeProcessorCount());
+            String existing = env.get("CRATE_JAVA_OPTS");
+            env.put("CRATE_JAVA_OPTS", existing == null || existing.isEmpty() ? javaOpts : existing + " " + javaOpts);
+        }
+    }
+
     private static Optional<Path> match(String glob, String location) throws IOException {
         PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher(glob);
         return Files.walk(Paths.get(location)).filter(pathMatcher::matches).findFirst();
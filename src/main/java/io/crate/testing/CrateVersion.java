@@ -22,42 +22,215 @@
 
 package io.crate.testing;
 
-class CrateVersion implements Comparable<String> {
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed CrateDB version like {@code 4.8.1}, {@code 5.1.0-SNAPSHOT}, {@code nightly-5.1.0}
+ * or {@code latest}, together with the features of that version the test harness depends on.
+ * <p>
+ * Instances are immutable and obtained using {@link #of(String)}, which caches recently used
+ * versions. Missing components are 0, so {@code 1.0} equals {@code 1.0.0}. {@code latest}
+ * is newer than every other version and a version with a qualifier like {@code SNAPSHOT} or
+ * {@code nightly} is older than the release with the same number, but has its features.
+ */
+final class CrateVersion implements Comparable<CrateVersion> {
+
+    static final String LATEST = "latest";
+
+    private static final Pattern VERSION = Pattern.compile(
+        "(?:nightly-)?(\\d+)(?:\\.(\\d+))?(?:\\.(\\d+))?(?:[-.](.+))?");
+    private static final int MAX_CACHED_VERSIONS = 64;
+    private static final Map<String, CrateVersion> CACHE = new LinkedHashMap<String, CrateVersion>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CrateVersion> eldest) {
+            return size() > MAX_CACHED_VERSIONS;
+        }
+    };
 
     private final String version;
+    private final boolean latest;
+    private final int major;
+    private final int minor;
+    private final int hotfix;
+    private final String qualifier;
+
+    private final boolean supportsCOption;
+    private final boolean usesSeedHosts;
+    private final boolean requiresJava8;
+    private final boolean usesLegacyDiscovery;
+    private final boolean supportsDecommission;
 
     CrateVersion(String version) {
         this.version = version;
+        Matcher matcher = VERSION.matcher(version);
+        if (matcher.matches()) {
+            this.latest = false;
+            this.major = Integer.parseInt(matcher.group(1));
+            this.minor = matcher.group(2) == null ? 0 : Integer.parseInt(matcher.group(2));
+            this.hotfix = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+            String suffix = matcher.group(4);
+            if (version.startsWith("nightly-")) {
+                suffix = suffix == null ? "nightly" : "nightly-" + suffix;
+            }
+            this.qualifier = suffix;
+        } else if (version.toLowerCase(Locale.ENGLISH).contains(LATEST)
+                   || version.toLowerCase(Locale.ENGLISH).contains("nightly")) {
+            // distributions without a version number are the newest ones
+            this.latest = true;
+            this.major = Integer.MAX_VALUE;
+            this.minor = Integer.MAX_VALUE;
+            this.hotfix = Integer.MAX_VALUE;
+            this.qualifier = null;
+        } else {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "Invalid CrateDB version: %s", version));
+        }
+        this.supportsCOption = atLeast(1, 0, 0);
+        this.usesSeedHosts = atLeast(4, 0, 0);
+        this.requiresJava8 = !atLeast(3, 2, 0);
+        this.usesLegacyDiscovery = !atLeast(2, 0, 0);
+        this.supportsDecommission = atLeast(4, 0, 0);
     }
 
-    @Override
-    public int compareTo(String o) {
-        if (version.equals("latest") && o.equals("latest")) {
-            return 0;
-        } else if (version.equals("latest")) {
-            return 1;
-        } else if (o.equals("latest")) {
-            return -1;
+    /**
+     * @throws IllegalArgumentException if the version can't be parsed
+     */
+    static CrateVersion of(String version) {
+        synchronized (CACHE) {
+            CrateVersion parsed = CACHE.get(version);
+            if (parsed == null) {
+                parsed = new CrateVersion(version);
+                CACHE.put(version, parsed);
+            }
+            return parsed;
         }
+    }
 
-        String[] v1 = version.split("\\.");
-        String[] v2 = o.split("\\.");
-        int i = 0;
-        while (i < v1.length && i < v2.length && v1[i].equals(v2[i])) {
-            i++;
+    private boolean atLeast(int major, int minor, int hotfix) {
+        if (this.major != major) {
+            return this.major > major;
         }
-        if (i < v1.length && i < v2.length) {
-            int diff = Integer.valueOf(v1[i]).compareTo(Integer.valueOf(v2[i]));
-            return Integer.signum(diff);
+        if (this.minor != minor) {
+            return this.minor > minor;
         }
-        return Integer.signum(v1.length - v2.length);
+        return this.hotfix >= hotfix;
+    }
+
+    boolean isLatest() {
+        return latest;
+    }
+
+    int major() {
+        return major;
+    }
+
+    int minor() {
+        return minor;
+    }
+
+    int hotfix() {
+        return hotfix;
+    }
+
+    /**
+     * @return the suffix after the version number, e.g. {@code SNAPSHOT}, or null for a release
+     */
+    String qualifier() {
+        return qualifier;
+    }
+
+    /**
+     * @return true if settings are passed using {@code -C} instead of {@code -Des.}
+     */
+    boolean supportsCOption() {
+        return supportsCOption;
+    }
+
+    /**
+     * @return true if discovery uses {@code discovery.seed_hosts} and {@code cluster.initial_master_nodes}
+     * instead of {@code discovery.zen.ping.unicast.hosts}
+     */
+    boolean usesSeedHosts() {
+        return usesSeedHosts;
+    }
+
+    /**
+     * @return true if the version neither bundles nor supports a JDK newer than 8
+     */
+    boolean requiresJava8() {
+        return requiresJava8;
+    }
+
+    /**
+     * @return true if multicast discovery must be disabled and indices can use memory storage
+     */
+    boolean usesLegacyDiscovery() {
+        return usesLegacyDiscovery;
+    }
+
+    /**
+     * @return true if nodes can be removed using {@code ALTER CLUSTER DECOMMISSION}
+     */
+    boolean supportsDecommission() {
+        return supportsDecommission;
+    }
+
+    @Override
+    public int compareTo(CrateVersion o) {
+        int diff = Integer.compare(major, o.major);
+        if (diff == 0) {
+            diff = Integer.compare(minor, o.minor);
+        }
+        if (diff == 0) {
+            diff = Integer.compare(hotfix, o.hotfix);
+        }
+        if (diff == 0 && latest != o.latest) {
+            diff = latest ? 1 : -1;
+        }
+        if (diff == 0 && (qualifier == null) != (o.qualifier == null)) {
+            // a pre-release is older than the release
+            diff = qualifier == null ? 1 : -1;
+        }
+        return Integer.signum(diff);
+    }
+
+    int compareTo(String version) {
+        return compareTo(of(version));
     }
 
     boolean gt(String version) {
-        return this.compareTo(version) > 0;
+        return compareTo(version) > 0;
     }
 
     boolean lt(String version) {
-        return this.compareTo(version) < 0;
+        return compareTo(version) < 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return compareTo((CrateVersion) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = latest ? 1 : 0;
+        result = 31 * result + major;
+        result = 31 * result + minor;
+        result = 31 * result + hotfix;
+        return 31 * result + (qualifier == null ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return version;
     }
 }
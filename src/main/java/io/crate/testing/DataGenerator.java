@@ -0,0 +1,630 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic rows for a table, e.g. to bulk load large datasets for benchmarks using a
+ * {@link FixtureLoader}. Rows are produced lazily, so memory usage does not depend on the number of rows.
+ * <p>
+ * Each value is derived from a key. Primary key columns use the row number as key, so their values are unique;
+ * generating more rows than the type of a primary key column can hold distinct values fails, and text primary
+ * keys are at least 14 characters long.
+ * Columns with a {@link Builder#cardinality(String, long) cardinality} draw keys from {@code [0, cardinality)},
+ * uniformly or, with a {@link Builder#skew(String, double) skew}, following a Zipf distribution. All other
+ * columns use random keys. Generating the same number of rows with the same seed yields the same rows.
+ * <pre>
+ * DataGenerator generator = DataGenerator.fromTable(CLUSTER, "doc", "events")
+ *     .seed(42)
+ *     .nullRatio("comment", 0.3)
+ *     .cardinality("country", 200)
+ *     .skew("country", 1.1)
+ *     .build();
+ * generator.load(new FixtureLoader(CLUSTER), 100_000_000);
+ * </pre>
+ */
+public class DataGenerator {
+
+    enum Type {
+        BOOLEAN, BYTE, SHORT, INTEGER, LONG, FLOAT, DOUBLE, STRING, TIMESTAMP, IP, GEO_POINT, OBJECT
+    }
+
+    // 2020-01-01T00:00:00Z
+    private static final long TIMESTAMP_BASE_MILLIS = 1_577_836_800_000L;
+    private static final long TIMESTAMP_RANGE_SECONDS = 10L * 365 * 24 * 60 * 60;
+    private static final int MAX_ARRAY_LENGTH = 3;
+    // letters of a string which are unique per key, 26^14 > 2^64
+    private static final int UNIQUE_STRING_LENGTH = 14;
+
+    private final String table;
+    private final List<Column> columns;
+    private final List<String> columnNames;
+    private final long seed;
+
+    private DataGenerator(String table, List<Column> columns, long seed) {
+        this.table = table;
+        this.columns = columns;
+        List<String> names = new ArrayList<>(columns.size());
+        for (Column column : columns) {
+            names.add(column.name);
+        }
+        this.columnNames = Collections.unmodifiableList(names);
+        this.seed = seed;
+    }
+
+    /**
+     * @return a builder for a generator whose columns are added using {@link Builder#column(String, String)}
+     */
+    public static Builder builder() {
+        return new Builder(null);
+    }
+
+    /**
+     * Read the columns of a table from {@code information_schema.columns}. Generated columns, sub columns of
+     * objects and columns of unsupported types, e.g. {@code geo_shape}, are left out.
+     *
+     * @throws IllegalArgumentException if the table does not exist
+     */
+    public static Builder fromTable(CrateTestCluster cluster, String schema, String table) throws IOException {
+        Builder builder = new Builder(String.format(Locale.ENGLISH, "\"%s\".\"%s\"", schema, table));
+        SqlResult result = cluster.execute(
+            "select column_name, data_type, is_nullable, is_generated from information_schema.columns " +
+            "where table_schema = ? and table_name = ? order by ordinal_position", schema, table);
+        if (result.rows().isEmpty()) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "table %s.%s does not exist", schema, table));
+        }
+        for (Object[] row : result.rows()) {
+            String name = (String) row[0];
+            if (name.contains("[") || isTrue(row[3], "ALWAYS")) {
+                continue;
+            }
+            try {
+                builder.column(name, (String) row[1]);
+            } catch (IllegalArgumentException e) {
+                Utils.log("Not generating values for column %s: %s", name, e.getMessage());
+                continue;
+            }
+            builder.columns.get(name).nullable = isTrue(row[2], "YES");
+        }
+        SqlResult primaryKey = cluster.execute(
+            "select column_name from information_schema.key_column_usage where table_schema = ? and table_name = ?",
+            schema, table);
+        for (Object[] row : primaryKey.rows()) {
+            Column column = builder.columns.get((String) row[0]);
+            if (column != null) {
+                column.primaryKey = true;
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Older versions report some flags as booleans, newer ones as strings.
+     */
+    private static boolean isTrue(Object value, String trueString) {
+        return Boolean.TRUE.equals(value) || trueString.equalsIgnoreCase(String.valueOf(value));
+    }
+
+    /**
+     * @return the names of the generated columns, in the order of the values of a row
+     */
+    public List<String> columns() {
+        return columnNames;
+    }
+
+    /**
+     * @return a lazy iterator over {@code count} generated rows
+     */
+    public Iterator<Object[]> rows(long count) {
+        for (Column column : columns) {
+            if (column.primaryKey && count > column.distinctKeys()) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                    "primary key column %s of type %s holds at most %d distinct values, cannot generate %d rows",
+                    column.name, column.type.name().toLowerCase(Locale.ENGLISH), column.distinctKeys(), count));
+            }
+        }
+        return new Iterator<>() {
+
+            private final SplittableRandom random = new SplittableRandom(seed);
+            private long rowNumber = 0;
+
+            @Override
+            public boolean hasNext() {
+                return rowNumber < count;
+            }
+
+            @Override
+            public Object[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object[] row = new Object[columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = columns.get(i).value(random, rowNumber);
+                }
+                rowNumber++;
+                return row;
+            }
+        };
+    }
+
+    /**
+     * Generate rows into the table this generator was created from, see {@link #fromTable}.
+     *
+     * @return the number of imported rows
+     */
+    public long load(FixtureLoader loader, long count) throws IOException {
+        if (table == null) {
+            throw new IllegalStateException("generator was not created from a table");
+        }
+        return loader.load(table, columnNames, rows(count));
+    }
+
+    /**
+     * Write generated rows to a newline delimited JSON or CSV file.
+     */
+    public void writeTo(Path file, FixtureLoader.Format format, long count) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            FixtureLoader.writeHeader(writer, format, columnNames);
+            Iterator<Object[]> rows = rows(count);
+            while (rows.hasNext()) {
+                FixtureLoader.writeRow(writer, format, columnNames, rows.next());
+            }
+        }
+    }
+
+    static Type parseType(String dataType) {
+        String type = elementType(dataType.toLowerCase(Locale.ENGLISH).trim());
+        switch (type) {
+            case "boolean":
+                return Type.BOOLEAN;
+            case "byte":
+            case "char":
+                return Type.BYTE;
+            case "short":
+            case "smallint":
+                return Type.SHORT;
+            case "integer":
+            case "int":
+                return Type.INTEGER;
+            case "long":
+            case "bigint":
+                return Type.LONG;
+            case "float":
+            case "real":
+                return Type.FLOAT;
+            case "double":
+            case "double precision":
+                return Type.DOUBLE;
+            case "string":
+            case "text":
+            case "varchar":
+            case "character varying":
+                return Type.STRING;
+            case "ip":
+                return Type.IP;
+            case "geo_point":
+                return Type.GEO_POINT;
+            default:
+                if (type.startsWith("varchar(") || type.startsWith("character varying(")) {
+                    return Type.STRING;
+                } else if (type.startsWith("timestamp")) {
+                    return Type.TIMESTAMP;
+                } else if (type.startsWith("object")) {
+                    return Type.OBJECT;
+                }
+                throw new IllegalArgumentException("unsupported data type " + dataType);
+        }
+    }
+
+    static boolean isArray(String dataType) {
+        String type = dataType.toLowerCase(Locale.ENGLISH).trim();
+        return !elementType(type).equals(type);
+    }
+
+    private static String elementType(String type) {
+        if (type.endsWith("_array")) {
+            return type.substring(0, type.length() - "_array".length());
+        } else if (type.endsWith("[]")) {
+            return type.substring(0, type.length() - 2);
+        } else if (type.startsWith("array(") && type.endsWith(")")) {
+            return type.substring("array(".length(), type.length() - 1);
+        }
+        return type;
+    }
+
+    /**
+     * Bijective mix function of SplitMix64.
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    static final class Column {
+
+        private final String name;
+        private final Type type;
+        private final boolean array;
+        private boolean nullable = true;
+        private boolean primaryKey = false;
+        private double nullRatio = -1;
+        private long cardinality = 0;
+        private double skew = 0;
+        private int minLength;
+        private int maxLength;
+        private ZipfSampler zipf;
+
+        Column(String name, String dataType) {
+            this.name = name;
+            this.type = parseType(dataType);
+            this.array = isArray(dataType);
+        }
+
+        private Column(Column other) {
+            this.name = other.name;
+            this.type = other.type;
+            this.array = other.array;
+            this.nullable = other.nullable;
+            this.primaryKey = other.primaryKey;
+            this.nullRatio = other.nullRatio;
+            this.cardinality = other.cardinality;
+            this.skew = other.skew;
+            this.minLength = other.minLength;
+            this.maxLength = other.maxLength;
+        }
+
+        Object value(SplittableRandom random, long rowNumber) {
+            if (nullRatio > 0 && random.nextDouble() < nullRatio) {
+                return null;
+            }
+            if (array) {
+                int length = random.nextInt(MAX_ARRAY_LENGTH + 1);
+                List<Object> values = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    values.add(scalar(key(random, rowNumber)));
+                }
+                return values;
+            }
+            return scalar(key(random, rowNumber));
+        }
+
+        /**
+         * @return the number of keys starting from 0 which map to distinct values, 0 if the type cannot be a
+         * primary key
+         */
+        long distinctKeys() {
+            if (array) {
+                return 0;
+            }
+            switch (type) {
+                case BOOLEAN:
+                    return 2;
+                case BYTE:
+                    return 1 << 8;
+                case SHORT:
+                    return 1 << 16;
+                case INTEGER:
+                case IP:
+                    return 1L << 32;
+                case FLOAT:
+                    return 10_000_000;
+                case DOUBLE:
+                    return 10_000_000_000L;
+                case TIMESTAMP:
+                    return TIMESTAMP_RANGE_SECONDS;
+                case LONG:
+                case STRING:
+                    return Long.MAX_VALUE;
+                default:
+                    return 0;
+            }
+        }
+
+        private long key(SplittableRandom random, long rowNumber) {
+            if (primaryKey) {
+                return rowNumber;
+            } else if (zipf != null) {
+                return zipf.sample(random) - 1;
+            } else if (cardinality > 0) {
+                return random.nextLong(cardinality);
+            }
+            return random.nextLong() & Long.MAX_VALUE;
+        }
+
+        private Object scalar(long key) {
+            switch (type) {
+                case BOOLEAN:
+                    return (key & 1) == 1;
+                case BYTE:
+                    return (byte) key;
+                case SHORT:
+                    return (short) key;
+                case INTEGER:
+                    return (int) key;
+                case LONG:
+                    return key;
+                case FLOAT:
+                    return (float) ((key % 10_000_000) / 100.0);
+                case DOUBLE:
+                    return (key % 10_000_000_000L) / 100.0;
+                case STRING:
+                    return string(key);
+                case TIMESTAMP:
+                    return TIMESTAMP_BASE_MILLIS + (key % TIMESTAMP_RANGE_SECONDS) * 1000;
+                case IP:
+                    return String.format(Locale.ENGLISH, "%d.%d.%d.%d",
+                        (key >>> 24) & 0xff, (key >>> 16) & 0xff, (key >>> 8) & 0xff, key & 0xff);
+                case GEO_POINT:
+                    long hash = mix64(key);
+                    double lon = Long.remainderUnsigned(hash, 36_000_000) / 100_000.0 - 180;
+                    double lat = Long.remainderUnsigned(hash >>> 32, 18_000_000) / 100_000.0 - 90;
+                    return new double[]{lon, lat};
+                case OBJECT:
+                    return Collections.emptyMap();
+                default:
+                    throw new AssertionError("unhandled type " + type);
+            }
+        }
+
+        /**
+         * The first 14 letters are unique per key; shorter strings may repeat for large cardinalities,
+         * so strings of primary keys are never shorter.
+         */
+        private String string(long key) {
+            long hash = mix64(key);
+            char[] unique = new char[UNIQUE_STRING_LENGTH];
+            long remaining = hash;
+            for (int i = unique.length - 1; i >= 0; i--) {
+                unique[i] = (char) ('a' + Long.remainderUnsigned(remaining, 26));
+                remaining = Long.divideUnsigned(remaining, 26);
+            }
+            int length = minLength + (int) Long.remainderUnsigned(mix64(hash), maxLength - minLength + 1);
+            if (primaryKey) {
+                length = Math.max(length, UNIQUE_STRING_LENGTH);
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = unique[i % unique.length];
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Samples ranks {@code 1..n} of a Zipf distribution in constant memory using rejection-inversion,
+     * see W. Hoermann and G. Derflinger, "Rejection-inversion to generate variates from monotone
+     * discrete distributions".
+     */
+    static final class ZipfSampler {
+
+        private final long n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        ZipfSampler(long n, double exponent) {
+            if (n < 1 || exponent <= 0) {
+                throw new IllegalArgumentException("number of elements and exponent must be positive");
+            }
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        long sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        /**
+         * @return {@code log(1 + x) / x}, also for x close to 0
+         */
+        private static double helper1(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.log1p(x) / x;
+            }
+            return 1 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        /**
+         * @return {@code (exp(x) - 1) / x}, also for x close to 0
+         */
+        private static double helper2(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.expm1(x) / x;
+            }
+            return 1 + x * 0.5 * (1 + x * (1.0 / 3.0) * (1 + 0.25 * x));
+        }
+    }
+
+    public static class Builder {
+
+        private final String table;
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+        private long seed = 0;
+        private double nullRatio = 0;
+        private int minLength = 5;
+        private int maxLength = 20;
+
+        private Builder(String table) {
+            this.table = table;
+        }
+
+        /**
+         * @param dataType a CrateDB type name as reported by {@code information_schema.columns},
+         *                 e.g. {@code integer}, {@code text} or {@code text_array}
+         * @throws IllegalArgumentException if the type is not supported
+         */
+        public Builder column(String name, String dataType) {
+            columns.put(name, new Column(name, dataType));
+            return this;
+        }
+
+        /**
+         * Generate unique values for the given columns, using the row number.
+         *
+         * @throws IllegalArgumentException on {@link #build()} if a column is an array, an object or a geo point
+         */
+        public Builder primaryKey(String... names) {
+            for (String name : names) {
+                column(name).primaryKey = true;
+            }
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param nullRatio the ratio of null values of all nullable columns without a specific null ratio
+         */
+        public Builder nullRatio(double nullRatio) {
+            this.nullRatio = checkRatio(nullRatio);
+            return this;
+        }
+
+        public Builder nullRatio(String name, double nullRatio) {
+            column(name).nullRatio = checkRatio(nullRatio);
+            return this;
+        }
+
+        /**
+         * @param cardinality the maximum number of distinct values of the column
+         */
+        public Builder cardinality(String name, long cardinality) {
+            if (cardinality < 1) {
+                throw new IllegalArgumentException("cardinality must be positive");
+            }
+            column(name).cardinality = cardinality;
+            return this;
+        }
+
+        /**
+         * Draw the values of a column with a {@link #cardinality(String, long)} from a Zipf distribution,
+         * so that the most frequent value occurs {@code 2^exponent} times as often as the second one.
+         *
+         * @param exponent the exponent of the distribution, 0 for a uniform distribution
+         */
+        public Builder skew(String name, double exponent) {
+            if (exponent < 0) {
+                throw new IllegalArgumentException("exponent must not be negative");
+            }
+            column(name).skew = exponent;
+            return this;
+        }
+
+        /**
+         * @param min minimum length of generated strings
+         * @param max maximum length of generated strings; up to 14 characters are unique per value
+         */
+        public Builder stringLength(int min, int max) {
+            if (min < 1 || max < min) {
+                throw new IllegalArgumentException("invalid string length range");
+            }
+            this.minLength = min;
+            this.maxLength = max;
+            return this;
+        }
+
+        private Column column(String name) {
+            Column column = columns.get(name);
+            if (column == null) {
+                throw new IllegalArgumentException("unknown column " + name);
+            }
+            return column;
+        }
+
+        private static double checkRatio(double ratio) {
+            if (ratio < 0 || ratio > 1) {
+                throw new IllegalArgumentException("ratio must be between 0 and 1");
+            }
+            return ratio;
+        }
+
+        public DataGenerator build() {
+            List<Column> result = new ArrayList<>(columns.size());
+            for (Column spec : columns.values()) {
+                if (spec.primaryKey && spec.distinctKeys() == 0) {
+                    throw new IllegalArgumentException("column " + spec.name + " cannot be part of a primary key");
+                }
+                Column column = new Column(spec);
+                if (column.primaryKey || !column.nullable) {
+                    column.nullRatio = 0;
+                } else if (column.nullRatio < 0) {
+                    column.nullRatio = nullRatio;
+                }
+                if (column.skew > 0) {
+                    if (column.cardinality == 0) {
+                        throw new IllegalArgumentException("skew of column " + column.name + " requires a cardinality");
+                    }
+                    column.zipf = new ZipfSampler(column.cardinality, column.skew);
+                }
+                column.minLength = minLength;
+                column.maxLength = maxLength;
+                result.add(column);
+            }
+            return new DataGenerator(table, Collections.unmodifiableList(result), seed);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy in front of a port of a node which injects faults into the traffic to and from it.
+ * <p>
+ * All connections are served by a single selector thread. Data is forwarded in direct
+ * buffers, so it is not copied onto the heap; each direction of a connection reuses its
+ * buffers once their data was written. Faults can be changed at any time and apply to
+ * existing and new connections:
+ * <ul>
+ *     <li>{@link #latency}: every chunk of data is forwarded with the given delay, in both directions</li>
+ *     <li>{@link #bandwidth}: the forwarded bytes per second, shared by all connections and directions</li>
+ *     <li>{@link #stall()}: no data is forwarded until {@link #resume()}, connections stay open</li>
+ *     <li>{@link #partition()}: all connections are closed and new ones are closed right away until
+ *     {@link #heal()}, so the node is unreachable through this proxy</li>
+ * </ul>
+ * See {@link CrateTestCluster.Builder#faultInjection(boolean)} to put proxies in front of all nodes of a cluster.
+ */
+public class FaultProxy implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Reading from a connection stops while this many bytes are waiting to be forwarded.
+     */
+    private static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+    /**
+     * Each direction keeps at most this many written buffers for the next reads, enough for
+     * {@link #MAX_QUEUED_BYTES} of queued data.
+     */
+    private static final int MAX_FREE_BUFFERS = MAX_QUEUED_BYTES / BUFFER_SIZE;
+
+    private final InetSocketAddress backendAddress;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Set<Connection> connections = new HashSet<>();
+    private final AtomicLong forwardedBytes = new AtomicLong();
+    private final Thread thread;
+
+    private volatile long latencyNanos;
+    private volatile long bytesPerSecond;
+    private volatile boolean stalled;
+    private volatile boolean partitioned;
+    private volatile boolean closed;
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    private FaultProxy(InetSocketAddress listenAddress, InetSocketAddress backendAddress) throws IOException {
+        this.backendAddress = backendAddress;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(listenAddress);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, String.format(Locale.ENGLISH,
+            "crate-testing-fault-proxy-%d", listenAddress.getPort()));
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Listen on the given port and forward all connections to the backend port on the same host.
+     */
+    public static FaultProxy start(String host, int listenPort, int backendPort) throws IOException {
+        FaultProxy proxy = new FaultProxy(new InetSocketAddress(host, listenPort), new InetSocketAddress(host, backendPort));
+        proxy.thread.start();
+        return proxy;
+    }
+
+    public int listenPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int backendPort() {
+        return backendAddress.getPort();
+    }
+
+    /**
+     * Delay all forwarded data by the given duration, 0 to disable.
+     */
+    public FaultProxy latency(long duration, TimeUnit unit) {
+        latencyNanos = unit.toNanos(duration);
+        selector.wakeup();
+        return this;
+    }
+
+    /**
+     * Limit the forwarded bytes per second, 0 for unlimited.
+     */
+    public FaultProxy bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        selector.wakeup();
+        return this;
+    }
+
+    /**
+     * Stop forwarding data until {@link #resume()} is called.
+     */
+    public FaultProxy stall() {
+        stalled = true;
+        selector.wakeup();
+        return this;
+    }
+
+    public FaultProxy resume() {
+        stalled = false;
+        selector.wakeup();
+        return this;
+    }
+
+    /**
+     * Close all connections and refuse new ones until {@link #heal()} is called.
+     */
+    public FaultProxy partition() {
+        partitioned = true;
+        selector.wakeup();
+        return this;
+    }
+
+    public FaultProxy heal() {
+        partitioned = false;
+        selector.wakeup();
+        return this;
+    }
+
+    /**
+     * Remove all faults.
+     */
+    public FaultProxy reset() {
+        latencyNanos = 0;
+        bytesPerSecond = 0;
+        stalled = false;
+        partitioned = false;
+        selector.wakeup();
+        return this;
+    }
+
+    /**
+     * @return the number of bytes forwarded in both directions
+     */
+    public long forwardedBytes() {
+        return forwardedBytes.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(selectTimeoutMillis());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+                if (partitioned) {
+                    closeConnections();
+                }
+                for (Connection connection : new ArrayList<>(connections)) {
+                    connection.flushAndUpdateInterest();
+                }
+            }
+        } catch (IOException e) {
+            Utils.log("Fault proxy on port %d failed: %s", listenPort(), e);
+        } finally {
+            closeConnections();
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return how long to wait for I/O before the next queued chunk is due, 0 to block
+     */
+    private long selectTimeoutMillis() {
+        if (stalled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (Connection connection : connections) {
+            next = Math.min(next, connection.upstream.nextDueNanos());
+            next = Math.min(next, connection.downstream.nextDueNanos());
+        }
+        if (next == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now));
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        if (partitioned) {
+            client.close();
+            return;
+        }
+        SocketChannel backend = SocketChannel.open();
+        try {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            backend.configureBlocking(false);
+            backend.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(client, backend);
+            connection.connected = backend.connect(backendAddress);
+            connection.clientKey = client.register(selector, SelectionKey.OP_READ, connection);
+            connection.backendKey = backend.register(selector,
+                connection.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            connections.add(connection);
+        } catch (IOException e) {
+            client.close();
+            backend.close();
+        }
+    }
+
+    private void closeConnections() {
+        for (Connection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return the number of bytes which may be written now, considering the bandwidth limit
+     */
+    private int allowedBytes(int wanted) {
+        long limit = bytesPerSecond;
+        if (limit <= 0) {
+            return wanted;
+        }
+        long now = System.nanoTime();
+        double capacity = Math.max(BUFFER_SIZE, limit / 10.0);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * limit / (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+        return (int) Math.min(wanted, Math.max(0, (long) tokens));
+    }
+
+    private void consumed(int bytes) {
+        if (bytesPerSecond > 0) {
+            tokens -= bytes;
+        }
+        forwardedBytes.addAndGet(bytes);
+    }
+
+    private static final class Chunk {
+
+        private final ByteBuffer buffer;
+        private final long dueNanos;
+
+        private Chunk(ByteBuffer buffer, long dueNanos) {
+            this.buffer = buffer;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Data flowing from one channel to the other.
+     */
+    private final class Direction {
+
+        private final SocketChannel from;
+        private final SocketChannel to;
+        private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+        private long queuedBytes;
+        private boolean endOfStream;
+        private boolean outputShutdown;
+        private boolean waitingForWritable;
+        private boolean throttled;
+
+        private Direction(SocketChannel from, SocketChannel to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean canRead() {
+            return !stalled && !endOfStream && queuedBytes < MAX_QUEUED_BYTES;
+        }
+
+        private void read() throws IOException {
+            ByteBuffer buffer = freeBuffers.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+            int read = from.read(buffer);
+            if (read > 0) {
+                buffer.flip();
+                queue.add(new Chunk(buffer, System.nanoTime() + latencyNanos));
+                queuedBytes += read;
+                return;
+            }
+            if (read < 0) {
+                endOfStream = true;
+            }
+            release(buffer);
+        }
+
+        private void release(ByteBuffer buffer) {
+            if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+                buffer.clear();
+                freeBuffers.push(buffer);
+            }
+        }
+
+        private void flush() throws IOException {
+            waitingForWritable = false;
+            throttled = false;
+            if (stalled) {
+                return;
+            }
+            long now = System.nanoTime();
+            Chunk chunk;
+            while ((chunk = queue.peek()) != null && chunk.dueNanos <= now) {
+                ByteBuffer buffer = chunk.buffer;
+                int allowed = allowedBytes(buffer.remaining());
+                if (allowed == 0) {
+                    throttled = true;
+                    return;
+                }
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + allowed);
+                int written = to.write(buffer);
+                buffer.limit(limit);
+                consumed(written);
+                queuedBytes -= written;
+                if (buffer.hasRemaining()) {
+                    waitingForWritable = written < allowed;
+                    throttled = !waitingForWritable;
+                    return;
+                }
+                release(queue.poll().buffer);
+            }
+        }
+
+        /**
+         * Pass on the end of the stream once all data is forwarded.
+         *
+         * @return true if the end of the stream was passed on
+         */
+        private boolean shutdownIfDone() throws IOException {
+            if (endOfStream && queue.isEmpty() && !outputShutdown) {
+                to.shutdownOutput();
+                outputShutdown = true;
+            }
+            return outputShutdown;
+        }
+
+        private long nextDueNanos() {
+            Chunk chunk = queue.peek();
+            if (chunk == null || waitingForWritable) {
+                return Long.MAX_VALUE;
+            }
+            // throttled data is retried after a short pause, once the bucket was refilled
+            return throttled ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1) : chunk.dueNanos;
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel client;
+        private final SocketChannel backend;
+        private final Direction upstream;
+        private final Direction downstream;
+        private SelectionKey clientKey;
+        private SelectionKey backendKey;
+        private boolean connected;
+
+        private Connection(SocketChannel client, SocketChannel backend) {
+            this.client = client;
+            this.backend = backend;
+            this.upstream = new Direction(client, backend);
+            this.downstream = new Direction(backend, client);
+        }
+
+        private void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    connected = backend.finishConnect();
+                    return;
+                }
+                if (key.isReadable()) {
+                    if (key.channel() == client) {
+                        upstream.read();
+                    } else {
+                        downstream.read();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void flushAndUpdateInterest() {
+            try {
+                if (connected) {
+                    upstream.flush();
+                }
+                downstream.flush();
+                boolean upstreamDone = connected && upstream.shutdownIfDone();
+                if (downstream.shutdownIfDone() && upstreamDone) {
+                    close();
+                    return;
+                }
+                clientKey.interestOps(
+                    (upstream.canRead() ? SelectionKey.OP_READ : 0)
+                    | (downstream.waitingForWritable ? SelectionKey.OP_WRITE : 0));
+                if (connected) {
+                    backendKey.interestOps(
+                        (downstream.canRead() ? SelectionKey.OP_READ : 0)
+                        | (upstream.waitingForWritable ? SelectionKey.OP_WRITE : 0));
+                }
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            connections.remove(this);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                backend.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Loads fixtures into a table of a {@link CrateTestCluster} using the server side {@code COPY FROM}
+ * bulk import, which is much faster than inserting rows for large datasets.
+ * <p>
+ * The rows are streamed into newline delimited JSON or CSV files in the {@link CrateTestCluster#crateWorkingDir()},
+ * which all nodes can read, by default one file per node. A single {@code COPY FROM} with {@code shared = true}
+ * then lets each node import a share of the files in parallel. The number of imported rows is verified and the
+ * table is refreshed afterwards.
+ * <pre>
+ * long rows = new FixtureLoader(CLUSTER)
+ *     .format(FixtureLoader.Format.CSV)
+ *     .load("doc.events", List.of("id", "name"), rowIterator);
+ * </pre>
+ */
+public class FixtureLoader {
+
+    public enum Format {
+        JSON("json"),
+        CSV("csv");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String extension() {
+            return extension;
+        }
+    }
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+
+    private final CrateTestCluster cluster;
+    private Format format = Format.JSON;
+    private int files = 0;
+    private boolean keepFiles = false;
+
+    public FixtureLoader(CrateTestCluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Format of the staged files. CSV files contain a header line; null values are written as empty fields.
+     */
+    public FixtureLoader format(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @param files number of files the rows are spread across, by default the number of nodes
+     */
+    public FixtureLoader files(int files) {
+        if (files < 0) {
+            throw new IllegalArgumentException("number of files must not be negative");
+        }
+        this.files = files;
+        return this;
+    }
+
+    /**
+     * @param keepFiles true to keep the staged files after the import, e.g. to inspect them
+     */
+    public FixtureLoader keepFiles(boolean keepFiles) {
+        this.keepFiles = keepFiles;
+        return this;
+    }
+
+    /**
+     * Write the rows to files and import them into the table. The rows are consumed lazily,
+     * so the iterator can produce more rows than fit into memory.
+     *
+     * @param table the table name, qualified and quoted as needed
+     * @param columns the column names of the values of each row
+     * @return the number of imported rows
+     * @throws IOException if the files cannot be written or not all rows were imported
+     */
+    public long load(String table, List<String> columns, Iterator<Object[]> rows) throws IOException {
+        Path dir = stagingDir(table);
+        try {
+            long written = write(dir, columns, rows);
+            return copyFrom(table, dir, written);
+        } finally {
+            deleteUnlessKept(dir);
+        }
+    }
+
+    /**
+     * Import existing newline delimited JSON or CSV files, e.g. checked in datasets. The files are copied
+     * to a directory the nodes can read; their format is derived from their {@code .json} or {@code .csv}
+     * extension.
+     *
+     * @return the number of imported rows
+     * @throws IOException if the files cannot be read or not all rows were imported
+     */
+    public long load(String table, Path... datasets) throws IOException {
+        Path dir = stagingDir(table);
+        try {
+            long rows = 0;
+            for (int i = 0; i < datasets.length; i++) {
+                String fileName = datasets[i].getFileName().toString();
+                boolean csv = fileName.toLowerCase(Locale.ENGLISH).endsWith(".csv");
+                Path target = dir.resolve(String.format(Locale.ENGLISH, "part-%d-%s", i, fileName));
+                Files.copy(datasets[i], target);
+                rows += countRows(target, csv);
+            }
+            return copyFrom(table, dir, rows);
+        } finally {
+            deleteUnlessKept(dir);
+        }
+    }
+
+    private Path stagingDir(String table) throws IOException {
+        String name = table.replaceAll("[^A-Za-z0-9_.-]", "") + "_" + UUID.randomUUID();
+        return Files.createDirectories(cluster.crateWorkingDir().resolve("fixtures").resolve(name));
+    }
+
+    private long write(Path dir, List<String> columns, Iterator<Object[]> rows) throws IOException {
+        int numFiles = files > 0 ? files : cluster.servers().size();
+        List<Writer> writers = new ArrayList<>(numFiles);
+        try {
+            for (int i = 0; i < numFiles; i++) {
+                Path file = dir.resolve(String.format(Locale.ENGLISH, "part-%d.%s", i, format.extension()));
+                writers.add(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+                writeHeader(writers.get(i), format, columns);
+            }
+            long written = 0;
+            while (rows.hasNext()) {
+                Object[] row = rows.next();
+                if (row.length != columns.size()) {
+                    throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                        "row %d has %d values, expected %d", written, row.length, columns.size()));
+                }
+                writeRow(writers.get((int) (written % numFiles)), format, columns, row);
+                written++;
+            }
+            return written;
+        } finally {
+            for (Writer writer : writers) {
+                writer.close();
+            }
+        }
+    }
+
+    static void writeHeader(Writer writer, Format format, List<String> columns) throws IOException {
+        if (format == Format.CSV) {
+            writeCsvRow(writer, columns.toArray());
+        }
+    }
+
+    static void writeRow(Writer writer, Format format, List<String> columns, Object[] row) throws IOException {
+        if (format == Format.CSV) {
+            writeCsvRow(writer, row);
+        } else {
+            writeJsonRow(writer, columns, row);
+        }
+    }
+
+    private static void writeJsonRow(Writer writer, List<String> columns, Object[] row) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setSerializeNulls(true);
+        jsonWriter.beginObject();
+        for (int i = 0; i < row.length; i++) {
+            jsonWriter.name(columns.get(i));
+            if (row[i] == null) {
+                jsonWriter.nullValue();
+            } else {
+                GSON.toJson(row[i], row[i].getClass(), jsonWriter);
+            }
+        }
+        jsonWriter.endObject();
+        jsonWriter.flush();
+        writer.write('\n');
+    }
+
+    private static void writeCsvRow(Writer writer, Object[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = row[i];
+            if (value == null) {
+                continue;
+            }
+            String text = value instanceof String || value instanceof Number || value instanceof Boolean
+                ? value.toString()
+                : GSON.toJson(value);
+            if (text.isEmpty() || text.indexOf(',') >= 0 || text.indexOf('"') >= 0
+                || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(text.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(text);
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Counts the lines of a file; quoted line breaks within CSV values are not taken into account.
+     */
+    private static long countRows(Path file, boolean csv) throws IOException {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines++;
+                }
+            }
+        }
+        return csv && lines > 0 ? lines - 1 : lines;
+    }
+
+    private long copyFrom(String table, Path dir, long expectedRows) throws IOException {
+        String uri = dir.toUri().toString();
+        uri = (uri.endsWith("/") ? uri : uri + "/") + "*";
+        SqlResult result = cluster.execute(String.format(Locale.ENGLISH,
+            "COPY %s FROM '%s' WITH (shared = true)", table, uri));
+        if (result.rowCount() != expectedRows) {
+            throw new IOException(String.format(Locale.ENGLISH,
+                "COPY FROM imported %d of %d rows into %s, see sys.job_log or the node logs for the failed rows",
+                result.rowCount(), expectedRows, table));
+        }
+        cluster.execute(String.format(Locale.ENGLISH, "REFRESH TABLE %s", table));
+        return result.rowCount();
+    }
+
+    private void deleteUnlessKept(Path dir) {
+        if (keepFiles) {
+            return;
+        }
+        try {
+            Utils.deletePath(dir);
+        } catch (IOException e) {
+            Utils.log("Could not delete fixture files in %s: %s", dir, e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * A host wide lease which lets parallel test JVMs, e.g. Gradle test forks
+ * started with {@code maxParallelForks}, share the machine without
+ * competing for the same ports and cores.
+ * <p>
+ * Slots are coordinated through lock files under {@code crate.testing/slots} in
+ * the temp directory. A lock is held until {@link #release()} is called or
+ * the JVM exits, so slots of crashed JVMs become free again automatically.
+ * <p>
+ * A cluster built with {@link CrateTestCluster.Builder#forkSlot(ForkSlot)} only
+ * uses the share of each configured port range which belongs to its slot.
+ */
+public final class ForkSlot {
+
+    /**
+     * System property to set the number of slots, usually the number of parallel forks.
+     * Defaults to 1, so that a single JVM gets the whole port ranges.
+     */
+    public static final String NUMBER_OF_SLOTS_PROPERTY = "crate.testing.fork_slots";
+
+    /**
+     * Free ports required in each share of a port range on top of one per node, so that picking
+     * random ports does not run out of attempts.
+     */
+    static final int PORT_MARGIN = 10;
+
+    static final Path SLOTS_DIR = CrateTestCluster.CRATE_TMP_DIR.resolve("slots");
+
+    private static ForkSlot current;
+
+    private final int index;
+    private final int numberOfSlots;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private ForkSlot(int index, int numberOfSlots, FileChannel channel, FileLock lock) {
+        this.index = index;
+        this.numberOfSlots = numberOfSlots;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * @return the slot of this JVM, acquiring it on first use
+     */
+    public static synchronized ForkSlot current() throws IOException {
+        if (current == null || !current.lock.isValid()) {
+            int numberOfSlots = Integer.getInteger(NUMBER_OF_SLOTS_PROPERTY, 1);
+            current = acquire(SLOTS_DIR, numberOfSlots);
+        }
+        return current;
+    }
+
+    /**
+     * Acquire the first free slot.
+     *
+     * @throws IllegalStateException if all slots are in use
+     */
+    static ForkSlot acquire(Path slotsDir, int numberOfSlots) throws IOException {
+        if (numberOfSlots <= 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid number of slots: %d", numberOfSlots));
+        }
+        Files.createDirectories(slotsDir);
+        for (int i = 0; i < numberOfSlots; i++) {
+            FileChannel channel = FileChannel.open(
+                slotsDir.resolve(String.format(Locale.ENGLISH, "slot-%d.lock", i)),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // held by this JVM already
+                lock = null;
+            }
+            if (lock != null) {
+                Utils.log("Acquired fork slot %d of %d", i, numberOfSlots);
+                return new ForkSlot(i, numberOfSlots, channel, lock);
+            }
+            channel.close();
+        }
+        throw new IllegalStateException(String.format(Locale.ENGLISH,
+            "All %d fork slots are in use, set the \"%s\" system property to the number of parallel forks",
+            numberOfSlots, NUMBER_OF_SLOTS_PROPERTY));
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public int numberOfSlots() {
+        return numberOfSlots;
+    }
+
+    /**
+     * @param ports the number of ports the cluster needs out of the range
+     * @return the share of the port range {@code from}-{@code to} (both inclusive)
+     * which belongs to this slot, as {@code [from, to]}
+     * @throws IllegalArgumentException if the share has less than {@code ports} + {@link #PORT_MARGIN} ports
+     */
+    int[] portRange(int from, int to, int ports) {
+        int width = (to - from + 1) / numberOfSlots;
+        if (width < ports + PORT_MARGIN) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "port range %d-%d split into %d fork slots leaves %d ports per slot, but %d are needed; " +
+                "widen the port range or lower the \"%s\" system property",
+                from, to, numberOfSlots, width, ports + PORT_MARGIN, NUMBER_OF_SLOTS_PROPERTY));
+        }
+        int slotFrom = from + index * width;
+        return new int[]{slotFrom, slotFrom + width - 1};
+    }
+
+    /**
+     * @return the processors which belong to this slot, out of those the JVM may run on; every slot gets at least one
+     */
+    public int[] cpus() {
+        int[] processCpus = NodeResources.processCpus();
+        int perSlot = Math.max(1, processCpus.length / numberOfSlots);
+        int[] cpus = new int[perSlot];
+        for (int i = 0; i < perSlot; i++) {
+            cpus[i] = processCpus[(index * perSlot + i) % processCpus.length];
+        }
+        return cpus;
+    }
+
+    public synchronized void release() throws IOException {
+        if (lock.isValid()) {
+            lock.release();
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "ForkSlot[%d/%d]", index, numberOfSlots);
+    }
+}
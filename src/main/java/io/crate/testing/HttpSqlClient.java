@@ -0,0 +1,305 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal client for the {@code _sql} HTTP endpoint of a node.
+ */
+final class HttpSqlClient {
+
+    private static final Gson GSON = new Gson();
+    private static final int TIMEOUT_MS = 10_000;
+
+    private HttpSqlClient() {
+    }
+
+    /**
+     * @param defaultSchema schema used for unqualified table names, or null for the default
+     * @throws IOException if the node can't be reached or the statement fails
+     */
+    static SqlResult execute(String host,
+                             int httpPort,
+                             String defaultSchema,
+                             String statement,
+                             Object... args) throws IOException {
+        HttpURLConnection connection = send(host, httpPort, defaultSchema, statement, args);
+        try (InputStream in = connection.getInputStream()) {
+            return toResult(parse(in));
+        }
+    }
+
+    /**
+     * Like {@link #execute} but reads the rows of the response one at a time.
+     */
+    static ResultStream stream(String host,
+                               int httpPort,
+                               String defaultSchema,
+                               String statement,
+                               Object... args) throws IOException {
+        HttpURLConnection connection = send(host, httpPort, defaultSchema, statement, args);
+        InputStream in = connection.getInputStream();
+        try {
+            return new ResultStream(new JsonRowSource(in));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static HttpURLConnection send(String host,
+                                          int httpPort,
+                                          String defaultSchema,
+                                          String statement,
+                                          Object... args) throws IOException {
+        URL url = new URL(String.format(Locale.ENGLISH, "http://%s:%d/_sql", host, httpPort));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(TIMEOUT_MS);
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("stmt", statement);
+        if (args != null && args.length > 0) {
+            request.put("args", Arrays.asList(args));
+        }
+        byte[] body = GSON.toJson(request).getBytes(StandardCharsets.UTF_8);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Content-Length", String.valueOf(body.length));
+        if (defaultSchema != null) {
+            connection.setRequestProperty("Default-Schema", defaultSchema);
+        }
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException(String.format(Locale.ENGLISH, "Statement [%s] failed with HTTP %d: %s",
+                statement, responseCode, errorMessage(connection.getErrorStream())));
+        }
+        return connection;
+    }
+
+    private static JsonObject parse(InputStream in) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    private static String errorMessage(InputStream errorStream) {
+        if (errorStream == null) {
+            return "no response body";
+        }
+        try {
+            JsonObject response = parse(errorStream);
+            JsonElement error = response.get("error");
+            if (error != null && error.isJsonObject() && error.getAsJsonObject().has("message")) {
+                return error.getAsJsonObject().get("message").getAsString();
+            }
+            return response.toString();
+        } catch (Exception e) {
+            return "unreadable response body";
+        }
+    }
+
+    static SqlResult toResult(JsonObject response) {
+        List<String> columns = new ArrayList<>();
+        JsonArray cols = response.getAsJsonArray("cols");
+        if (cols != null) {
+            for (JsonElement col : cols) {
+                columns.add(col.getAsString());
+            }
+        }
+        List<Object[]> rows = new ArrayList<>();
+        JsonArray jsonRows = response.getAsJsonArray("rows");
+        if (jsonRows != null) {
+            for (JsonElement jsonRow : jsonRows) {
+                JsonArray values = jsonRow.getAsJsonArray();
+                Object[] row = new Object[values.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = toJava(values.get(i));
+                }
+                rows.add(row);
+            }
+        }
+        long rowCount = response.has("rowcount") ? response.get("rowcount").getAsLong() : rows.size();
+        double duration = response.has("duration") ? response.get("duration").getAsDouble() : -1;
+        return new SqlResult(columns, rows, rowCount, duration);
+    }
+
+    static Object toJava(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (element.isJsonArray()) {
+            List<Object> list = new ArrayList<>();
+            for (JsonElement item : element.getAsJsonArray()) {
+                list.add(toJava(item));
+            }
+            return list;
+        }
+        if (element.isJsonObject()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                map.put(entry.getKey(), toJava(entry.getValue()));
+            }
+            return map;
+        }
+        JsonPrimitive primitive = element.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return primitive.getAsBoolean();
+        }
+        if (primitive.isNumber()) {
+            String number = primitive.getAsString();
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return Double.parseDouble(number);
+            }
+        }
+        return primitive.getAsString();
+    }
+
+    /**
+     * Reads the {@code cols} of a response up front and then one row of {@code rows} at a time.
+     */
+    static final class JsonRowSource implements ResultStream.Source {
+
+        private final JsonReader reader;
+        private final List<String> columns = new ArrayList<>();
+        private long rowCount = -1;
+        private boolean inRows;
+
+        JsonRowSource(InputStream in) throws IOException {
+            reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            reader.beginObject();
+            advanceToRows();
+        }
+
+        /**
+         * Read the fields of the response up to the start of the next row or to its end.
+         */
+        private void advanceToRows() throws IOException {
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "cols":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            columns.add(reader.nextString());
+                        }
+                        reader.endArray();
+                        break;
+                    case "rows":
+                        reader.beginArray();
+                        inRows = true;
+                        return;
+                    case "rowcount":
+                        rowCount = reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        @Override
+        public List<String> columns() {
+            return columns;
+        }
+
+        @Override
+        public Object[] nextRow() throws IOException {
+            if (!inRows) {
+                return null;
+            }
+            if (!reader.hasNext()) {
+                reader.endArray();
+                inRows = false;
+                advanceToRows();
+                return null;
+            }
+            List<Object> values = new ArrayList<>(columns.size());
+            reader.beginArray();
+            while (reader.hasNext()) {
+                values.add(readValue());
+            }
+            reader.endArray();
+            return values.toArray();
+        }
+
+        private Object readValue() throws IOException {
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    return null;
+                case BOOLEAN:
+                    return reader.nextBoolean();
+                case STRING:
+                    return reader.nextString();
+                case NUMBER:
+                    String number = reader.nextString();
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        return Double.parseDouble(number);
+                    }
+                default:
+                    return toJava(JsonParser.parseReader(reader));
+            }
+        }
+
+        @Override
+        public long rowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A host wide lease of an address of the {@code 127.0.0.0/8} loopback network, so that every node can bind
+ * the default ports on an address of its own, see {@link CrateTestCluster.Builder#loopbackPerNode(boolean)}.
+ * <p>
+ * Addresses are taken from {@code 127.42.0.1} to {@code 127.42.255.254} and coordinated through lock files
+ * under {@code crate.testing/loopback} in the temp directory, like {@link ForkSlot}s. Only Linux routes the
+ * whole loopback network to the loopback interface without further configuration.
+ */
+final class LoopbackAddress {
+
+    static final Path ADDRESSES_DIR = CrateTestCluster.CRATE_TMP_DIR.resolve("loopback");
+
+    static final int HTTP_PORT = 4200;
+    static final int TRANSPORT_PORT = 4300;
+    static final int PSQL_PORT = 5432;
+
+    private static final int NUMBER_OF_ADDRESSES = 256 * 254;
+    private static final int MAX_ATTEMPTS = 256;
+
+    private final String host;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private LoopbackAddress(String host, FileChannel channel, FileLock lock) {
+        this.host = host;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    static boolean isSupported() {
+        return System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("linux");
+    }
+
+    /**
+     * Acquire a free address whose default ports can be bound, starting at a random address.
+     *
+     * @throws IllegalStateException if no such address was found
+     */
+    static LoopbackAddress acquire(Path addressesDir) throws IOException {
+        Files.createDirectories(addressesDir);
+        int start = ThreadLocalRandom.current().nextInt(NUMBER_OF_ADDRESSES);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String host = host((start + attempt) % NUMBER_OF_ADDRESSES);
+            FileChannel channel = FileChannel.open(
+                addressesDir.resolve(host + ".lock"),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // held by this JVM already
+                lock = null;
+            }
+            if (lock != null && portsAvailable(host)) {
+                return new LoopbackAddress(host, channel, lock);
+            }
+            channel.close();
+        }
+        throw new IllegalStateException(String.format(Locale.ENGLISH,
+            "Could not acquire a loopback address within %d attempts, the ports %d, %d and %d may be bound on all addresses",
+            MAX_ATTEMPTS, HTTP_PORT, TRANSPORT_PORT, PSQL_PORT));
+    }
+
+    static String host(int index) {
+        return String.format(Locale.ENGLISH, "127.42.%d.%d", index / 254, index % 254 + 1);
+    }
+
+    /**
+     * @return true if the default ports are free on the address, e.g. not bound on all addresses by another process
+     */
+    private static boolean portsAvailable(String host) {
+        for (int port : new int[]{HTTP_PORT, TRANSPORT_PORT, PSQL_PORT}) {
+            try (ServerSocket socket = new ServerSocket()) {
+                socket.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String host() {
+        return host;
+    }
+
+    void release() throws IOException {
+        if (lock.isValid()) {
+            lock.release();
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return host;
+    }
+}
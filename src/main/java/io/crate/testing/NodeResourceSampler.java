@@ -0,0 +1,205 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the resource usage of every node of a {@link CrateTestCluster}
+ * using the pid of its process. Only supported on Linux, see {@link ResourceSample#isSupported()};
+ * on other platforms no samples are recorded.
+ * <p>
+ * Used as a JUnit {@code @Rule}, it additionally records the resource usage of
+ * every node during each test, see {@link #testDeltas()}.
+ * <pre>
+ * &#64;ClassRule
+ * public static final CrateTestCluster CLUSTER = ...;
+ *
+ * static final NodeResourceSampler SAMPLER = new NodeResourceSampler(CLUSTER, 1, TimeUnit.SECONDS);
+ *
+ * &#64;Rule
+ * public final NodeResourceSampler sampler = SAMPLER;
+ * </pre>
+ */
+public class NodeResourceSampler implements TestRule, AutoCloseable {
+
+    private final CrateTestCluster cluster;
+    private final long interval;
+    private final TimeUnit unit;
+    private final Map<String, List<ResourceSample>> series = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, ResourceSample>> testDeltas = Collections.synchronizedMap(new LinkedHashMap<>());
+    private ScheduledExecutorService executor;
+
+    public NodeResourceSampler(CrateTestCluster cluster, long interval, TimeUnit unit) {
+        this.cluster = cluster;
+        this.interval = interval;
+        this.unit = unit;
+    }
+
+    /**
+     * Start sampling in the background. Nodes which are not running are skipped.
+     */
+    public synchronized void start() {
+        if (executor != null || !ResourceSample.isSupported()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crate-testing-resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::sampleAll, 0, interval, unit);
+    }
+
+    private void sampleAll() {
+        for (Map.Entry<String, ResourceSample> entry : snapshot().entrySet()) {
+            series.computeIfAbsent(entry.getKey(), k -> Collections.synchronizedList(new ArrayList<>()))
+                .add(entry.getValue());
+        }
+    }
+
+    /**
+     * Read the current resource usage of all running nodes.
+     *
+     * @return the samples keyed by node, see {@link #nodeKey(CrateTestServer)}
+     */
+    public Map<String, ResourceSample> snapshot() {
+        Map<String, ResourceSample> samples = new LinkedHashMap<>();
+        if (!ResourceSample.isSupported()) {
+            return samples;
+        }
+        List<CrateTestServer> servers;
+        try {
+            servers = new ArrayList<>(cluster.servers());
+        } catch (IllegalStateException e) {
+            // cluster not started
+            return samples;
+        }
+        for (CrateTestServer server : servers) {
+            Long pid = server.pid().toCompletableFuture().getNow(null);
+            if (pid == null) {
+                continue;
+            }
+            try {
+                samples.put(nodeKey(server), ResourceSample.read(pid));
+            } catch (IOException e) {
+                // process exited
+            } catch (RuntimeException e) {
+                Utils.log("Could not sample resources of process %d: %s", pid, e);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return the key used for a node in the results of this sampler
+     */
+    public static String nodeKey(CrateTestServer server) {
+        return String.format(Locale.ENGLISH, "%s:%d", server.crateHost(), server.httpPort());
+    }
+
+    /**
+     * @return the samples taken so far for every node
+     */
+    public Map<String, List<ResourceSample>> series() {
+        Map<String, List<ResourceSample>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ResourceSample>> entry : series.entrySet()) {
+            synchronized (entry.getValue()) {
+                result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the resource usage per node during each test, keyed by test
+     */
+    public Map<String, Map<String, ResourceSample>> testDeltas() {
+        synchronized (testDeltas) {
+            return new LinkedHashMap<>(testDeltas);
+        }
+    }
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                start();
+                Map<String, ResourceSample> before = snapshot();
+                try {
+                    base.evaluate();
+                } finally {
+                    Map<String, ResourceSample> after = snapshot();
+                    Map<String, ResourceSample> deltas = new LinkedHashMap<>();
+                    for (Map.Entry<String, ResourceSample> entry : after.entrySet()) {
+                        ResourceSample earlier = before.get(entry.getKey());
+                        if (earlier != null) {
+                            deltas.put(entry.getKey(), entry.getValue().minus(earlier));
+                        }
+                    }
+                    testDeltas.put(description.getDisplayName(), deltas);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a human readable table of the resource usage during each test
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, ResourceSample>> test : testDeltas().entrySet()) {
+            for (Map.Entry<String, ResourceSample> node : test.getValue().entrySet()) {
+                sb.append(String.format(Locale.ENGLISH, "%s [%s] %s%n", test.getKey(), node.getKey(), node.getValue()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stop sampling. The recorded samples remain available.
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            executor = null;
+        }
+    }
+}
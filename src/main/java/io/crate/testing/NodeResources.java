@@ -0,0 +1,310 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Limits the CPUs and memory available to each node of a {@link CrateTestCluster},
+ * so that nodes neither compete with each other nor with the test JVM.
+ * <p>
+ * CPUs are taken from a pool, which defaults to the CPUs of the {@link ForkSlot} of the
+ * cluster or all CPUs the test JVM may run on, see {@link #processCpus()}. The first {@link Builder#harnessCpus(int)} CPUs of the pool are
+ * reserved for the test JVM, the remaining ones are handed out to the nodes in chunks of
+ * {@link Builder#cpusPerNode(int)}, or shared by all nodes without {@code cpusPerNode}.
+ * Nodes are pinned using {@code taskset}, which is only
+ * available on Linux; elsewhere only the processor count and heap limits apply.
+ * <pre>
+ * CrateTestCluster.fromVersion("5.0.0")
+ *     .numberOfNodes(3)
+ *     .nodeResources(NodeResources.builder().harnessCpus(2).cpusPerNode(2).heapSize("1g").build())
+ *     .build();
+ * </pre>
+ */
+public class NodeResources {
+
+    private final int[] cpuPool;
+    private final int harnessCpus;
+    private final int cpusPerNode;
+    private final int activeProcessorCount;
+    private final String heapSize;
+
+    // the CPUs of the test JVM before it was pinned, and how many clusters pin it
+    private static int[] processCpus;
+    private static int pinnedClusters;
+
+    private NodeResources(Builder builder) {
+        this.cpuPool = builder.cpuPool;
+        this.harnessCpus = builder.harnessCpus;
+        this.cpusPerNode = builder.cpusPerNode;
+        this.activeProcessorCount = builder.activeProcessorCount > 0 ? builder.activeProcessorCount : builder.cpusPerNode;
+        this.heapSize = builder.heapSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the processor count each node JVM assumes, or 0 to let the JVM decide
+     */
+    public int activeProcessorCount() {
+        return activeProcessorCount;
+    }
+
+    /**
+     * @return the heap size of each node, e.g. {@code 512m}, or null for the default
+     */
+    public String heapSize() {
+        return heapSize;
+    }
+
+    /**
+     * @param forkSlot the slot of the cluster, or null
+     * @return the CPUs to pin the test JVM and each node to; the first entry is for the test JVM and
+     * the other ones are for the nodes. Entries are null if no CPUs are assigned.
+     */
+    int[][] assignCpus(ForkSlot forkSlot, int numberOfNodes) {
+        int[][] assignment = new int[numberOfNodes + 1][];
+        int[] pool = cpuPool;
+        if (pool == null) {
+            pool = forkSlot == null ? processCpus() : forkSlot.cpus();
+        }
+        int[] nodePool = harnessCpus < pool.length ? Arrays.copyOfRange(pool, harnessCpus, pool.length) : pool;
+        if (harnessCpus > 0) {
+            assignment[0] = Arrays.copyOf(pool, Math.min(harnessCpus, pool.length));
+            // unpinned nodes would inherit the CPUs of the pinned test JVM
+            Arrays.fill(assignment, 1, assignment.length, nodePool);
+        }
+        if (cpusPerNode > 0) {
+            if (nodePool.length < cpusPerNode * numberOfNodes) {
+                Utils.log("%d nodes with %d CPUs each don't fit on the %d available CPUs, nodes will share CPUs",
+                    numberOfNodes, cpusPerNode, nodePool.length);
+            }
+            for (int node = 0; node < numberOfNodes; node++) {
+                int[] cpus = new int[Math.min(cpusPerNode, nodePool.length)];
+                for (int i = 0; i < cpus.length; i++) {
+                    cpus[i] = nodePool[(node * cpusPerNode + i) % nodePool.length];
+                }
+                assignment[node + 1] = cpus;
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * @return the ids of the CPUs the test JVM may run on, as allowed by its cpuset or container and before
+     * a cluster pinned it to its {@link Builder#harnessCpus(int)}. Without {@code /proc} the CPUs are
+     * assumed to be numbered from 0 to {@link Runtime#availableProcessors()} - 1.
+     */
+    static synchronized int[] processCpus() {
+        if (processCpus == null) {
+            processCpus = readAllowedCpus(Paths.get("/proc/self/status"));
+        }
+        return processCpus.clone();
+    }
+
+    private static int[] readAllowedCpus(Path status) {
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring("Cpus_allowed_list:".length()));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Utils.log("Could not read the allowed CPUs from %s: %s", status, e);
+        }
+        int[] cpus = new int[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = i;
+        }
+        return cpus;
+    }
+
+    /**
+     * @param cpuList a list like {@code 0-3,8,10-11} as used by {@code Cpus_allowed_list} and {@code taskset -c}
+     */
+    static int[] parseCpuList(String cpuList) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : cpuList.trim().split(",")) {
+            int idx = range.indexOf('-');
+            try {
+                int from = Integer.parseInt((idx < 0 ? range : range.substring(0, idx)).trim());
+                int to = idx < 0 ? from : Integer.parseInt(range.substring(idx + 1).trim());
+                for (int cpu = from; cpu <= to; cpu++) {
+                    cpus.add(cpu);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid cpu list: %s", cpuList), e);
+            }
+        }
+        if (cpus.isEmpty()) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid cpu list: %s", cpuList));
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return true if processes can be pinned to CPUs
+     */
+    static boolean isPinningSupported() {
+        return Files.isExecutable(Paths.get("/usr/bin/taskset")) || Files.isExecutable(Paths.get("/bin/taskset"));
+    }
+
+    /**
+     * @param cpus the CPUs to run on, or null to run on the CPUs of the test JVM before it was pinned
+     * @return the prefix of a command which runs it on the given CPUs, or an empty list if pinning is not
+     * supported or not needed
+     */
+    static synchronized List<String> pinningCommand(int[] cpus) {
+        List<String> command = new ArrayList<>();
+        if ((cpus == null || cpus.length == 0) && pinnedClusters > 0) {
+            // a process inherits the CPUs of the test JVM, which another cluster pinned to its harness CPUs
+            cpus = processCpus();
+        }
+        if (cpus != null && cpus.length > 0 && isPinningSupported()) {
+            command.add("taskset");
+            command.add("-c");
+            command.add(cpuList(cpus));
+        }
+        return command;
+    }
+
+    /**
+     * Pin all threads of the current JVM to the given CPUs until {@link #unpinCurrentProcess()} is called
+     * as often as this method returned true.
+     *
+     * @return true if the JVM was pinned
+     */
+    static synchronized boolean pinCurrentProcess(int[] cpus) throws IOException, InterruptedException {
+        if (cpus == null || cpus.length == 0 || !isPinningSupported()) {
+            return false;
+        }
+        // remember the CPUs of the JVM before they are restricted
+        processCpus();
+        setAffinity(cpus);
+        pinnedClusters++;
+        return true;
+    }
+
+    /**
+     * Restore the CPUs the JVM ran on before {@link #pinCurrentProcess(int[])} once no cluster pins it anymore.
+     */
+    static synchronized void unpinCurrentProcess() throws IOException, InterruptedException {
+        if (pinnedClusters > 0 && --pinnedClusters == 0) {
+            setAffinity(processCpus());
+        }
+    }
+
+    private static void setAffinity(int[] cpus) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(
+            "taskset", "-a", "-p", "-c", cpuList(cpus), Long.toString(ProcessHandle.current().pid()))
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        if (process.waitFor() != 0) {
+            throw new IOException(String.format(Locale.ENGLISH,
+                "Could not pin test JVM to CPUs %s, taskset exited with %d", cpuList(cpus), process.exitValue()));
+        }
+    }
+
+    static String cpuList(int[] cpus) {
+        StringBuilder sb = new StringBuilder();
+        for (int cpu : cpus) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(cpu);
+        }
+        return sb.toString();
+    }
+
+    public static class Builder {
+
+        private int[] cpuPool;
+        private int harnessCpus;
+        private int cpusPerNode;
+        private int activeProcessorCount;
+        private String heapSize;
+
+        private Builder() {
+        }
+
+        /**
+         * Use the given CPUs instead of those of the {@link ForkSlot} or all CPUs.
+         */
+        public Builder cpuPool(int... cpus) {
+            if (cpus.length == 0) {
+                throw new IllegalArgumentException("empty cpu pool");
+            }
+            this.cpuPool = cpus.clone();
+            return this;
+        }
+
+        /**
+         * Reserve this many CPUs of the pool for the test JVM and pin it to them while the cluster runs.
+         */
+        public Builder harnessCpus(int harnessCpus) {
+            this.harnessCpus = harnessCpus;
+            return this;
+        }
+
+        /**
+         * Pin each node to this many CPUs of the pool which are not used by other nodes or the test JVM,
+         * as long as enough CPUs are available.
+         */
+        public Builder cpusPerNode(int cpusPerNode) {
+            this.cpusPerNode = cpusPerNode;
+            return this;
+        }
+
+        /**
+         * The number of processors each node JVM assumes, set using {@code -XX:ActiveProcessorCount}.
+         * Defaults to {@link #cpusPerNode(int)}.
+         */
+        public Builder activeProcessorCount(int activeProcessorCount) {
+            this.activeProcessorCount = activeProcessorCount;
+            return this;
+        }
+
+        /**
+         * @param heapSize heap size of each node, e.g. {@code 512m}, set using {@code CRATE_HEAP_SIZE}
+         */
+        public Builder heapSize(String heapSize) {
+            this.heapSize = heapSize;
+            return this;
+        }
+
+        public NodeResources build() {
+            return new NodeResources(this);
+        }
+    }
+}
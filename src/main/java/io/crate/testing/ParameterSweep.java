@@ -0,0 +1,369 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures workloads on a grid of node settings, runtime settings and workloads, e.g. to tune thread pool sizes.
+ * <p>
+ * The grid is ordered so that the cluster is only restarted when the node settings change, and consecutive
+ * combinations differ in a single setting: runtime settings are changed with {@link CrateTestCluster#setGlobal},
+ * node settings by stopping the cluster and starting it again with the new settings. All clusters of a sweep
+ * share one working directory, so the distribution is only extracted once and the data created by the
+ * {@link ComparativeBenchmark.Setup} is recovered after each restart instead of being loaded again.
+ * The working directory is deleted at the end of the sweep.
+ * <pre>
+ * List&lt;ParameterSweep.Result&gt; results = ParameterSweep.builder(() -&gt; CrateTestCluster.fromVersion("5.6.3").numberOfNodes(3))
+ *     .nodeSetting("thread_pool.write.queue_size", 200, 1000)
+ *     .runtimeSetting("stats.enabled", true, false)
+ *     .workload("lookup", lookups)
+ *     .workload("ingest", inserts)
+ *     .setup(cluster -&gt; new FixtureLoader(cluster).load("doc.t", columns, rows))
+ *     .closedLoop(8)
+ *     .build()
+ *     .run();
+ * System.out.println(ParameterSweep.report(results));
+ * </pre>
+ */
+public class ParameterSweep {
+
+    private static final int HEALTH_TIMEOUT_MILLIS = 120_000;
+
+    private interface Load {
+        WorkloadResult run(WorkloadDriver driver, Workload workload, long duration, TimeUnit unit) throws InterruptedException;
+    }
+
+    /**
+     * The measurement of a workload with one combination of settings.
+     */
+    public static final class Result {
+
+        private final Map<String, Object> nodeSettings;
+        private final Map<String, Object> runtimeSettings;
+        private final String workload;
+        private final WorkloadResult result;
+
+        Result(Map<String, Object> nodeSettings, Map<String, Object> runtimeSettings, String workload, WorkloadResult result) {
+            this.nodeSettings = nodeSettings;
+            this.runtimeSettings = runtimeSettings;
+            this.workload = workload;
+            this.result = result;
+        }
+
+        public Map<String, Object> nodeSettings() {
+            return nodeSettings;
+        }
+
+        public Map<String, Object> runtimeSettings() {
+            return runtimeSettings;
+        }
+
+        public String workload() {
+            return workload;
+        }
+
+        public WorkloadResult result() {
+            return result;
+        }
+
+        /**
+         * @return the latencies of all statements of the workload
+         */
+        public LatencyHistogram latency() {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (LatencyHistogram histogram : result.latencies().values()) {
+                merged.add(histogram);
+            }
+            return merged;
+        }
+    }
+
+    private final Supplier<CrateTestCluster.Builder> cluster;
+    private final Map<String, List<Object>> nodeSettings;
+    private final Map<String, List<Object>> runtimeSettings;
+    private final Map<String, Workload> workloads;
+    private final ComparativeBenchmark.Setup setup;
+    private final Load load;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final long seed;
+
+    private ParameterSweep(Builder builder) {
+        this.cluster = builder.cluster;
+        this.nodeSettings = new LinkedHashMap<>(builder.nodeSettings);
+        this.runtimeSettings = new LinkedHashMap<>(builder.runtimeSettings);
+        this.workloads = new LinkedHashMap<>(builder.workloads);
+        this.setup = builder.setup;
+        this.load = builder.load;
+        this.warmupMillis = builder.warmupMillis;
+        this.measureMillis = builder.measureMillis;
+        this.seed = builder.seed;
+    }
+
+    /**
+     * @param cluster creates the builder of the cluster without the swept settings; called once per restart
+     */
+    public static Builder builder(Supplier<CrateTestCluster.Builder> cluster) {
+        return new Builder(cluster);
+    }
+
+    /**
+     * @return all combinations of the given values, ordered so that consecutive combinations differ in
+     * exactly one setting (a reflected mixed radix Gray code)
+     */
+    static List<Map<String, Object>> grid(Map<String, List<Object>> axes) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        result.add(new LinkedHashMap<>());
+        for (Map.Entry<String, List<Object>> axis : axes.entrySet()) {
+            List<Map<String, Object>> extended = new ArrayList<>();
+            List<Object> values = axis.getValue();
+            for (int i = 0; i < result.size(); i++) {
+                // traverse the values of the new axis back and forth, so that only the previous axis changes in between
+                for (int j = 0; j < values.size(); j++) {
+                    Object value = values.get(i % 2 == 0 ? j : values.size() - 1 - j);
+                    Map<String, Object> combination = new LinkedHashMap<>(result.get(i));
+                    combination.put(axis.getKey(), value);
+                    extended.add(combination);
+                }
+            }
+            result = extended;
+        }
+        return result;
+    }
+
+    /**
+     * @return the results of the measurement phase in the order they were measured
+     */
+    public List<Result> run() throws Exception {
+        List<Map<String, Object>> nodeGrid = grid(nodeSettings);
+        List<Map<String, Object>> runtimeGrid = grid(runtimeSettings);
+        UUID clusterUUID = UUID.randomUUID();
+        List<Result> results = new ArrayList<>();
+        Path workingDir = null;
+        boolean setUp = false;
+        try {
+            for (Map<String, Object> nodeCombination : nodeGrid) {
+                CrateTestCluster testCluster = cluster.get()
+                    .settings(nodeCombination)
+                    .keepWorkingDir(true)
+                    .clusterUUID(clusterUUID)
+                    .build();
+                workingDir = testCluster.crateWorkingDir();
+                try {
+                    testCluster.before();
+                } catch (Throwable t) {
+                    // a cluster which failed to start is already stopped
+                    throw new IllegalStateException("Could not start cluster", t);
+                }
+                try {
+                    testCluster.waitUntilHealthy(HEALTH_TIMEOUT_MILLIS);
+                    if (!setUp && setup != null) {
+                        setup.run(testCluster);
+                    }
+                    setUp = true;
+                    Map<String, Object> current = Collections.emptyMap();
+                    for (Map<String, Object> runtimeCombination : runtimeGrid) {
+                        testCluster.setGlobal(changed(current, runtimeCombination));
+                        current = runtimeCombination;
+                        WorkloadDriver driver = new WorkloadDriver(testCluster, seed);
+                        for (Map.Entry<String, Workload> workload : workloads.entrySet()) {
+                            if (warmupMillis > 0) {
+                                load.run(driver, workload.getValue(), warmupMillis, TimeUnit.MILLISECONDS);
+                            }
+                            WorkloadResult result = load.run(driver, workload.getValue(), measureMillis, TimeUnit.MILLISECONDS);
+                            Utils.log("%s %s %s: %s", nodeCombination, runtimeCombination, workload.getKey(), result.report());
+                            results.add(new Result(nodeCombination, runtimeCombination, workload.getKey(), result));
+                        }
+                    }
+                } finally {
+                    testCluster.after();
+                }
+            }
+        } finally {
+            if (workingDir != null && Files.exists(workingDir)) {
+                try {
+                    Utils.deletePath(workingDir);
+                } catch (IOException e) {
+                    Utils.log("Error while deleting crate directory: %s error: %s", workingDir, e);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static Map<String, Object> changed(Map<String, Object> current, Map<String, Object> next) {
+        Map<String, Object> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : next.entrySet()) {
+            if (!current.containsKey(entry.getKey()) || !Objects.equals(current.get(entry.getKey()), entry.getValue())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return a table with throughput and latency percentiles per combination of settings and workload
+     */
+    public static String report(List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-30s %-30s %-16s %-14s %-10s %-10s %-10s%n",
+            "node settings", "runtime settings", "workload", "throughput/s", "errors", "p50 ms", "p99 ms"));
+        for (Result result : results) {
+            long errors = 0;
+            for (String statement : result.result().latencies().keySet()) {
+                errors += result.result().errors(statement);
+            }
+            LatencyHistogram latency = result.latency();
+            sb.append(String.format(Locale.ENGLISH, "%-30s %-30s %-16s %-14.1f %-10d %-10.3f %-10.3f%n",
+                format(result.nodeSettings()),
+                format(result.runtimeSettings()),
+                result.workload(),
+                result.result().throughput(),
+                errors,
+                latency.millisAtPercentile(50),
+                latency.millisAtPercentile(99)));
+        }
+        return sb.toString();
+    }
+
+    private static String format(Map<String, Object> settings) {
+        if (settings.isEmpty()) {
+            return "-";
+        }
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : settings.entrySet()) {
+            entries.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return String.join(",", entries);
+    }
+
+    public static class Builder {
+
+        private final Supplier<CrateTestCluster.Builder> cluster;
+        private final Map<String, List<Object>> nodeSettings = new LinkedHashMap<>();
+        private final Map<String, List<Object>> runtimeSettings = new LinkedHashMap<>();
+        private final Map<String, Workload> workloads = new LinkedHashMap<>();
+        private ComparativeBenchmark.Setup setup;
+        private Load load = (driver, workload, duration, unit) -> driver.runClosedLoop(workload, 1, duration, unit);
+        private long warmupMillis = TimeUnit.SECONDS.toMillis(10);
+        private long measureMillis = TimeUnit.SECONDS.toMillis(30);
+        private long seed = 42L;
+
+        private Builder(Supplier<CrateTestCluster.Builder> cluster) {
+            this.cluster = cluster;
+        }
+
+        /**
+         * Sweep a node setting, which requires a restart of the cluster to change.
+         */
+        public Builder nodeSetting(String setting, Object... values) {
+            this.nodeSettings.put(setting, axis(setting, values));
+            return this;
+        }
+
+        /**
+         * Sweep a runtime setting, which is changed with {@code SET GLOBAL TRANSIENT}.
+         */
+        public Builder runtimeSetting(String setting, Object... values) {
+            this.runtimeSettings.put(setting, axis(setting, values));
+            return this;
+        }
+
+        private static List<Object> axis(String setting, Object[] values) {
+            if (values.length == 0) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "No values for setting %s", setting));
+            }
+            return Collections.unmodifiableList(Arrays.asList(values.clone()));
+        }
+
+        /**
+         * Add a workload which is measured with every combination of settings.
+         */
+        public Builder workload(String name, Workload workload) {
+            this.workloads.put(name, workload);
+            return this;
+        }
+
+        /**
+         * Prepare the first started cluster, e.g. create and fill tables. The data is kept for the following
+         * clusters of the sweep.
+         */
+        public Builder setup(ComparativeBenchmark.Setup setup) {
+            this.setup = setup;
+            return this;
+        }
+
+        public Builder warmup(long duration, TimeUnit unit) {
+            this.warmupMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder measure(long duration, TimeUnit unit) {
+            this.measureMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Send statements at a fixed rate, see {@link WorkloadDriver#runOpenLoop}.
+         */
+        public Builder openLoop(double ratePerSecond, int maxConcurrency) {
+            this.load = (driver, workload, duration, unit) ->
+                driver.runOpenLoop(workload, ratePerSecond, duration, unit, maxConcurrency);
+            return this;
+        }
+
+        /**
+         * Send statements from a fixed number of workers, see {@link WorkloadDriver#runClosedLoop}.
+         */
+        public Builder closedLoop(int workers) {
+            this.load = (driver, workload, duration, unit) -> driver.runClosedLoop(workload, workers, duration, unit);
+            return this;
+        }
+
+        public ParameterSweep build() {
+            if (workloads.isEmpty()) {
+                throw new IllegalArgumentException("No workloads to measure");
+            }
+            return new ParameterSweep(this);
+        }
+    }
+}
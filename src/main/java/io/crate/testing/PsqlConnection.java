@@ -0,0 +1,746 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal client for the PostgreSQL wire protocol (version 3) endpoint of a node.
+ * <p>
+ * Supports the simple query protocol, the extended query protocol and batches of
+ * a single statement with many parameter sets, which are pipelined as one Parse
+ * followed by a Bind/Execute pair per parameter set and a single Sync. Only
+ * trust and cleartext password authentication are supported.
+ * <p>
+ * Parameters are sent and results are received in text format. Parameters which are
+ * {@link Collection}s or arrays are sent as array literals and {@link Map}s as JSON, so
+ * they can be bound to array and object columns. Result values are converted like those
+ * of the HTTP endpoint, see {@link SqlResult}: arrays to {@link List}, objects to
+ * {@link Map} and timestamps to epoch milliseconds. An instance must not be used by
+ * multiple threads concurrently.
+ */
+public class PsqlConnection implements AutoCloseable {
+
+    private static final int PROTOCOL_VERSION_3 = 196608;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    /**
+     * Bounds the number of unread responses, so neither side blocks on a full socket buffer.
+     */
+    static final int PIPELINE_SIZE = 500;
+
+    private static final Gson GSON = new Gson();
+
+    private static final int OID_BOOL = 16;
+    private static final int OID_INT8 = 20;
+    private static final int OID_INT2 = 21;
+    private static final int OID_INT4 = 23;
+    private static final int OID_JSON = 114;
+    private static final int OID_FLOAT4 = 700;
+    private static final int OID_FLOAT8 = 701;
+    private static final int OID_TIMESTAMP = 1114;
+    private static final int OID_TIMESTAMPTZ = 1184;
+    private static final int OID_NUMERIC = 1700;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private QueryLatencyRecorder latencyRecorder;
+    private int cursors;
+    private String node;
+
+    private PsqlConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Open a connection and authenticate as the given user without password.
+     */
+    public static PsqlConnection open(String host, int port, String user) throws IOException {
+        return open(host, port, user, null);
+    }
+
+    public static PsqlConnection open(String host, int port, String user, String password) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            PsqlConnection connection = new PsqlConnection(socket);
+            connection.startup(user, password);
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    PsqlConnection recordLatencies(QueryLatencyRecorder latencyRecorder, CrateTestServer server) {
+        this.latencyRecorder = latencyRecorder;
+        this.node = NodeResourceSampler.nodeKey(server);
+        return this;
+    }
+
+    private void record(String statement, long startNanos) {
+        if (latencyRecorder != null) {
+            latencyRecorder.record(statement, node, System.nanoTime() - startNanos, -1);
+        }
+    }
+
+    /**
+     * @return true if a connection can be opened and a query executed on the given psql port
+     */
+    public static boolean isAvailable(String host, int port) {
+        try (PsqlConnection connection = open(host, port, "crate")) {
+            connection.query("select 1");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void startup(String user, String password) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(PROTOCOL_VERSION_3);
+        writeString(data, "user");
+        writeString(data, user);
+        data.writeByte(0);
+        out.writeInt(body.size() + 4);
+        body.writeTo(out);
+        out.flush();
+
+        while (true) {
+            char type = (char) in.readByte();
+            byte[] message = readBody();
+            switch (type) {
+                case 'R':
+                    int authType = new DataInputStream(new ByteArrayInputStream(message)).readInt();
+                    if (authType == 3) {
+                        ByteArrayOutputStream passwordBody = new ByteArrayOutputStream();
+                        writeString(new DataOutputStream(passwordBody), password == null ? "" : password);
+                        send('p', passwordBody);
+                        out.flush();
+                    } else if (authType != 0) {
+                        throw new IOException(String.format(Locale.ENGLISH, "Unsupported authentication method: %d", authType));
+                    }
+                    break;
+                case 'E':
+                    throw new IOException(errorMessage(message));
+                case 'Z':
+                    return;
+                default:
+                    // ParameterStatus, BackendKeyData and notices are not needed
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Execute a statement using the simple query protocol.
+     */
+    public SqlResult query(String statement) throws IOException {
+        long startNanos = System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeString(new DataOutputStream(body), statement);
+        send('Q', body);
+        out.flush();
+        ResultReader reader = new ResultReader();
+        reader.readUntilReady();
+        record(statement, startNanos);
+        return reader.result();
+    }
+
+    /**
+     * Execute a statement with parameters using the extended query protocol.
+     *
+     * @param args values for the {@code $n} or {@code ?} placeholders; sent in text format,
+     *             collections and arrays as array literals and maps as JSON
+     */
+    public SqlResult execute(String statement, Object... args) throws IOException {
+        long startNanos = System.nanoTime();
+        parse(statement);
+        bind(args);
+        describePortal();
+        executePortal();
+        sync();
+        out.flush();
+        ResultReader reader = new ResultReader();
+        reader.readUntilReady();
+        record(statement, startNanos);
+        return reader.result();
+    }
+
+    /**
+     * Execute a query using a cursor and fetch its rows in pages using {@code DECLARE} and {@code FETCH},
+     * so that at most {@code fetchSize} rows are held in memory at a time. Requires CrateDB 5.1 or later.
+     * <p>
+     * The connection must not be used for other statements until the stream is closed.
+     *
+     * @param args values for the {@code $n} or {@code ?} placeholders of the query
+     */
+    public ResultStream stream(int fetchSize, String query, Object... args) throws IOException {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetch size must be positive");
+        }
+        String cursor = String.format(Locale.ENGLISH, "crate_testing_cursor_%d", cursors++);
+        String declare = String.format(Locale.ENGLISH, "DECLARE %s NO SCROLL CURSOR FOR %s", cursor, query);
+        query("BEGIN");
+        try {
+            if (args.length == 0) {
+                query(declare);
+            } else {
+                execute(declare, args);
+            }
+        } catch (IOException e) {
+            // otherwise the next statement of the connection runs in the aborted transaction
+            try {
+                query("ROLLBACK");
+            } catch (IOException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        }
+        return new ResultStream(new CursorSource(cursor, fetchSize));
+    }
+
+    /**
+     * Execute a statement once per parameter set. The messages for up to
+     * {@value #PIPELINE_SIZE} parameter sets are sent before their responses are
+     * read, so a batch costs one round trip per {@value #PIPELINE_SIZE} parameter sets.
+     * A recorded latency covers the whole batch.
+     *
+     * @return the number of affected rows per parameter set
+     */
+    public long[] executeBatch(String statement, List<Object[]> bulkArgs) throws IOException {
+        if (bulkArgs.isEmpty()) {
+            // a Parse without a Sync would be sent along with the next statement
+            return new long[0];
+        }
+        long startNanos = System.nanoTime();
+        long[] result = new long[bulkArgs.size()];
+        parse(statement);
+        int pos = 0;
+        while (pos < bulkArgs.size()) {
+            int end = Math.min(pos + PIPELINE_SIZE, bulkArgs.size());
+            for (Object[] args : bulkArgs.subList(pos, end)) {
+                bind(args);
+                executePortal();
+            }
+            // the unnamed statement outlives the sync, so it is only parsed once
+            sync();
+            out.flush();
+            ResultReader reader = new ResultReader();
+            reader.readUntilReady();
+            for (long rowCount : reader.commandRowCounts) {
+                result[pos++] = rowCount;
+            }
+        }
+        record(statement, startNanos);
+        return result;
+    }
+
+    private void parse(String statement) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        writeString(data, "");
+        writeString(data, statement);
+        data.writeShort(0);
+        send('P', body);
+    }
+
+    private void bind(Object[] args) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        writeString(data, "");
+        writeString(data, "");
+        data.writeShort(0);
+        data.writeShort(args == null ? 0 : args.length);
+        if (args != null) {
+            for (Object arg : args) {
+                if (arg == null) {
+                    data.writeInt(-1);
+                } else {
+                    byte[] value = encode(arg).getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(value.length);
+                    data.write(value);
+                }
+            }
+        }
+        data.writeShort(0);
+        send('B', body);
+    }
+
+    private void describePortal() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte('P');
+        writeString(data, "");
+        send('D', body);
+    }
+
+    private void executePortal() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        writeString(data, "");
+        data.writeInt(0);
+        send('E', body);
+    }
+
+    private void sync() throws IOException {
+        send('S', new ByteArrayOutputStream());
+    }
+
+    private void send(char type, ByteArrayOutputStream body) throws IOException {
+        out.writeByte(type);
+        out.writeInt(body.size() + 4);
+        body.writeTo(out);
+    }
+
+    private byte[] readBody() throws IOException {
+        int length = in.readInt();
+        byte[] body = new byte[length - 4];
+        in.readFully(body);
+        return body;
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        data.write(value.getBytes(StandardCharsets.UTF_8));
+        data.writeByte(0);
+    }
+
+    private static String errorMessage(byte[] message) {
+        String severity = "ERROR";
+        String text = "unknown error";
+        int pos = 0;
+        while (pos < message.length && message[pos] != 0) {
+            char field = (char) message[pos++];
+            int end = pos;
+            while (message[end] != 0) {
+                end++;
+            }
+            String value = new String(message, pos, end - pos, StandardCharsets.UTF_8);
+            if (field == 'S') {
+                severity = value;
+            } else if (field == 'M') {
+                text = value;
+            }
+            pos = end + 1;
+        }
+        return severity + ": " + text;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send('X', new ByteArrayOutputStream());
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private class CursorSource implements ResultStream.Source {
+
+        private final String cursor;
+        private final int fetchSize;
+        private List<String> columns = new ArrayList<>();
+        private Iterator<Object[]> page = Collections.emptyIterator();
+        private boolean lastPage = false;
+
+        CursorSource(String cursor, int fetchSize) {
+            this.cursor = cursor;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public List<String> columns() {
+            return columns;
+        }
+
+        @Override
+        public Object[] nextRow() throws IOException {
+            while (!page.hasNext()) {
+                if (lastPage) {
+                    return null;
+                }
+                SqlResult result = query(String.format(Locale.ENGLISH, "FETCH FORWARD %d FROM %s", fetchSize, cursor));
+                if (!result.columns().isEmpty()) {
+                    columns = result.columns();
+                }
+                page = result.rows().iterator();
+                lastPage = result.rows().size() < fetchSize;
+            }
+            return page.next();
+        }
+
+        @Override
+        public long rowCount() {
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                query("CLOSE " + cursor);
+            } finally {
+                query("COMMIT");
+            }
+        }
+    }
+
+    /**
+     * Reads the responses of a request up to ReadyForQuery, collecting rows and row counts.
+     */
+    private class ResultReader {
+
+        private final List<String> columns = new ArrayList<>();
+        private final List<Integer> columnTypes = new ArrayList<>();
+        private final List<Object[]> rows = new ArrayList<>();
+        private final List<Long> commandRowCounts = new ArrayList<>();
+        private String error;
+
+        void readUntilReady() throws IOException {
+            while (true) {
+                char type = (char) in.readByte();
+                byte[] message = readBody();
+                switch (type) {
+                    case 'T':
+                        readRowDescription(message);
+                        break;
+                    case 'D':
+                        rows.add(readDataRow(message));
+                        break;
+                    case 'C':
+                        commandRowCounts.add(rowCount(new String(message, 0, message.length - 1, StandardCharsets.UTF_8)));
+                        break;
+                    case 'E':
+                        // the server skips the rest of the request and sends ReadyForQuery
+                        if (error == null) {
+                            error = errorMessage(message);
+                        }
+                        break;
+                    case 'Z':
+                        if (error != null) {
+                            throw new IOException(error);
+                        }
+                        return;
+                    default:
+                        // ParseComplete, BindComplete, NoData, EmptyQueryResponse, notices
+                        break;
+                }
+            }
+        }
+
+        private void readRowDescription(byte[] message) throws IOException {
+            columns.clear();
+            columnTypes.clear();
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(message));
+            int fields = data.readUnsignedShort();
+            for (int i = 0; i < fields; i++) {
+                ByteArrayOutputStream name = new ByteArrayOutputStream();
+                byte b;
+                while ((b = data.readByte()) != 0) {
+                    name.write(b);
+                }
+                columns.add(new String(name.toByteArray(), StandardCharsets.UTF_8));
+                data.readInt();   // table oid
+                data.readShort(); // column attribute number
+                columnTypes.add(data.readInt());
+                data.readShort(); // type size
+                data.readInt();   // type modifier
+                data.readShort(); // format code
+            }
+        }
+
+        private Object[] readDataRow(byte[] message) throws IOException {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(message));
+            Object[] row = new Object[data.readUnsignedShort()];
+            for (int i = 0; i < row.length; i++) {
+                int length = data.readInt();
+                if (length == -1) {
+                    continue;
+                }
+                byte[] value = new byte[length];
+                data.readFully(value);
+                int oid = i < columnTypes.size() ? columnTypes.get(i) : 0;
+                row[i] = convert(oid, new String(value, StandardCharsets.UTF_8));
+            }
+            return row;
+        }
+
+        SqlResult result() {
+            long rowCount = commandRowCounts.isEmpty() ? rows.size() : commandRowCounts.get(commandRowCounts.size() - 1);
+            return new SqlResult(new ArrayList<>(columns), rows, rowCount, -1);
+        }
+    }
+
+    /**
+     * @return the text format of a parameter value
+     */
+    static String encode(Object value) {
+        if (value instanceof Map) {
+            return GSON.toJson(value);
+        }
+        if (value instanceof Collection || value.getClass().isArray()) {
+            StringBuilder literal = new StringBuilder();
+            appendArray(literal, value);
+            return literal.toString();
+        }
+        return value.toString();
+    }
+
+    private static void appendArray(StringBuilder literal, Object array) {
+        List<Object> items = new ArrayList<>();
+        if (array instanceof Collection) {
+            items.addAll((Collection<?>) array);
+        } else {
+            for (int i = 0; i < Array.getLength(array); i++) {
+                items.add(Array.get(array, i));
+            }
+        }
+        literal.append('{');
+        for (int i = 0; i < items.size(); i++) {
+            Object item = items.get(i);
+            if (i > 0) {
+                literal.append(',');
+            }
+            if (item == null) {
+                literal.append("NULL");
+            } else if (item instanceof Collection || item.getClass().isArray()) {
+                appendArray(literal, item);
+            } else {
+                literal.append('"');
+                String text = encode(item);
+                for (int j = 0; j < text.length(); j++) {
+                    char c = text.charAt(j);
+                    if (c == '"' || c == '\\') {
+                        literal.append('\\');
+                    }
+                    literal.append(c);
+                }
+                literal.append('"');
+            }
+        }
+        literal.append('}');
+    }
+
+    static Object convert(int oid, String value) {
+        switch (oid) {
+            case OID_BOOL:
+                return "t".equals(value) || "true".equals(value);
+            case OID_INT2:
+            case OID_INT4:
+            case OID_INT8:
+                return Long.parseLong(value);
+            case OID_FLOAT4:
+            case OID_FLOAT8:
+            case OID_NUMERIC:
+                return Double.parseDouble(value);
+            case OID_JSON:
+                try {
+                    return HttpSqlClient.toJava(JsonParser.parseString(value));
+                } catch (JsonParseException e) {
+                    return value;
+                }
+            case OID_TIMESTAMP:
+            case OID_TIMESTAMPTZ:
+                return epochMillis(value);
+            default:
+                int elementOid = arrayElementOid(oid);
+                if (elementOid != 0) {
+                    return new ArrayLiteral(value, elementOid).parse();
+                }
+                return value;
+        }
+    }
+
+    /**
+     * @return the oid of the elements of an array type, -1 for arrays of text
+     * or 0 if the type is not an array
+     */
+    private static int arrayElementOid(int oid) {
+        switch (oid) {
+            case 1000:
+                return OID_BOOL;
+            case 1005:
+                return OID_INT2;
+            case 1007:
+                return OID_INT4;
+            case 1016:
+                return OID_INT8;
+            case 1021:
+                return OID_FLOAT4;
+            case 1022:
+                return OID_FLOAT8;
+            case 1231:
+                return OID_NUMERIC;
+            case 199:
+                return OID_JSON;
+            case 1115:
+                return OID_TIMESTAMP;
+            case 1185:
+                return OID_TIMESTAMPTZ;
+            case 1002: // char[]
+            case 1009: // text[]
+            case 1014: // bpchar[]
+            case 1015: // varchar[]
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the epoch milliseconds of a timestamp like {@code 2020-01-31 10:15:30.123+00};
+     * timestamps without time zone are read as UTC, like CrateDB does
+     */
+    private static Object epochMillis(String value) {
+        String iso = value.replace(' ', 'T');
+        try {
+            int time = iso.indexOf('T');
+            int offset = Math.max(iso.lastIndexOf('+'), iso.lastIndexOf('-'));
+            if (iso.endsWith("Z") || offset > time) {
+                if (offset > time && iso.length() - offset == 3) {
+                    iso += ":00";
+                }
+                return OffsetDateTime.parse(iso).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(iso).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // infinity and dates before the common era
+            return value;
+        }
+    }
+
+    /**
+     * Parses an array literal like {@code {1,NULL,"a \"b\""}} or {@code {{1,2},{3,4}}} into nested lists.
+     */
+    private static final class ArrayLiteral {
+
+        private final String literal;
+        private final int elementOid;
+        private int pos;
+
+        ArrayLiteral(String literal, int elementOid) {
+            this.literal = literal;
+            this.elementOid = elementOid;
+        }
+
+        Object parse() {
+            // skip explicit dimensions like [0:1]={1,2}
+            pos = literal.startsWith("[") ? literal.indexOf('=') + 1 : 0;
+            if (pos >= literal.length() || literal.charAt(pos) != '{') {
+                return literal;
+            }
+            return readArray();
+        }
+
+        private List<Object> readArray() {
+            List<Object> items = new ArrayList<>();
+            pos++; // {
+            while (pos < literal.length()) {
+                char c = literal.charAt(pos);
+                if (c == '}') {
+                    pos++;
+                    return items;
+                } else if (c == ',') {
+                    pos++;
+                } else if (c == '{') {
+                    items.add(readArray());
+                } else if (c == '"') {
+                    items.add(element(readQuoted()));
+                } else {
+                    int start = pos;
+                    while (pos < literal.length() && literal.charAt(pos) != ',' && literal.charAt(pos) != '}') {
+                        pos++;
+                    }
+                    String text = literal.substring(start, pos).trim();
+                    items.add("NULL".equalsIgnoreCase(text) ? null : element(text));
+                }
+            }
+            return items;
+        }
+
+        private String readQuoted() {
+            StringBuilder text = new StringBuilder();
+            pos++; // opening quote
+            while (pos < literal.length()) {
+                char c = literal.charAt(pos++);
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\' && pos < literal.length()) {
+                    c = literal.charAt(pos++);
+                }
+                text.append(c);
+            }
+            return text.toString();
+        }
+
+        private Object element(String text) {
+            return elementOid < 0 ? text : convert(elementOid, text);
+        }
+    }
+
+    /**
+     * @return the number of rows from a command tag like {@code INSERT 0 5} or {@code SELECT 5}
+     */
+    static long rowCount(String commandTag) {
+        int idx = commandTag.lastIndexOf(' ');
+        if (idx < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(commandTag.substring(idx + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
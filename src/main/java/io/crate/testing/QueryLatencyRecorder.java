@@ -0,0 +1,243 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Records the latency of every statement which is executed through the HTTP or psql
+ * clients of this library, once it is registered with {@link CrateTestCluster.Builder#latencyRecorder}.
+ * <p>
+ * Statements are grouped by their fingerprint, see {@link #fingerprint(String)}, and by node.
+ * The fingerprint of a statement is computed once and cached.
+ * For each group the client side latency and, for the HTTP endpoint, the server side
+ * {@code duration} reported by CrateDB are recorded into a {@link LatencyHistogram}.
+ * Every thread writes into its own histograms, so recording does not contend.
+ */
+public class QueryLatencyRecorder {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("(?<![\\w\"$])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?(?![\\w\"])");
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\d+");
+    private static final Pattern LIST_OF_PLACEHOLDERS = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Bounds the fingerprint cache, as statements with inlined values are all distinct.
+     */
+    static final int MAX_CACHED_FINGERPRINTS = 10_000;
+
+    /**
+     * Fingerprints by statement. Once full, fingerprints of new statements are computed on every execution.
+     */
+    final Map<String, String> fingerprintCache = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Map<Key, Histograms>> allThreads = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Map<Key, Histograms>> perThread = ThreadLocal.withInitial(() -> {
+        Map<Key, Histograms> histograms = new ConcurrentHashMap<>();
+        allThreads.add(histograms);
+        return histograms;
+    });
+
+    /**
+     * Replace all literals and parameter placeholders of the statement by {@code ?},
+     * collapse lists of placeholders and whitespace, so that statements which only
+     * differ in their values share a fingerprint.
+     */
+    public static String fingerprint(String statement) {
+        String result = STRING_LITERAL.matcher(statement).replaceAll("?");
+        result = PLACEHOLDER.matcher(result).replaceAll("?");
+        result = NUMERIC_LITERAL.matcher(result).replaceAll("?");
+        result = LIST_OF_PLACEHOLDERS.matcher(result).replaceAll("?, ...");
+        result = WHITESPACE.matcher(result.trim()).replaceAll(" ");
+        if (result.endsWith(";")) {
+            result = result.substring(0, result.length() - 1).trim();
+        }
+        return result;
+    }
+
+    /**
+     * @param node the node which executed the statement, see {@link NodeResourceSampler#nodeKey(CrateTestServer)}
+     * @param latencyNanos client side latency
+     * @param serverDurationMillis duration reported by the server, or a negative value if unknown
+     */
+    public void record(String statement, String node, long latencyNanos, double serverDurationMillis) {
+        Key key = new Key(cachedFingerprint(statement), node);
+        Histograms histograms = perThread.get().computeIfAbsent(key, k -> new Histograms());
+        histograms.latency.record(latencyNanos);
+        if (serverDurationMillis >= 0) {
+            histograms.serverDuration.record((long) (serverDurationMillis * TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+    }
+
+    private String cachedFingerprint(String statement) {
+        String fingerprint = fingerprintCache.get(statement);
+        if (fingerprint == null) {
+            fingerprint = fingerprint(statement);
+            if (fingerprintCache.size() < MAX_CACHED_FINGERPRINTS) {
+                fingerprintCache.put(statement, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    void record(String statement, CrateTestServer server, long startNanos, SqlResult result) {
+        record(statement, NodeResourceSampler.nodeKey(server), System.nanoTime() - startNanos, result.duration());
+    }
+
+    /**
+     * @return all recorded fingerprints, sorted
+     */
+    public List<String> fingerprints() {
+        List<String> fingerprints = new ArrayList<>(merged().keySet());
+        fingerprints.sort(null);
+        return fingerprints;
+    }
+
+    /**
+     * @return the client side latencies of the fingerprint on all nodes
+     */
+    public LatencyHistogram latency(String fingerprint) {
+        return latency(fingerprint, null);
+    }
+
+    /**
+     * @param node a node, or null for all nodes
+     * @return the client side latencies of the fingerprint on the given node
+     */
+    public LatencyHistogram latency(String fingerprint, String node) {
+        return merge(fingerprint, node, false);
+    }
+
+    /**
+     * @param node a node, or null for all nodes
+     * @return the server side durations of the fingerprint on the given node
+     */
+    public LatencyHistogram serverDuration(String fingerprint, String node) {
+        return merge(fingerprint, node, true);
+    }
+
+    private LatencyHistogram merge(String fingerprint, String node, boolean serverDuration) {
+        LatencyHistogram result = new LatencyHistogram();
+        for (Map<Key, Histograms> histograms : allThreads) {
+            for (Map.Entry<Key, Histograms> entry : histograms.entrySet()) {
+                Key key = entry.getKey();
+                if (key.fingerprint.equals(fingerprint) && (node == null || key.node.equals(node))) {
+                    result.add(serverDuration ? entry.getValue().serverDuration : entry.getValue().latency);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Map<String, Histograms>> merged() {
+        Map<String, Map<String, Histograms>> result = new TreeMap<>();
+        for (Map<Key, Histograms> histograms : allThreads) {
+            for (Map.Entry<Key, Histograms> entry : histograms.entrySet()) {
+                Histograms merged = result
+                    .computeIfAbsent(entry.getKey().fingerprint, k -> new TreeMap<>())
+                    .computeIfAbsent(entry.getKey().node, k -> new Histograms());
+                merged.latency.add(entry.getValue().latency);
+                merged.serverDuration.add(entry.getValue().serverDuration);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a table with count, p50, p99, p99.9 and max latency in milliseconds per fingerprint and node,
+     * followed by the p50 and p99 of the server side duration
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-8s %-10s %-10s %-10s %-10s %-10s %-10s %-21s %s%n",
+            "count", "p50", "p99", "p99.9", "max", "srv p50", "srv p99", "node", "statement"));
+        for (Map.Entry<String, Map<String, Histograms>> fingerprint : merged().entrySet()) {
+            for (Map.Entry<String, Histograms> node : fingerprint.getValue().entrySet()) {
+                LatencyHistogram latency = node.getValue().latency;
+                LatencyHistogram serverDuration = node.getValue().serverDuration;
+                sb.append(String.format(Locale.ENGLISH, "%-8d %-10.3f %-10.3f %-10.3f %-10.3f %-10.3f %-10.3f %-21s %s%n",
+                    latency.count(),
+                    latency.millisAtPercentile(50),
+                    latency.millisAtPercentile(99),
+                    latency.millisAtPercentile(99.9),
+                    latency.maxNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1),
+                    serverDuration.millisAtPercentile(50),
+                    serverDuration.millisAtPercentile(99),
+                    node.getKey(),
+                    fingerprint.getKey()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Discard all recorded latencies.
+     */
+    public void reset() {
+        for (Map<Key, Histograms> histograms : allThreads) {
+            histograms.clear();
+        }
+    }
+
+    private static final class Histograms {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serverDuration = new LatencyHistogram();
+    }
+
+    private static final class Key {
+        private final String fingerprint;
+        private final String node;
+
+        private Key(String fingerprint, String node) {
+            this.fingerprint = fingerprint;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return fingerprint.equals(key.fingerprint) && node.equals(key.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, node);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Records the result digest, the {@code EXPLAIN ANALYZE} output and the duration of every statement
+ * executed through {@link CrateTestServer#execute} into a golden file, once it is registered with
+ * {@link CrateTestCluster.Builder#regressionRecorder}, and compares later runs against it.
+ * <ul>
+ *     <li>In {@link Mode#RECORD} mode the recorded statements are written to the golden file
+ *     by {@link #close()}. Statements of the golden file which were not executed are kept.</li>
+ *     <li>In {@link Mode#REPLAY} mode {@link #regressions()} lists the statements whose result changed
+ *     and those which got slower than the {@link #tolerance(double) tolerance} allows.</li>
+ * </ul>
+ * Statements are identified by their text and arguments. If a statement is executed more than once,
+ * the results are compared in the order of execution and the fastest execution is compared with the
+ * fastest recorded one. The duration is the one reported by the server. Results of statements without
+ * {@code ORDER BY} are compared regardless of the order of their rows.
+ * <p>
+ * By default, only {@code SELECT}, {@code WITH}, {@code INSERT}, {@code UPDATE} and {@code DELETE} statements
+ * which don't read from the {@code sys}, {@code information_schema} or {@code pg_catalog} schemas are recorded,
+ * which excludes the statements this library uses to wait for the cluster, see {@link #filter(Predicate)}.
+ * <pre>
+ * static final QueryRegressionRecorder GOLDEN =
+ *     QueryRegressionRecorder.fromSystemProperty(Paths.get("src/test/resources/queries.golden"));
+ *
+ * &#64;ClassRule
+ * public static final CrateTestCluster CLUSTER = CrateTestCluster.fromSysProperties()
+ *     .regressionRecorder(GOLDEN)
+ *     .build();
+ *
+ * &#64;AfterClass
+ * public static void checkGoldenFile() throws IOException {
+ *     GOLDEN.close();
+ *     GOLDEN.assertNoRegressions();
+ * }
+ * </pre>
+ */
+public class QueryRegressionRecorder implements AutoCloseable {
+
+    /**
+     * System property which selects the mode of {@link #fromSystemProperty(Path)}, {@code record} or {@code replay}.
+     */
+    public static final String MODE_PROPERTY = "crate.testing.golden";
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+    private static final Pattern RECORDED_STATEMENT = Pattern.compile(
+        "^\\s*(select|with|insert|update|delete)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SYSTEM_SCHEMA = Pattern.compile(
+        "\\b(sys|information_schema|pg_catalog)\\s*\\.", Pattern.CASE_INSENSITIVE);
+    private static final Pattern QUERY = Pattern.compile("^\\s*(select|with)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_PLAN_LENGTH = 2000;
+
+    public enum Mode {
+        RECORD,
+        REPLAY
+    }
+
+    /**
+     * A statement whose result changed or which got slower compared to the golden file.
+     */
+    public static final class Regression {
+
+        public enum Kind {
+            RESULT_CHANGED,
+            SLOWER
+        }
+
+        private final Kind kind;
+        private final String statement;
+        private final String expected;
+        private final String actual;
+        private final String expectedPlan;
+        private final String actualPlan;
+
+        Regression(Kind kind, String statement, String expected, String actual, String expectedPlan, String actualPlan) {
+            this.kind = kind;
+            this.statement = statement;
+            this.expected = expected;
+            this.actual = actual;
+            this.expectedPlan = expectedPlan;
+            this.actualPlan = actualPlan;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public String statement() {
+            return statement;
+        }
+
+        /**
+         * @return the recorded result digest or duration
+         */
+        public String expected() {
+            return expected;
+        }
+
+        /**
+         * @return the result digest or duration of this run
+         */
+        public String actual() {
+            return actual;
+        }
+
+        /**
+         * @return the recorded {@code EXPLAIN ANALYZE} output, or null if none was captured
+         */
+        public String expectedPlan() {
+            return expectedPlan;
+        }
+
+        /**
+         * @return the {@code EXPLAIN ANALYZE} output of this run, or null if none was captured
+         */
+        public String actualPlan() {
+            return actualPlan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%s %s%n  expected: %s%n       got: %s", kind, statement, expected, actual);
+        }
+    }
+
+    private final Path store;
+    private final Mode mode;
+    private double tolerancePercent = 20;
+    private double minimumSlowdownMillis = 1;
+    private boolean capturePlans = true;
+    private Predicate<String> filter = statement ->
+        RECORDED_STATEMENT.matcher(statement).find() && !SYSTEM_SCHEMA.matcher(statement).find();
+    private Map<String, Entry> baseline;
+    private final Map<String, Entry> recorded = new TreeMap<>();
+
+    public QueryRegressionRecorder(Path store, Mode mode) {
+        this.store = store;
+        this.mode = mode;
+    }
+
+    /**
+     * Create a recorder whose mode is read from the {@value #MODE_PROPERTY} system property.
+     * If it is not set, statements are recorded if the golden file does not exist yet and replayed otherwise.
+     */
+    public static QueryRegressionRecorder fromSystemProperty(Path store) {
+        String mode = System.getProperty(MODE_PROPERTY);
+        if (mode == null) {
+            return new QueryRegressionRecorder(store, Files.exists(store) ? Mode.REPLAY : Mode.RECORD);
+        }
+        return new QueryRegressionRecorder(store, Mode.valueOf(mode.toUpperCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * @param percent how much slower than recorded a statement may get in {@link Mode#REPLAY} mode, 20 by default
+     */
+    public QueryRegressionRecorder tolerance(double percent) {
+        if (percent < 0) {
+            throw new IllegalArgumentException("tolerance must not be negative");
+        }
+        this.tolerancePercent = percent;
+        return this;
+    }
+
+    /**
+     * Ignore slowdowns below the given duration, which are mostly noise for fast statements. 1ms by default.
+     */
+    public QueryRegressionRecorder minimumSlowdown(long duration, TimeUnit unit) {
+        this.minimumSlowdownMillis = unit.toMicros(duration) / 1000.0;
+        return this;
+    }
+
+    /**
+     * @param capturePlans false to not run {@code EXPLAIN ANALYZE} for the recorded queries
+     */
+    public QueryRegressionRecorder capturePlans(boolean capturePlans) {
+        this.capturePlans = capturePlans;
+        return this;
+    }
+
+    /**
+     * Select the statements which are recorded, replacing the default filter.
+     */
+    public QueryRegressionRecorder filter(Predicate<String> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    void record(String statement, Object[] args, CrateTestServer server, long startNanos, SqlResult result) {
+        if (!filter.test(statement)) {
+            return;
+        }
+        double durationMillis = result.duration() >= 0
+            ? result.duration()
+            : (System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        String signature = result.columns().isEmpty()
+            ? "rowcount=" + result.rowCount()
+            : ResultDigest.of(result.rows().iterator()).toString();
+        JsonElement argsJson = GSON.toJsonTree(args == null ? new Object[0] : args);
+        String key = key(statement, argsJson);
+        boolean first;
+        synchronized (this) {
+            Entry entry = recorded.get(key);
+            first = entry == null;
+            if (first) {
+                entry = new Entry(statement, argsJson);
+                recorded.put(key, entry);
+            }
+            entry.add(signature, durationMillis);
+        }
+        if (first && capturePlans && QUERY.matcher(statement).find()) {
+            String plan = explainAnalyze(server, statement, args);
+            synchronized (this) {
+                recorded.get(key).plan = plan;
+            }
+        }
+    }
+
+    private static String explainAnalyze(CrateTestServer server, String statement, Object[] args) {
+        try {
+            SqlResult plan = HttpSqlClient.execute(server.crateHost(), server.httpPort(), null, "EXPLAIN ANALYZE " + statement, args);
+            return plan.rows().isEmpty() ? null : GSON.toJson(plan.rows().get(0)[0]);
+        } catch (IOException e) {
+            // not supported by all statements and versions
+            return null;
+        }
+    }
+
+    private static String key(String statement, JsonElement args) {
+        return statement + '\n' + args;
+    }
+
+    /**
+     * Compare the statements executed so far with the golden file.
+     *
+     * @throws IllegalStateException if the recorder is not in {@link Mode#REPLAY} mode
+     * @throws IOException if the golden file can't be read
+     */
+    public synchronized List<Regression> regressions() throws IOException {
+        if (mode != Mode.REPLAY) {
+            throw new IllegalStateException("regressions are only detected in REPLAY mode");
+        }
+        List<Regression> regressions = new ArrayList<>();
+        for (Map.Entry<String, Entry> run : recorded.entrySet()) {
+            Entry expected = baseline().get(run.getKey());
+            if (expected == null) {
+                continue;
+            }
+            Entry actual = run.getValue();
+            String changed = firstChangedResult(expected, actual);
+            if (changed != null) {
+                regressions.add(new Regression(Regression.Kind.RESULT_CHANGED, actual.statement,
+                    changed.substring(0, changed.indexOf('\n')), changed.substring(changed.indexOf('\n') + 1),
+                    expected.plan, actual.plan));
+            }
+            double slowdown = actual.durationMillis - expected.durationMillis;
+            if (slowdown > minimumSlowdownMillis && slowdown > expected.durationMillis * tolerancePercent / 100) {
+                regressions.add(new Regression(Regression.Kind.SLOWER, actual.statement,
+                    String.format(Locale.ENGLISH, "%.3fms", expected.durationMillis),
+                    String.format(Locale.ENGLISH, "%.3fms (+%.0f%%)", actual.durationMillis,
+                        expected.durationMillis > 0 ? slowdown * 100 / expected.durationMillis : Double.POSITIVE_INFINITY),
+                    expected.plan, actual.plan));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @return the first differing pair of results, separated by a newline, or null if all results match
+     */
+    private static String firstChangedResult(Entry expected, Entry actual) {
+        boolean orderSensitive = ORDER_BY.matcher(actual.statement).find();
+        int count = Math.min(expected.executions(), actual.executions());
+        for (int i = 0; i < count; i++) {
+            String expectedResult = expected.result(i);
+            String actualResult = actual.result(i);
+            if (!sameResult(expectedResult, actualResult, orderSensitive)) {
+                String execution = count > 1 ? String.format(Locale.ENGLISH, " (execution %d)", i + 1) : "";
+                return expectedResult + execution + '\n' + actualResult + execution;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameResult(String expected, String actual, boolean orderSensitive) {
+        if (expected.startsWith("rows=") && actual.startsWith("rows=")) {
+            return ResultDigest.parse(expected).matches(ResultDigest.parse(actual), orderSensitive);
+        }
+        return expected.equals(actual);
+    }
+
+    /**
+     * @throws AssertionError listing all regressions, if there are any
+     */
+    public void assertNoRegressions() throws IOException {
+        List<Regression> regressions = regressions();
+        if (regressions.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(String.format(Locale.ENGLISH,
+            "%d regressions compared to %s:%n", regressions.size(), store));
+        for (Regression regression : regressions) {
+            sb.append(regression).append(System.lineSeparator());
+            if (regression.kind() == Regression.Kind.SLOWER) {
+                appendPlan(sb, "expected plan", regression.expectedPlan());
+                appendPlan(sb, "plan", regression.actualPlan());
+            }
+        }
+        throw new AssertionError(sb.toString());
+    }
+
+    private static void appendPlan(StringBuilder sb, String label, String plan) {
+        if (plan != null) {
+            String shortened = plan.length() > MAX_PLAN_LENGTH ? plan.substring(0, MAX_PLAN_LENGTH) + "..." : plan;
+            sb.append(String.format(Locale.ENGLISH, "  %s: %s%n", label, shortened));
+        }
+    }
+
+    /**
+     * In {@link Mode#RECORD} mode, write the recorded statements to the golden file, merged with the
+     * statements it already contains. Does nothing in {@link Mode#REPLAY} mode.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mode != Mode.RECORD) {
+            return;
+        }
+        Map<String, Entry> merged = new TreeMap<>(baseline());
+        merged.putAll(recorded);
+        Path parent = store.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, store.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Entry entry : merged.values()) {
+                writer.write(GSON.toJson(entry.toJson()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        baseline = merged;
+    }
+
+    private Map<String, Entry> baseline() throws IOException {
+        if (baseline == null) {
+            Map<String, Entry> entries = new TreeMap<>();
+            if (Files.exists(store)) {
+                try (BufferedReader reader = Files.newBufferedReader(store, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isBlank()) {
+                            Entry entry = Entry.fromJson(JsonParser.parseString(line).getAsJsonObject());
+                            entries.put(key(entry.statement, entry.args), entry);
+                        }
+                    }
+                }
+            }
+            baseline = entries;
+        }
+        return baseline;
+    }
+
+    /**
+     * The recorded executions of a statement. Consecutive identical results are stored once with a count.
+     */
+    private static final class Entry {
+
+        private final String statement;
+        private final JsonElement args;
+        private final List<String> results = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+        private double durationMillis = Double.MAX_VALUE;
+        private String plan;
+
+        private Entry(String statement, JsonElement args) {
+            this.statement = statement;
+            this.args = args;
+        }
+
+        private void add(String result, double durationMillis) {
+            int last = results.size() - 1;
+            if (last >= 0 && results.get(last).equals(result)) {
+                counts.set(last, counts.get(last) + 1);
+            } else {
+                results.add(result);
+                counts.add(1);
+            }
+            this.durationMillis = Math.min(this.durationMillis, durationMillis);
+        }
+
+        private int executions() {
+            int executions = 0;
+            for (int count : counts) {
+                executions += count;
+            }
+            return executions;
+        }
+
+        private String result(int execution) {
+            int remaining = execution;
+            for (int i = 0; i < results.size(); i++) {
+                if (remaining < counts.get(i)) {
+                    return results.get(i);
+                }
+                remaining -= counts.get(i);
+            }
+            throw new IndexOutOfBoundsException("no execution " + execution);
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("statement", statement);
+            json.add("args", args);
+            JsonArray resultsJson = new JsonArray();
+            for (int i = 0; i < results.size(); i++) {
+                JsonArray result = new JsonArray();
+                result.add(results.get(i));
+                result.add(counts.get(i));
+                resultsJson.add(result);
+            }
+            json.add("results", resultsJson);
+            json.addProperty("duration_ms", durationMillis);
+            json.addProperty("plan", plan);
+            return json;
+        }
+
+        private static Entry fromJson(JsonObject json) {
+            Entry entry = new Entry(json.get("statement").getAsString(), json.get("args"));
+            for (JsonElement element : json.getAsJsonArray("results")) {
+                JsonArray result = element.getAsJsonArray();
+                entry.results.add(result.get(0).getAsString());
+                entry.counts.add(result.get(1).getAsInt());
+            }
+            entry.durationMillis = json.get("duration_ms").getAsDouble();
+            JsonElement plan = json.get("plan");
+            entry.plan = plan == null || plan.isJsonNull() ? null : plan.getAsString();
+            return entry;
+        }
+    }
+}
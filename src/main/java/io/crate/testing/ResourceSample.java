@@ -0,0 +1,191 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resource usage of a process as reported by {@code /proc/<pid>/stat}, {@code status}
+ * and {@code io}. Values which could not be read are {@code -1}.
+ * <p>
+ * The result of {@link #minus(ResourceSample)} is a delta between two samples:
+ * RSS, threads and open file descriptors are then the change of the gauge,
+ * CPU time and I/O bytes the amount consumed in between.
+ */
+public class ResourceSample {
+
+    /**
+     * Clock ticks per second used by {@code /proc/<pid>/stat}, which is 100 on all common Linux platforms.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private final long timestampMillis;
+    private final long rssBytes;
+    private final long cpuTimeMillis;
+    private final long threads;
+    private final long openFileDescriptors;
+    private final long readBytes;
+    private final long writtenBytes;
+
+    ResourceSample(long timestampMillis,
+                   long rssBytes,
+                   long cpuTimeMillis,
+                   long threads,
+                   long openFileDescriptors,
+                   long readBytes,
+                   long writtenBytes) {
+        this.timestampMillis = timestampMillis;
+        this.rssBytes = rssBytes;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.threads = threads;
+        this.openFileDescriptors = openFileDescriptors;
+        this.readBytes = readBytes;
+        this.writtenBytes = writtenBytes;
+    }
+
+    /**
+     * @return true if resource usage can be read on this platform
+     */
+    public static boolean isSupported() {
+        return Files.isDirectory(Paths.get("/proc/self"));
+    }
+
+    /**
+     * Read the current resource usage of the given process.
+     *
+     * @throws IOException if the process does not exist (anymore)
+     */
+    public static ResourceSample read(long pid) throws IOException {
+        Path proc = Paths.get("/proc", Long.toString(pid));
+        String stat = new String(Files.readAllBytes(proc.resolve("stat")), StandardCharsets.UTF_8);
+        List<String> status = Files.readAllLines(proc.resolve("status"), StandardCharsets.UTF_8);
+        List<String> io;
+        try {
+            io = Files.readAllLines(proc.resolve("io"), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // only readable by the owner of the process
+            io = List.of();
+        }
+        long openFileDescriptors = 0;
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(proc.resolve("fd"))) {
+            for (Path ignored : fds) {
+                openFileDescriptors++;
+            }
+        } catch (IOException e) {
+            openFileDescriptors = -1;
+        }
+        return parse(System.currentTimeMillis(), stat, status, io, openFileDescriptors);
+    }
+
+    static ResourceSample parse(long timestampMillis, String stat, List<String> status, List<String> io, long openFileDescriptors) {
+        // the command name in parentheses may contain spaces, so the fields are counted from its end
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        long utime = Long.parseLong(fields[11]);
+        long stime = Long.parseLong(fields[12]);
+        long cpuTimeMillis = (utime + stime) * 1000 / CLOCK_TICKS_PER_SECOND;
+        long threads = Long.parseLong(fields[17]);
+
+        long rssKb = value(status, "VmRSS:");
+        return new ResourceSample(
+            timestampMillis,
+            rssKb < 0 ? -1 : rssKb * 1024,
+            cpuTimeMillis,
+            threads,
+            openFileDescriptors,
+            value(io, "read_bytes:"),
+            value(io, "write_bytes:"));
+    }
+
+    private static long value(List<String> lines, String key) {
+        for (String line : lines) {
+            if (line.startsWith(key)) {
+                String[] parts = line.substring(key.length()).trim().split("\\s+");
+                return Long.parseLong(parts[0]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the difference between this sample and an earlier one
+     */
+    public ResourceSample minus(ResourceSample earlier) {
+        return new ResourceSample(
+            timestampMillis - earlier.timestampMillis,
+            diff(rssBytes, earlier.rssBytes),
+            diff(cpuTimeMillis, earlier.cpuTimeMillis),
+            diff(threads, earlier.threads),
+            diff(openFileDescriptors, earlier.openFileDescriptors),
+            diff(readBytes, earlier.readBytes),
+            diff(writtenBytes, earlier.writtenBytes));
+    }
+
+    private static long diff(long value, long earlier) {
+        return value < 0 || earlier < 0 ? -1 : value - earlier;
+    }
+
+    /**
+     * @return the wall clock time of the sample, or the elapsed time for a delta
+     */
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    public long rssBytes() {
+        return rssBytes;
+    }
+
+    public long cpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    public long threads() {
+        return threads;
+    }
+
+    public long openFileDescriptors() {
+        return openFileDescriptors;
+    }
+
+    public long readBytes() {
+        return readBytes;
+    }
+
+    public long writtenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+            "rss=%dB cpu=%dms threads=%d fds=%d read=%dB written=%dB",
+            rssBytes, cpuTimeMillis, threads, openFileDescriptors, readBytes, writtenBytes);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Assertions on results which are compared by their {@link ResultDigest}, so that results of any size
+ * can be compared without holding their rows in memory.
+ * <p>
+ * A result can be compared with the result of another node, another cluster (e.g. running a different
+ * CrateDB version) or with a golden digest. Since the results are streamed, a {@link Query} is executed
+ * once to compute the digests and, only if they do not match, a second time to narrow down the rows which
+ * differ. Each query is read to its end before the next one is executed, so both can use the same
+ * {@link PsqlConnection}.
+ * <pre>
+ * ResultAssertions.assertSameResult(
+ *     () -&gt; oldCluster.stream("select * from t order by id"),
+ *     () -&gt; newCluster.stream("select * from t order by id"),
+ *     true);
+ *
+ * ResultAssertions.assertDigest(
+ *     "rows=1000 ordered=54d2f0b0a1e5c0d7 unordered=09c3be1e4f9e2b61",
+ *     () -&gt; cluster.stream("select * from t"),
+ *     false);
+ * </pre>
+ */
+public final class ResultAssertions {
+
+    /**
+     * Maximum number of differing rows which are listed in an assertion error.
+     */
+    static final int MAX_REPORTED_ROWS = 10;
+
+    /**
+     * Maximum number of candidate rows which are kept in memory while narrowing down differing rows.
+     */
+    static final int MAX_CANDIDATES = 100_000;
+
+    /**
+     * Number of rows covered by each checkpoint used to find the first row which is out of order.
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    private static final int BUCKET_BITS = 10;
+
+    /**
+     * Executes a query and streams its result, possibly more than once.
+     */
+    @FunctionalInterface
+    public interface Query {
+
+        ResultStream open() throws IOException;
+    }
+
+    private ResultAssertions() {
+    }
+
+    /**
+     * Compute the digest of the result of a query.
+     */
+    public static ResultDigest digest(Query query) throws IOException {
+        return ResultDigest.of(query.open());
+    }
+
+    /**
+     * Assert that the result of a query matches a golden digest, see {@link ResultDigest#toString()}.
+     * Since the rows of the golden result are not known, the assertion error only contains the actual digest,
+     * which can be used to update the golden digest if the change is expected.
+     *
+     * @param orderSensitive whether the order of the rows must match, too
+     */
+    public static void assertDigest(String expected, Query actual, boolean orderSensitive) throws IOException {
+        ResultDigest expectedDigest = ResultDigest.parse(expected);
+        ResultDigest actualDigest = digest(actual);
+        if (!expectedDigest.matches(actualDigest, orderSensitive)) {
+            throw new AssertionError(String.format(Locale.ENGLISH,
+                "Result does not match the golden digest%n  expected: %s%n       got: %s", expectedDigest, actualDigest));
+        }
+    }
+
+    /**
+     * Assert that two queries return the same rows. If not, the assertion error lists the rows which are
+     * missing or unexpected in the actual result, or the position of the first row which differs if
+     * {@code orderSensitive} is set and both results contain the same rows.
+     *
+     * @param orderSensitive whether the order of the rows must match, too
+     */
+    public static void assertSameResult(Query expected, Query actual, boolean orderSensitive) throws IOException {
+        Pass expectedPass = Pass.run(expected);
+        Pass actualPass = Pass.run(actual);
+        ResultDigest expectedDigest = expectedPass.digest;
+        ResultDigest actualDigest = actualPass.digest;
+        if (expectedDigest.matches(actualDigest, orderSensitive)) {
+            return;
+        }
+        StringBuilder message = new StringBuilder(String.format(Locale.ENGLISH,
+            "Results differ%n  expected: %s%n       got: %s%n", expectedDigest, actualDigest));
+        if (expectedDigest.matches(actualDigest, false)) {
+            describeOrder(message, expected, actual, expectedPass, actualPass);
+        } else {
+            describeRows(message, expected, actual, expectedPass, actualPass);
+        }
+        throw new AssertionError(message.toString());
+    }
+
+    /**
+     * Assert that all nodes of a cluster return the same rows for a statement, e.g. to detect differences
+     * between replicas.
+     *
+     * @param orderSensitive whether the order of the rows must match, too
+     */
+    public static void assertSameResultOnAllNodes(CrateTestCluster cluster,
+                                                  boolean orderSensitive,
+                                                  String statement,
+                                                  Object... args) throws IOException {
+        List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+        CrateTestServer first = servers.get(0);
+        for (CrateTestServer server : servers.subList(1, servers.size())) {
+            try {
+                assertSameResult(() -> first.stream(statement, args), () -> server.stream(statement, args), orderSensitive);
+            } catch (AssertionError e) {
+                throw new AssertionError(String.format(Locale.ENGLISH, "Node %s differs from node %s: %s",
+                    NodeResourceSampler.nodeKey(server), NodeResourceSampler.nodeKey(first), e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Find the rows whose hashes differ between both results. Only rows falling into a bucket whose
+     * sum of row hashes differs in the first pass are kept, up to {@link #MAX_CANDIDATES}.
+     */
+    private static void describeRows(StringBuilder message,
+                                     Query expected,
+                                     Query actual,
+                                     Pass expectedPass,
+                                     Pass actualPass) throws IOException {
+        boolean[] differing = new boolean[1 << BUCKET_BITS];
+        for (int i = 0; i < differing.length; i++) {
+            differing[i] = expectedPass.bucketCounts[i] != actualPass.bucketCounts[i]
+                           || expectedPass.bucketSums[i] != actualPass.bucketSums[i];
+        }
+        Map<Long, Candidate> candidates = new LinkedHashMap<>();
+        if (!collect(expected, differing, candidates, 1) || !collect(actual, differing, candidates, -1)) {
+            message.append(String.format(Locale.ENGLISH,
+                "More than %d rows differ, not listing them", MAX_CANDIDATES));
+            return;
+        }
+        List<Candidate> missing = new ArrayList<>();
+        List<Candidate> unexpected = new ArrayList<>();
+        long missingCount = 0;
+        long unexpectedCount = 0;
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.count > 0) {
+                missingCount += candidate.count;
+                missing.add(candidate);
+            } else if (candidate.count < 0) {
+                unexpectedCount -= candidate.count;
+                unexpected.add(candidate);
+            }
+        }
+        if (missingCount == 0 && unexpectedCount == 0) {
+            message.append("No differing rows found in a second pass, the results are not deterministic");
+            return;
+        }
+        appendRows(message, "missing", missingCount, missing);
+        appendRows(message, "unexpected", unexpectedCount, unexpected);
+    }
+
+    private static boolean collect(Query query,
+                                   boolean[] differing,
+                                   Map<Long, Candidate> candidates,
+                                   int sign) throws IOException {
+        ResultDigest.Builder builder = new ResultDigest.Builder();
+        try (ResultStream rows = query.open()) {
+            while (rows.hasNext()) {
+                Object[] values = rows.next().values();
+                long hash = builder.hash(values);
+                if (!differing[bucket(hash)]) {
+                    continue;
+                }
+                Candidate candidate = candidates.get(hash);
+                if (candidate == null) {
+                    if (candidates.size() >= MAX_CANDIDATES) {
+                        return false;
+                    }
+                    candidate = new Candidate(values);
+                    candidates.put(hash, candidate);
+                }
+                candidate.count += sign;
+            }
+        }
+        return true;
+    }
+
+    private static void appendRows(StringBuilder message, String kind, long count, List<Candidate> rows) {
+        if (count == 0) {
+            return;
+        }
+        message.append(String.format(Locale.ENGLISH, "%d rows %s", count, kind));
+        if (rows.size() > MAX_REPORTED_ROWS) {
+            message.append(String.format(Locale.ENGLISH, ", first %d", MAX_REPORTED_ROWS));
+        }
+        message.append(':').append(System.lineSeparator());
+        for (Candidate candidate : rows.subList(0, Math.min(rows.size(), MAX_REPORTED_ROWS))) {
+            message.append("  ").append(Arrays.deepToString(candidate.values));
+            if (Math.abs(candidate.count) > 1) {
+                message.append(" x").append(Math.abs(candidate.count));
+            }
+            message.append(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Both results contain the same rows in a different order. Find the first chunk whose checkpoint differs
+     * and compare its rows.
+     */
+    private static void describeOrder(StringBuilder message,
+                                      Query expected,
+                                      Query actual,
+                                      Pass expectedPass,
+                                      Pass actualPass) throws IOException {
+        int chunk = 0;
+        while (chunk < expectedPass.chunks.length && expectedPass.chunks[chunk] == actualPass.chunks[chunk]) {
+            chunk++;
+        }
+        List<Object[]> expectedRows = readChunk(expected, chunk);
+        List<Object[]> actualRows = readChunk(actual, chunk);
+        ResultDigest.Builder builder = new ResultDigest.Builder();
+        for (int i = 0; i < Math.min(expectedRows.size(), actualRows.size()); i++) {
+            Object[] expectedRow = expectedRows.get(i);
+            Object[] actualRow = actualRows.get(i);
+            if (builder.hash(expectedRow) != builder.hash(actualRow)) {
+                message.append(String.format(Locale.ENGLISH,
+                    "Same rows in a different order, first difference at row %d%n  expected: %s%n       got: %s%n",
+                    (long) chunk * CHUNK_SIZE + i, Arrays.deepToString(expectedRow), Arrays.deepToString(actualRow)));
+                return;
+            }
+        }
+        message.append("No differing row found in a second pass, the results are not deterministic");
+    }
+
+    private static List<Object[]> readChunk(Query query, int chunk) throws IOException {
+        List<Object[]> result = new ArrayList<>(CHUNK_SIZE);
+        long start = (long) chunk * CHUNK_SIZE;
+        long row = 0;
+        try (ResultStream rows = query.open()) {
+            while (rows.hasNext() && row < start + CHUNK_SIZE) {
+                Object[] values = rows.next().values();
+                if (row >= start) {
+                    result.add(values);
+                }
+                row++;
+            }
+        }
+        return result;
+    }
+
+    private static int bucket(long hash) {
+        return (int) (hash >>> (Long.SIZE - BUCKET_BITS));
+    }
+
+    private static final class Candidate {
+
+        private final Object[] values;
+        private long count;
+
+        private Candidate(Object[] values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * The first pass over a result: its digest, the count and sum of the row hashes per bucket and
+     * an order sensitive checkpoint per chunk of {@link #CHUNK_SIZE} rows.
+     */
+    private static final class Pass {
+
+        private final long[] bucketCounts = new long[1 << BUCKET_BITS];
+        private final long[] bucketSums = new long[1 << BUCKET_BITS];
+        private long[] chunks = new long[16];
+        private ResultDigest digest;
+
+        static Pass run(Query query) throws IOException {
+            Pass pass = new Pass();
+            ResultDigest.Builder builder = new ResultDigest.Builder();
+            long chunk = 0;
+            long row = 0;
+            try (ResultStream rows = query.open()) {
+                while (rows.hasNext()) {
+                    long hash = builder.add(rows.next().values());
+                    int bucket = bucket(hash);
+                    pass.bucketCounts[bucket]++;
+                    pass.bucketSums[bucket] += hash;
+                    chunk = XxHash64.combine(chunk, hash);
+                    row++;
+                    if (row % CHUNK_SIZE == 0) {
+                        pass.addChunk((int) (row / CHUNK_SIZE - 1), chunk);
+                        chunk = 0;
+                    }
+                }
+            }
+            if (row % CHUNK_SIZE != 0) {
+                pass.addChunk((int) (row / CHUNK_SIZE), chunk);
+            }
+            pass.chunks = Arrays.copyOf(pass.chunks, (int) ((row + CHUNK_SIZE - 1) / CHUNK_SIZE));
+            pass.digest = builder.build();
+            return pass;
+        }
+
+        private void addChunk(int index, long checkpoint) {
+            if (index >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            chunks[index] = checkpoint;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A digest of a result which is computed while streaming its rows, so that results of any size can be
+ * compared in constant memory. Each row is hashed with xxHash64 over a canonical encoding of its values,
+ * and the row hashes are combined into
+ * <ul>
+ *     <li>an ordered digest, which changes if the order of the rows changes, and</li>
+ *     <li>an unordered digest, the sum of the row hashes, which only depends on the multiset of rows.</li>
+ * </ul>
+ * The canonical encoding makes results read via HTTP and via PostgreSQL wire protocol comparable as far as
+ * the values have the same Java representation: all integral numbers are encoded alike, as are floating
+ * point numbers without a fraction, decimals are encoded like doubles if they have the same value,
+ * and the entries of objects are sorted by key.
+ * <p>
+ * The {@link #toString()} representation can be stored as a golden digest and read with {@link #parse(String)},
+ * see {@link ResultAssertions}.
+ */
+public final class ResultDigest {
+
+    private static final Pattern FORMAT = Pattern.compile("rows=(\\d+) ordered=([0-9a-f]{16}) unordered=([0-9a-f]{16})");
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INTEGRAL = 3;
+    private static final byte FLOATING = 4;
+    private static final byte STRING = 5;
+    private static final byte ARRAY = 6;
+    private static final byte OBJECT = 7;
+    private static final byte DECIMAL = 8;
+
+    private final long rowCount;
+    private final long ordered;
+    private final long unordered;
+
+    ResultDigest(long rowCount, long ordered, long unordered) {
+        this.rowCount = rowCount;
+        this.ordered = ordered;
+        this.unordered = unordered;
+    }
+
+    /**
+     * Read all remaining rows of the stream and close it.
+     */
+    public static ResultDigest of(ResultStream rows) throws IOException {
+        try (rows) {
+            Builder builder = new Builder();
+            while (rows.hasNext()) {
+                builder.add(rows.next().values());
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Compute the digest of rows which are already available, e.g. the rows of an expected result.
+     */
+    public static ResultDigest of(Iterator<Object[]> rows) {
+        Builder builder = new Builder();
+        while (rows.hasNext()) {
+            builder.add(rows.next());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parse a digest in the format of {@link #toString()}.
+     *
+     * @throws IllegalArgumentException if the value is not a digest
+     */
+    public static ResultDigest parse(String digest) {
+        Matcher matcher = FORMAT.matcher(digest.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a result digest: " + digest);
+        }
+        return new ResultDigest(
+            Long.parseLong(matcher.group(1)),
+            Long.parseUnsignedLong(matcher.group(2), 16),
+            Long.parseUnsignedLong(matcher.group(3), 16));
+    }
+
+    /**
+     * @return the hash of a single row, the unit the ordered and unordered digests are combined of
+     */
+    public static long hashRow(Object[] values) {
+        return new Builder().hash(values);
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    public long ordered() {
+        return ordered;
+    }
+
+    public long unordered() {
+        return unordered;
+    }
+
+    /**
+     * @param orderSensitive whether the order of the rows must match, too
+     * @return true if both digests describe the same rows
+     */
+    public boolean matches(ResultDigest other, boolean orderSensitive) {
+        return rowCount == other.rowCount
+               && unordered == other.unordered
+               && (!orderSensitive || ordered == other.ordered);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ResultDigest)) {
+            return false;
+        }
+        ResultDigest that = (ResultDigest) o;
+        return rowCount == that.rowCount && ordered == that.ordered && unordered == that.unordered;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rowCount, ordered, unordered);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "rows=%d ordered=%016x unordered=%016x", rowCount, ordered, unordered);
+    }
+
+    /**
+     * Computes a digest row by row. Not thread safe.
+     */
+    public static final class Builder {
+
+        private byte[] buffer = new byte[256];
+        private int length;
+        private long rowCount;
+        private long ordered;
+        private long unordered;
+
+        /**
+         * Add a row to the digest.
+         *
+         * @return the hash of the row, see {@link #hashRow(Object[])}
+         */
+        public long add(Object[] values) {
+            long hash = hash(values);
+            rowCount++;
+            ordered = XxHash64.combine(ordered, hash);
+            unordered += hash;
+            return hash;
+        }
+
+        public ResultDigest build() {
+            return new ResultDigest(rowCount, XxHash64.avalanche(ordered ^ rowCount), unordered);
+        }
+
+        long hash(Object[] values) {
+            length = 0;
+            writeInt(values.length);
+            for (Object value : values) {
+                write(value);
+            }
+            return XxHash64.hash(buffer, 0, length, 0);
+        }
+
+        private void write(Object value) {
+            if (value == null) {
+                writeByte(NULL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writeByte(INTEGRAL);
+                writeLong(((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                writeFloating(((Number) value).doubleValue());
+            } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+                writeByte(INTEGRAL);
+                writeLong(((BigInteger) value).longValue());
+            } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal((BigInteger) value);
+                BigDecimal stripped = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+                double approximation = stripped.doubleValue();
+                if (stripped.scale() <= 0 && stripped.precision() - stripped.scale() < 19) {
+                    writeByte(INTEGRAL);
+                    writeLong(stripped.longValueExact());
+                } else if (Double.isFinite(approximation) && BigDecimal.valueOf(approximation).compareTo(stripped) == 0) {
+                    // the same value as a double read via HTTP
+                    writeFloating(approximation);
+                } else {
+                    writeByte(DECIMAL);
+                    writeString(stripped.toPlainString());
+                }
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                writeByte(ARRAY);
+                writeInt(collection.size());
+                for (Object element : collection) {
+                    write(element);
+                }
+            } else if (value instanceof Object[]) {
+                write(Arrays.asList((Object[]) value));
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                TreeMap<String, Object> sorted = new TreeMap<>();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+                writeByte(OBJECT);
+                writeInt(sorted.size());
+                for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                    writeString(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else {
+                writeByte(STRING);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeFloating(double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+                // 3.0 and 3 are the same value, e.g. if a double column is read via HTTP
+                writeByte(INTEGRAL);
+                writeLong((long) value);
+            } else {
+                writeByte(FLOATING);
+                writeLong(Double.doubleToLongBits(value));
+            }
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[length++] = value;
+        }
+
+        private void writeInt(int value) {
+            ensureCapacity(4);
+            for (int i = 0; i < 4; i++) {
+                buffer[length++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        private void writeLong(long value) {
+            ensureCapacity(8);
+            for (int i = 0; i < 8; i++) {
+                buffer[length++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+            }
+        }
+    }
+}
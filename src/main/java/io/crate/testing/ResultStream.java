@@ -0,0 +1,253 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Rows of a result which are read one at a time instead of being buffered, so that large results
+ * can be processed in constant memory. Created by {@link CrateTestServer#stream(String, Object...)}
+ * and {@link PsqlConnection#stream(int, String, Object...)}.
+ * <p>
+ * The stream must be closed, also if not all rows were read. Errors while reading rows are
+ * thrown as {@link UncheckedIOException}.
+ * <pre>
+ * try (ResultStream rows = server.stream("select id, name from t")) {
+ *     while (rows.hasNext()) {
+ *         ResultStream.Row row = rows.next();
+ *         long id = row.getLong(0);
+ *         String name = row.getString("name");
+ *     }
+ * }
+ * </pre>
+ */
+public class ResultStream implements Iterator<ResultStream.Row>, AutoCloseable {
+
+    /**
+     * Produces the rows of a {@link ResultStream}.
+     */
+    interface Source extends Closeable {
+
+        /**
+         * @return the column names, possibly only known once the first row was read
+         */
+        List<String> columns();
+
+        /**
+         * @return the next row, or null if there are no more rows
+         */
+        Object[] nextRow() throws IOException;
+
+        /**
+         * @return the row count reported by the server, or -1 if it is not known (yet)
+         */
+        long rowCount();
+    }
+
+    private final Source source;
+    private Map<String, Integer> columnIndex;
+    private Object[] next;
+    private boolean exhausted;
+    private long rows;
+    private boolean closed;
+
+    ResultStream(Source source) {
+        this.source = source;
+    }
+
+    public List<String> columns() {
+        return Collections.unmodifiableList(source.columns());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        if (closed) {
+            throw new IllegalStateException("result stream is closed");
+        }
+        try {
+            next = source.nextRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (next == null) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object[] values = next;
+        next = null;
+        rows++;
+        return new Row(columnIndex(), values);
+    }
+
+    private Map<String, Integer> columnIndex() {
+        if (columnIndex == null) {
+            List<String> columns = source.columns();
+            Map<String, Integer> index = new HashMap<>(columns.size() * 2);
+            for (int i = 0; i < columns.size(); i++) {
+                index.putIfAbsent(columns.get(i), i);
+            }
+            columnIndex = index;
+        }
+        return columnIndex;
+    }
+
+    /**
+     * @return the row count reported by the server once all rows were read, otherwise the number of rows read so far
+     */
+    public long rowCount() {
+        long rowCount = exhausted ? source.rowCount() : -1;
+        return rowCount < 0 ? rows : rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            source.close();
+        }
+    }
+
+    /**
+     * A row of a {@link ResultStream}. Numbers are {@link Long} or {@link Double}, arrays {@link List}
+     * and objects {@link Map} values, as in {@link SqlResult}.
+     */
+    public static final class Row {
+
+        private final Map<String, Integer> columnIndex;
+        private final Object[] values;
+
+        private Row(Map<String, Integer> columnIndex, Object[] values) {
+            this.columnIndex = columnIndex;
+            this.values = values;
+        }
+
+        public Object[] values() {
+            return values;
+        }
+
+        public Object get(int index) {
+            return values[index];
+        }
+
+        public Object get(String column) {
+            Integer index = columnIndex.get(column);
+            if (index == null) {
+                throw new IllegalArgumentException("unknown column " + column);
+            }
+            return values[index];
+        }
+
+        public boolean isNull(int index) {
+            return values[index] == null;
+        }
+
+        public boolean isNull(String column) {
+            return get(column) == null;
+        }
+
+        /**
+         * @return the value as string, or null
+         */
+        public String getString(int index) {
+            return toString(values[index]);
+        }
+
+        public String getString(String column) {
+            return toString(get(column));
+        }
+
+        /**
+         * @throws NullPointerException if the value is null
+         * @throws ClassCastException if the value is not a number
+         */
+        public long getLong(int index) {
+            return ((Number) values[index]).longValue();
+        }
+
+        public long getLong(String column) {
+            return ((Number) get(column)).longValue();
+        }
+
+        /**
+         * @throws NullPointerException if the value is null
+         * @throws ClassCastException if the value is not a number
+         */
+        public int getInt(int index) {
+            return ((Number) values[index]).intValue();
+        }
+
+        public int getInt(String column) {
+            return ((Number) get(column)).intValue();
+        }
+
+        /**
+         * @throws NullPointerException if the value is null
+         * @throws ClassCastException if the value is not a number
+         */
+        public double getDouble(int index) {
+            return ((Number) values[index]).doubleValue();
+        }
+
+        public double getDouble(String column) {
+            return ((Number) get(column)).doubleValue();
+        }
+
+        /**
+         * @throws NullPointerException if the value is null
+         * @throws ClassCastException if the value is not a boolean
+         */
+        public boolean getBoolean(int index) {
+            return (Boolean) values[index];
+        }
+
+        public boolean getBoolean(String column) {
+            return (Boolean) get(column);
+        }
+
+        private static String toString(Object value) {
+            return value == null ? null : value.toString();
+        }
+    }
+}
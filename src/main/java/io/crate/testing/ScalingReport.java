@@ -0,0 +1,87 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.Locale;
+
+/**
+ * Outcome of {@link CrateTestCluster#addNodes(int)} and {@link CrateTestCluster#removeNodes(int)}.
+ */
+public class ScalingReport {
+
+    private final int nodesBefore;
+    private final int nodesAfter;
+    private final long elapsedMillis;
+    private final int maxRelocatingShards;
+    private final long movedBytes;
+
+    ScalingReport(int nodesBefore, int nodesAfter, long elapsedMillis, int maxRelocatingShards, long movedBytes) {
+        this.nodesBefore = nodesBefore;
+        this.nodesAfter = nodesAfter;
+        this.elapsedMillis = elapsedMillis;
+        this.maxRelocatingShards = maxRelocatingShards;
+        this.movedBytes = movedBytes;
+    }
+
+    public int nodesBefore() {
+        return nodesBefore;
+    }
+
+    public int nodesAfter() {
+        return nodesAfter;
+    }
+
+    /**
+     * @return time from starting or decommissioning the nodes until all shards were started
+     */
+    public long elapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the highest number of concurrently relocating shards which was observed
+     */
+    public int maxRelocatingShards() {
+        return maxRelocatingShards;
+    }
+
+    /**
+     * @return size of the shards on the added nodes afterwards, or on the removed nodes before
+     */
+    public long movedBytes() {
+        return movedBytes;
+    }
+
+    /**
+     * @return moved bytes per second
+     */
+    public double bytesPerSecond() {
+        return elapsedMillis == 0 ? 0 : movedBytes * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d -> %d nodes in %dms, moved %d bytes (%.0f B/s), max %d relocating shards",
+            nodesBefore, nodesAfter, elapsedMillis, movedBytes, bytesPerSecond(), maxRelocatingShards);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The result of a SQL statement.
+ * <p>
+ * Values are converted from their JSON representation: strings to {@link String},
+ * numbers to {@link Long} or {@link Double}, booleans to {@link Boolean},
+ * arrays to {@link List} and objects to {@link java.util.Map}.
+ */
+public class SqlResult {
+
+    private final List<String> columns;
+    private final List<Object[]> rows;
+    private final long rowCount;
+    private final double duration;
+
+    SqlResult(List<String> columns, List<Object[]> rows, long rowCount, double duration) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.rows = Collections.unmodifiableList(rows);
+        this.rowCount = rowCount;
+        this.duration = duration;
+    }
+
+    public List<String> columns() {
+        return columns;
+    }
+
+    public List<Object[]> rows() {
+        return rows;
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the server side execution time in milliseconds, as reported by CrateDB
+     */
+    public double duration() {
+        return duration;
+    }
+
+    /**
+     * @return the value of the given column in the given row
+     */
+    public Object value(int row, String column) {
+        int idx = columns.indexOf(column);
+        if (idx < 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "unknown column: %s", column));
+        }
+        return rows.get(row)[idx];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SqlResult{columns=%s, rowCount=%d, duration=%s}", columns, rowCount, duration);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import io.crate.testing.download.DownloadSource;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ClusterLifecycleListener} which aggregates the time spent in each
+ * startup and shutdown phase of all clusters it is registered with.
+ * <p>
+ * Share one instance between the clusters of a test suite and print
+ * {@link #report()} once the suite is done, e.g. in an {@code @AfterClass} method.
+ */
+public class StartupTimingReport implements ClusterLifecycleListener {
+
+    public static final String DOWNLOAD = "download";
+    public static final String EXTRACT = "extract";
+    public static final String SPAWN = "spawn";
+    public static final String PORT_BIND = "port bind";
+    public static final String NODE_READY = "node ready";
+    public static final String CLUSTER_READY = "cluster ready";
+    public static final String SHUTDOWN = "shutdown";
+    public static final String DELETE_DIR = "delete dir";
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private long downloadedBytes;
+    private long extractedEntries;
+
+    public StartupTimingReport() {
+        for (String name : new String[]{DOWNLOAD, EXTRACT, SPAWN, PORT_BIND, NODE_READY,
+            CLUSTER_READY, SHUTDOWN, DELETE_DIR}) {
+            phases.put(name, new Phase());
+        }
+    }
+
+    @Override
+    public synchronized void downloadFinished(DownloadSource source, long bytes, long durationNanos) {
+        downloadedBytes += bytes;
+        record(DOWNLOAD, durationNanos);
+    }
+
+    @Override
+    public synchronized void extractFinished(Path destination, int entries, long durationNanos) {
+        extractedEntries += entries;
+        record(EXTRACT, durationNanos);
+    }
+
+    @Override
+    public void nodeSpawned(CrateTestServer server, long durationNanos) {
+        record(SPAWN, durationNanos);
+    }
+
+    @Override
+    public void nodePortBound(CrateTestServer server, long durationNanos) {
+        record(PORT_BIND, durationNanos);
+    }
+
+    @Override
+    public void nodeReady(CrateTestServer server, long durationNanos) {
+        record(NODE_READY, durationNanos);
+    }
+
+    @Override
+    public void clusterReady(String clusterName, int numberOfNodes, long durationNanos) {
+        record(CLUSTER_READY, durationNanos);
+    }
+
+    @Override
+    public void nodeStopped(CrateTestServer server, long durationNanos) {
+        record(SHUTDOWN, durationNanos);
+    }
+
+    @Override
+    public void workingDirDeleted(Path workingDir, long durationNanos) {
+        record(DELETE_DIR, durationNanos);
+    }
+
+    private synchronized void record(String phase, long durationNanos) {
+        phases.get(phase).add(durationNanos);
+    }
+
+    /**
+     * @return how often the given phase was recorded
+     */
+    public synchronized long count(String phase) {
+        return phase(phase).count;
+    }
+
+    /**
+     * @return the accumulated time spent in the given phase, in milliseconds
+     */
+    public synchronized long totalMillis(String phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phase(phase).totalNanos);
+    }
+
+    /**
+     * @return the longest single occurrence of the given phase, in milliseconds
+     */
+    public synchronized long maxMillis(String phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phase(phase).maxNanos);
+    }
+
+    public synchronized long downloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public synchronized long extractedEntries() {
+        return extractedEntries;
+    }
+
+    private Phase phase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "unknown phase: %s", name));
+        }
+        return phase;
+    }
+
+    /**
+     * @return a human readable table with count, total, average and max time per phase
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-14s %6s %10s %10s %10s%n", "phase", "count", "total ms", "avg ms", "max ms"));
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            long avgNanos = phase.count == 0 ? 0 : phase.totalNanos / phase.count;
+            sb.append(String.format(Locale.ENGLISH, "%-14s %6d %10d %10d %10d%n",
+                entry.getKey(),
+                phase.count,
+                TimeUnit.NANOSECONDS.toMillis(phase.totalNanos),
+                TimeUnit.NANOSECONDS.toMillis(avgNanos),
+                TimeUnit.NANOSECONDS.toMillis(phase.maxNanos)));
+        }
+        sb.append(String.format(Locale.ENGLISH, "downloaded %d bytes, extracted %d entries",
+            downloadedBytes, extractedEntries));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return report();
+    }
+
+    private static class Phase {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A schema owned by a single test, created by {@link TestSchemas#create(String)}.
+ */
+public class TestSchema implements AutoCloseable {
+
+    private final TestSchemas owner;
+    private final CrateTestCluster cluster;
+    private final String name;
+    private final List<String> searchPath;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    TestSchema(TestSchemas owner, CrateTestCluster cluster, String name, List<String> searchPath) {
+        this.owner = owner;
+        this.cluster = cluster;
+        this.name = name;
+        this.searchPath = Collections.unmodifiableList(searchPath);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the test schema followed by the schemas configured with {@link TestSchemas#searchPath(String...)}
+     */
+    public List<String> searchPath() {
+        return searchPath;
+    }
+
+    /**
+     * @return the quoted, fully qualified name of the given table within this schema
+     */
+    public String table(String table) {
+        return String.format(Locale.ENGLISH, "\"%s\".\"%s\"", name, table);
+    }
+
+    /**
+     * Execute a statement on a random node, resolving unqualified table names against this schema.
+     * <p>
+     * The HTTP endpoint only supports a single default schema, so the remaining
+     * entries of the {@link #searchPath()} need to be referenced by their qualified name
+     * or the statement must be executed using {@link #psqlConnection()}.
+     */
+    public SqlResult execute(String statement, Object... args) throws IOException {
+        if (closed.get()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "test schema %s is closed", name));
+        }
+        CrateTestServer server = cluster.randomServer();
+        return server.executeInSchema(name, statement, args);
+    }
+
+    /**
+     * Open a connection to a random node with the {@code search_path} set to {@link #searchPath()}.
+     */
+    public PsqlConnection psqlConnection() throws IOException {
+        PsqlConnection connection = cluster.randomServer().psqlConnection();
+        try {
+            connection.query("SET search_path TO " + String.join(", ", searchPath));
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Schedule this schema to be dropped in the background.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            owner.scheduleDrop(name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out uniquely named schemas, so that many tests can share one running
+ * {@link CrateTestCluster} without seeing each others tables.
+ * <p>
+ * Closing a {@link TestSchema} schedules its tables and views to be dropped in
+ * the background. Pending schemas are dropped in bulk and every object still
+ * present at that point is reported as leftover. Close this instance once all
+ * tests are done, e.g. in an {@code @AfterClass} method, to wait for the
+ * outstanding drops; objects which could not be dropped are reported then.
+ * <p>
+ * Example:
+ * <pre>
+ * static final TestSchemas SCHEMAS = new TestSchemas(CLUSTER);
+ *
+ * TestSchema schema;
+ *
+ * &#64;Before
+ * public void createSchema() {
+ *     schema = SCHEMAS.create(testName.getMethodName());
+ * }
+ *
+ * &#64;After
+ * public void dropSchema() {
+ *     schema.close();
+ * }
+ * </pre>
+ */
+public class TestSchemas implements AutoCloseable {
+
+    static final int MAX_NAME_LENGTH = 64;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final CrateTestCluster cluster;
+    private final String prefix;
+    private final List<String> searchPath = new CopyOnWriteArrayList<>();
+    private final List<String> pendingDrops = new ArrayList<>();
+    private final List<String> leftovers = new CopyOnWriteArrayList<>();
+    private final List<String> failedDrops = new CopyOnWriteArrayList<>();
+    private final ExecutorService dropExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "crate-testing-schema-drop");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TestSchemas(CrateTestCluster cluster) {
+        this(cluster, "t");
+    }
+
+    /**
+     * @param prefix prefix of all schema names, must be a valid unquoted identifier
+     */
+    public TestSchemas(CrateTestCluster cluster, String prefix) {
+        this.cluster = cluster;
+        this.prefix = prefix + Long.toString(ProcessHandle.current().pid(), 36);
+    }
+
+    /**
+     * Set schemas which follow the test schema in the search path of each {@link TestSchema},
+     * e.g. a schema holding read-only fixtures which are shared by all tests.
+     */
+    public TestSchemas searchPath(String... schemas) {
+        searchPath.clear();
+        searchPath.addAll(Arrays.asList(schemas));
+        return this;
+    }
+
+    /**
+     * Create a new schema. CrateDB creates schemas implicitly with their first table,
+     * so this does not issue any statement.
+     *
+     * @param testName used as part of the schema name to ease debugging
+     */
+    public TestSchema create(String testName) {
+        String name = schemaName(prefix, SEQUENCE.incrementAndGet(), testName);
+        List<String> path = new ArrayList<>();
+        path.add(name);
+        path.addAll(searchPath);
+        return new TestSchema(this, cluster, name, path);
+    }
+
+    static String schemaName(String prefix, long sequence, String testName) {
+        String sanitized = testName == null
+            ? ""
+            : testName.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9_]+", "_");
+        String name = String.format(Locale.ENGLISH, "%s_%d_%s", prefix, sequence, sanitized);
+        if (name.endsWith("_")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name;
+    }
+
+    void scheduleDrop(String schema) {
+        synchronized (pendingDrops) {
+            pendingDrops.add(schema);
+        }
+        dropExecutor.execute(this::dropPending);
+    }
+
+    private void dropPending() {
+        List<String> schemas;
+        synchronized (pendingDrops) {
+            if (pendingDrops.isEmpty()) {
+                return;
+            }
+            schemas = new ArrayList<>(pendingDrops);
+            pendingDrops.clear();
+        }
+        SqlResult result;
+        try {
+            result = cluster.execute(
+                "select table_schema, table_name, table_type from information_schema.tables " +
+                "where table_schema = ANY(?) order by table_type desc",
+                schemas);
+        } catch (IOException e) {
+            Utils.log("Error while listing the objects of test schemas %s: %s", schemas, e);
+            failedDrops.add(String.format(Locale.ENGLISH, "schemas %s: %s", schemas, e.getMessage()));
+            return;
+        }
+        // views sort before base tables, so they are dropped before the tables they depend on
+        int dropped = 0;
+        for (Object[] row : result.rows()) {
+            String leftover = String.format(Locale.ENGLISH, "\"%s\".\"%s\"", row[0], row[1]);
+            leftovers.add(leftover);
+            String statement = "VIEW".equals(row[2]) ? "DROP VIEW IF EXISTS " : "DROP TABLE IF EXISTS ";
+            try {
+                cluster.execute(statement + leftover);
+                dropped++;
+            } catch (IOException e) {
+                Utils.log("Error while dropping %s: %s", leftover, e);
+                failedDrops.add(String.format(Locale.ENGLISH, "%s: %s", leftover, e.getMessage()));
+            }
+        }
+        if (dropped > 0) {
+            Utils.log("Dropped %d leftover tables and views of test schemas %s", dropped, schemas);
+        }
+    }
+
+    /**
+     * @return the fully qualified names of all tables and views which existed when their
+     * schema was dropped
+     */
+    public List<String> leftovers() {
+        return Collections.unmodifiableList(leftovers);
+    }
+
+    /**
+     * Wait until all scheduled schemas are dropped.
+     *
+     * @throws IllegalStateException if tables, views or whole schemas could not be dropped since the last call
+     */
+    public void awaitDrops() throws InterruptedException {
+        try {
+            dropExecutor.submit(this::dropPending).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Dropping test schemas failed", e.getCause());
+        }
+        if (!failedDrops.isEmpty()) {
+            List<String> failed = new ArrayList<>(failedDrops);
+            failedDrops.removeAll(failed);
+            throw new IllegalStateException(String.format(Locale.ENGLISH,
+                "Could not drop %d leftover objects of test schemas: %s", failed.size(), failed));
+        }
+    }
+
+    /**
+     * Drop all scheduled schemas and stop the background thread.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            awaitDrops();
+        } finally {
+            dropExecutor.shutdown();
+            dropExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -36,7 +36,9 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
@@ -60,10 +62,22 @@ public class Utils {
     }
 
     static int randomAvailablePort(int from, int to) {
+        return randomAvailablePort(from, to, Collections.emptySet());
+    }
+
+    /**
+     * @param excluded ports which are free but must not be returned, e.g. because they
+     *                 are already assigned to another node which has not bound them yet
+     */
+    static int randomAvailablePort(int from, int to, Set<Integer> excluded) {
         int repeat = 5;
         while (repeat > 0)
             try {
                 int port = ThreadLocalRandom.current().nextInt(from, to + 1);
+                if (excluded.contains(port)) {
+                    repeat--;
+                    continue;
+                }
                 ServerSocket socket = new ServerSocket(port);
                 socket.close();
                 return port;
@@ -128,7 +142,10 @@ public class Utils {
         return null;
     }
 
-    static void uncompressTarGZ(File tarFile, File dest) throws IOException {
+    /**
+     * @return the number of extracted entries
+     */
+    static int uncompressTarGZ(File tarFile, File dest) throws IOException {
         TarArchiveInputStream tarIn = new TarArchiveInputStream(
                 new GzipCompressorInputStream(
                         new BufferedInputStream(
@@ -139,6 +156,7 @@ public class Utils {
                 )
         );
 
+        int entries = 0;
         TarArchiveEntry tarEntry = tarIn.getNextTarEntry();
         // tarIn is a TarArchiveInputStream
         while (tarEntry != null) {
@@ -165,9 +183,11 @@ public class Utils {
                     destFile.setExecutable(true);
                 }
             }
+            entries++;
             tarEntry = tarIn.getNextTarEntry();
         }
         tarIn.close();
+        return entries;
     }
 
 }
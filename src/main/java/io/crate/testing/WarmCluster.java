@@ -0,0 +1,335 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of a cluster which keeps running after the JVM exits, see {@link CrateTestCluster.Builder#keepWarm}.
+ * It is stored as JSON in {@code crate.testing/warm/<config hash>.json} and lets the next JVM with the
+ * same cluster configuration reattach to the running nodes.
+ * <p>
+ * While a {@link CrateTestCluster} uses the nodes it holds a lease, recorded as the id and the pid of its JVM.
+ * A leased cluster is neither attached to by another cluster nor stopped. Clusters which were not used within
+ * their time to live after the lease was released, or whose lease holder died, are stopped by
+ * {@link #reapExpired()} and by a detached reaper process, see {@link #main(String[])}.
+ */
+final class WarmCluster {
+
+    // not derived from CrateTestCluster, which cannot be loaded by the reaper process
+    static final Path WARM_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "crate.testing", "warm");
+    private static final Gson GSON = new Gson();
+    private static final long STOP_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long LEASE_CHECK_INTERVAL_MILLIS = 10 * 1000;
+
+    static class Node {
+        long pid;
+        long startedAtMillis;
+        int httpPort;
+        int transportPort;
+        int psqlPort;
+    }
+
+    String configHash;
+    String workingDir;
+    long ttlMillis;
+    long lastUsedMillis;
+    long reaperPid;
+    String leaseId;
+    long leasePid;
+    long leaseStartedAtMillis;
+    List<Node> nodes = new ArrayList<>();
+
+    static Path stateFile(String configHash) {
+        return WARM_DIR.resolve(configHash + ".json");
+    }
+
+    /**
+     * Acquire the lock guarding the state of a cluster. It is held by at most one JVM and thread at a time.
+     */
+    static FileChannel lock(String configHash) throws IOException {
+        Files.createDirectories(WARM_DIR);
+        FileChannel channel = FileChannel.open(WARM_DIR.resolve(configHash + ".lock"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock ignored = channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @return the state of the cluster, or null if there is none
+     */
+    static WarmCluster read(String configHash) {
+        Path stateFile = stateFile(configHash);
+        if (Files.notExists(stateFile)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, WarmCluster.class);
+        } catch (IOException | JsonParseException e) {
+            Utils.log("Ignoring unreadable warm cluster state %s: %s", stateFile, e);
+            return null;
+        }
+    }
+
+    void write() throws IOException {
+        Path stateFile = stateFile(configHash);
+        Path tmpFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+        Files.move(tmpFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Node node(CrateTestServer server) {
+        Node node = new Node();
+        node.pid = server.pid().toCompletableFuture().getNow(-1L);
+        node.startedAtMillis = startedAtMillis(process(node.pid));
+        node.httpPort = server.httpPort();
+        node.transportPort = server.transportPort();
+        node.psqlPort = server.psqlPort();
+        return node;
+    }
+
+    private static long startedAtMillis(Optional<ProcessHandle> process) {
+        return process
+            .flatMap(p -> p.info().startInstant())
+            .map(Instant::toEpochMilli)
+            .orElse(0L);
+    }
+
+    /**
+     * @return the running process of a node; a different process which reuses the pid is ignored
+     */
+    private static Optional<ProcessHandle> process(Node node) {
+        return process(node.pid, node.startedAtMillis);
+    }
+
+    private static Optional<ProcessHandle> process(long pid, long startedAtMillis) {
+        return process(pid).filter(p -> startedAtMillis == 0 || p.info().startInstant()
+            .map(started -> started.toEpochMilli() == startedAtMillis)
+            .orElse(true));
+    }
+
+    private static Optional<ProcessHandle> process(long pid) {
+        return pid < 0 ? Optional.empty() : ProcessHandle.of(pid).filter(ProcessHandle::isAlive);
+    }
+
+    /**
+     * Record the given holder, which lives in this JVM, as the user of the nodes.
+     */
+    void lease(String holder) {
+        leaseId = holder;
+        lastUsedMillis = System.currentTimeMillis();
+        leasePid = ProcessHandle.current().pid();
+        leaseStartedAtMillis = startedAtMillis(Optional.of(ProcessHandle.current()));
+    }
+
+    /**
+     * Release the lease and start the time to live.
+     */
+    void release(long nowMillis) {
+        leaseId = null;
+        leasePid = 0;
+        leaseStartedAtMillis = 0;
+        lastUsedMillis = nowMillis;
+    }
+
+    /**
+     * @return true if the nodes are in use by a cluster whose JVM is still running
+     */
+    boolean isLeased() {
+        return leaseId != null && process(leasePid, leaseStartedAtMillis).isPresent();
+    }
+
+    boolean isExpired(long nowMillis) {
+        return !isLeased() && nowMillis - lastUsedMillis > ttlMillis;
+    }
+
+    /**
+     * @return true if the processes of all nodes are still running
+     */
+    boolean isAlive() {
+        for (Node node : nodes) {
+            if (process(node).isEmpty()) {
+                return false;
+            }
+        }
+        return !nodes.isEmpty();
+    }
+
+    /**
+     * Stop all nodes, delete the working directory and the state. Must be called with the lock held.
+     */
+    void destroy() throws IOException {
+        Utils.log("Stopping warm cluster %s", configHash);
+        List<ProcessHandle> processes = new ArrayList<>();
+        for (Node node : nodes) {
+            process(node).ifPresent(processes::add);
+        }
+        for (ProcessHandle process : processes) {
+            process.destroy();
+        }
+        for (ProcessHandle process : processes) {
+            try {
+                process.onExit().get(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                process.destroyForcibly();
+            }
+        }
+        if (workingDir != null && Files.exists(Paths.get(workingDir))) {
+            Utils.deletePath(Paths.get(workingDir));
+        }
+        Files.deleteIfExists(stateFile(configHash));
+    }
+
+    /**
+     * Stop all warm clusters which are not leased and were idle for longer than their time to live or whose
+     * nodes died.
+     *
+     * @return the number of stopped clusters
+     */
+    static int reapExpired() throws IOException {
+        return reap(false);
+    }
+
+    /**
+     * Stop all warm clusters of this machine which are not leased.
+     *
+     * @return the number of stopped clusters
+     */
+    static int reapAll() throws IOException {
+        return reap(true);
+    }
+
+    private static int reap(boolean all) throws IOException {
+        if (Files.notExists(WARM_DIR)) {
+            return 0;
+        }
+        List<String> configHashes = new ArrayList<>();
+        try (DirectoryStream<Path> stateFiles = Files.newDirectoryStream(WARM_DIR, "*.json")) {
+            for (Path stateFile : stateFiles) {
+                String fileName = stateFile.getFileName().toString();
+                configHashes.add(fileName.substring(0, fileName.length() - ".json".length()));
+            }
+        }
+        int reaped = 0;
+        for (String configHash : configHashes) {
+            try (FileChannel ignored = lock(configHash)) {
+                WarmCluster state = read(configHash);
+                if (state != null && !state.isLeased()
+                    && (all || state.isExpired(System.currentTimeMillis()) || !state.isAlive())) {
+                    state.destroy();
+                    reaped++;
+                }
+            }
+        }
+        return reaped;
+    }
+
+    /**
+     * Start a reaper process which outlives the JVM and stops the cluster once it was idle after the
+     * release of its lease for longer than its time to live, unless such a process is already running.
+     * Must be called with the lock held.
+     */
+    void spawnReaper() throws IOException {
+        if (process(reaperPid).isPresent()) {
+            return;
+        }
+        String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        // the reaper only needs this library and the dependencies of this class and Utils
+        String classPath = String.join(File.pathSeparator,
+            codeSource(WarmCluster.class), codeSource(Gson.class), codeSource(TarArchiveInputStream.class));
+        Process reaper = new ProcessBuilder(javaBin, "-Xmx32m",
+            "-Djava.io.tmpdir=" + System.getProperty("java.io.tmpdir"), "-cp", classPath, WarmCluster.class.getName(), configHash)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        reaperPid = reaper.pid();
+        write();
+    }
+
+    private static String codeSource(Class<?> clazz) throws IOException {
+        try {
+            return Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException | NullPointerException e) {
+            throw new IOException("Cannot determine location of " + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Entry point of the reaper process.
+     *
+     * @param args the config hash of the cluster to watch
+     */
+    public static void main(String[] args) throws Exception {
+        String configHash = args[0];
+        long ownPid = ProcessHandle.current().pid();
+        while (true) {
+            long sleepMillis;
+            try (FileChannel ignored = lock(configHash)) {
+                WarmCluster state = read(configHash);
+                if (state == null || state.reaperPid != ownPid) {
+                    // cluster was stopped or another reaper took over
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (state.isLeased()) {
+                    sleepMillis = LEASE_CHECK_INTERVAL_MILLIS;
+                } else if (state.isExpired(now) || !state.isAlive()) {
+                    state.destroy();
+                    return;
+                } else {
+                    sleepMillis = state.lastUsedMillis + state.ttlMillis - now + 1;
+                }
+            }
+            Thread.sleep(Math.max(sleepMillis, 1000));
+        }
+    }
+}
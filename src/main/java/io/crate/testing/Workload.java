@@ -0,0 +1,143 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * A weighted mix of statements which is executed by a {@link WorkloadDriver}.
+ * <pre>
+ * Workload workload = Workload.builder()
+ *     .statement("lookup", 9, "select * from t where id = ?", random -&gt; new Object[]{random.nextInt(1000)})
+ *     .statement("insert", 1, "insert into t (id) values (?)", random -&gt; new Object[]{random.nextInt()})
+ *     .build();
+ * </pre>
+ */
+public class Workload {
+
+    private final List<Statement> statements;
+    private final long totalWeight;
+
+    private Workload(List<Statement> statements) {
+        this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+        long total = 0;
+        for (Statement statement : statements) {
+            total += statement.weight;
+        }
+        this.totalWeight = total;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public List<Statement> statements() {
+        return statements;
+    }
+
+    /**
+     * @return a statement chosen with a probability proportional to its weight
+     */
+    Statement next(Random random) {
+        long pick = (long) (random.nextDouble() * totalWeight);
+        for (Statement statement : statements) {
+            pick -= statement.weight;
+            if (pick < 0) {
+                return statement;
+            }
+        }
+        return statements.get(statements.size() - 1);
+    }
+
+    public static class Statement {
+
+        private final String name;
+        private final int weight;
+        private final String sql;
+        private final Function<Random, Object[]> args;
+
+        private Statement(String name, int weight, String sql, Function<Random, Object[]> args) {
+            this.name = name;
+            this.weight = weight;
+            this.sql = sql;
+            this.args = args;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int weight() {
+            return weight;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        Object[] args(Random random) {
+            return args == null ? new Object[0] : args.apply(random);
+        }
+    }
+
+    public static class Builder {
+
+        private final List<Statement> statements = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder statement(String name, int weight, String sql) {
+            return statement(name, weight, sql, null);
+        }
+
+        /**
+         * @param name name of the statement in the {@link WorkloadResult}
+         * @param weight relative frequency of the statement within the mix
+         * @param args creates the parameters of each execution from the random of the worker
+         */
+        public Builder statement(String name, int weight, String sql, Function<Random, Object[]> args) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException(String.format("invalid weight: %d", weight));
+            }
+            for (Statement statement : statements) {
+                if (statement.name.equals(name)) {
+                    throw new IllegalArgumentException(String.format("duplicate statement name: %s", name));
+                }
+            }
+            statements.add(new Statement(name, weight, sql, args));
+            return this;
+        }
+
+        public Workload build() {
+            if (statements.isEmpty()) {
+                throw new IllegalArgumentException("A workload needs at least one statement");
+            }
+            return new Workload(statements);
+        }
+    }
+}
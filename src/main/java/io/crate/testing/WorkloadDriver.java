@@ -0,0 +1,192 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Workload} against all nodes of a {@link CrateTestCluster} using the HTTP endpoint.
+ * <p>
+ * {@link #runOpenLoop} sends statements at a fixed rate, independent of how fast the cluster
+ * responds, and measures each latency from the time the statement was due. A stalled cluster
+ * therefore shows up in the percentiles instead of silently lowering the load.
+ * {@link #runClosedLoop} runs a fixed number of workers which each send the next statement
+ * once the previous one returned.
+ * <p>
+ * A statement which fails, including with a runtime exception such as a parameter which cannot be
+ * serialized, is counted as an error of that statement. A runtime exception of the workload itself,
+ * for example of its parameter function, stops the run and is rethrown.
+ * <p>
+ * Statements are distributed round-robin over {@link CrateTestCluster#servers()}. Given the
+ * same seed, the sequence of statements and parameters is the same for every run, so results
+ * of clusters with different versions are comparable.
+ */
+public class WorkloadDriver {
+
+    private final CrateTestCluster cluster;
+    private final long seed;
+
+    public WorkloadDriver(CrateTestCluster cluster) {
+        this(cluster, 42L);
+    }
+
+    public WorkloadDriver(CrateTestCluster cluster, long seed) {
+        this.cluster = cluster;
+        this.seed = seed;
+    }
+
+    /**
+     * @param ratePerSecond statements to send per second
+     * @param maxConcurrency number of threads sending statements; statements which are due while
+     *                       all threads are busy are queued
+     */
+    public WorkloadResult runOpenLoop(Workload workload,
+                                      double ratePerSecond,
+                                      long duration,
+                                      TimeUnit unit,
+                                      int maxConcurrency) throws InterruptedException {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "invalid rate: %f", ratePerSecond));
+        }
+        List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+        WorkloadResult result = new WorkloadResult(
+            cluster.crateVersion(), String.format(Locale.ENGLISH, "open-loop %.1f/s", ratePerSecond), workload);
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency, workerThreads());
+        Random random = new Random(seed);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + unit.toNanos(duration);
+        try {
+            for (long i = 0; ; i++) {
+                long dueNanos = startNanos + i * intervalNanos;
+                if (dueNanos >= endNanos) {
+                    break;
+                }
+                long waitNanos;
+                while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Workload.Statement statement = workload.next(random);
+                Object[] args = statement.args(random);
+                CrateTestServer server = servers.get((int) (i % servers.size()));
+                executor.execute(() -> execute(server, statement, args, dueNanos, result));
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        // the statements which are still in flight are awaited, but do not count towards the duration,
+        // otherwise the throughput would be reported below the configured rate
+        long scheduledNanos = Math.max(System.nanoTime(), endNanos) - startNanos;
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        result.elapsedNanos(scheduledNanos);
+        return result;
+    }
+
+    /**
+     * @param workers number of concurrent workers, each waiting for the response before sending the next statement
+     */
+    public WorkloadResult runClosedLoop(Workload workload,
+                                        int workers,
+                                        long duration,
+                                        TimeUnit unit) throws InterruptedException {
+        List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+        WorkloadResult result = new WorkloadResult(
+            cluster.crateVersion(), String.format(Locale.ENGLISH, "closed-loop %d workers", workers), workload);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, workerThreads());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + unit.toNanos(duration);
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            executor.execute(() -> {
+                try {
+                    Random random = new Random(seed + worker);
+                    for (long i = worker;
+                         System.nanoTime() < endNanos && failure.get() == null && !Thread.currentThread().isInterrupted();
+                         i++) {
+                        Workload.Statement statement = workload.next(random);
+                        CrateTestServer server = servers.get((int) (i % servers.size()));
+                        execute(server, statement, statement.args(random), System.nanoTime(), result);
+                    }
+                } catch (RuntimeException | Error e) {
+                    // a silently ended worker would lower the load without any trace in the result;
+                    // the other workers stop once they see the failure
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        Throwable t = failure.get();
+        if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw (RuntimeException) t;
+        }
+        result.elapsedNanos(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    private static void execute(CrateTestServer server,
+                                Workload.Statement statement,
+                                Object[] args,
+                                long startNanos,
+                                WorkloadResult result) {
+        try {
+            server.execute(statement.sql(), args);
+            result.recordSuccess(statement, System.nanoTime() - startNanos);
+        } catch (IOException | RuntimeException e) {
+            result.recordError(statement);
+        }
+    }
+
+    private static ThreadFactory workerThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "crate-testing-workload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
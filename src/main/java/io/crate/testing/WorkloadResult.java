@@ -0,0 +1,134 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latencies of a {@link WorkloadDriver} run, per statement of the {@link Workload}.
+ * <p>
+ * Latencies of open-loop runs are measured from the time a statement was scheduled to be sent,
+ * so they include the time it waited for a free worker.
+ */
+public class WorkloadResult {
+
+    private final String crateVersion;
+    private final String mode;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+    private volatile long elapsedNanos;
+
+    WorkloadResult(String crateVersion, String mode, Workload workload) {
+        this.crateVersion = crateVersion;
+        this.mode = mode;
+        for (Workload.Statement statement : workload.statements()) {
+            latencies.put(statement.name(), new LatencyHistogram());
+            errors.put(statement.name(), new AtomicLong());
+        }
+    }
+
+    void recordSuccess(Workload.Statement statement, long latencyNanos) {
+        latencies.get(statement.name()).record(latencyNanos);
+    }
+
+    void recordError(Workload.Statement statement) {
+        errors.get(statement.name()).incrementAndGet();
+    }
+
+    void elapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the version of the cluster the workload ran against
+     */
+    public String crateVersion() {
+        return crateVersion;
+    }
+
+    /**
+     * @return a description of the load, e.g. {@code open-loop 500/s}
+     */
+    public String mode() {
+        return mode;
+    }
+
+    /**
+     * @return the duration of the run; for open-loop runs the time statements were sent for,
+     * without waiting for the responses to the last ones
+     */
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return latencies of the successful executions of each statement
+     */
+    public Map<String, LatencyHistogram> latencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    public long errors(String statement) {
+        return errors.get(statement).get();
+    }
+
+    public long successes() {
+        long count = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            count += histogram.count();
+        }
+        return count;
+    }
+
+    /**
+     * @return successful executions per second
+     */
+    public double throughput() {
+        return elapsedNanos == 0 ? 0 : successes() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "CrateDB %s, %s: %d ok in %dms, %.1f/s%n",
+            crateVersion, mode, successes(), elapsedMillis(), throughput()));
+        sb.append(String.format(Locale.ENGLISH, "%-20s %-8s %-8s %-10s %-10s %-10s %-10s%n",
+            "statement", "count", "errors", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            sb.append(String.format(Locale.ENGLISH, "%-20s %-8d %-8d %-10.3f %-10.3f %-10.3f %-10.3f%n",
+                entry.getKey(),
+                histogram.count(),
+                errors(entry.getKey()),
+                histogram.millisAtPercentile(50),
+                histogram.millisAtPercentile(99),
+                histogram.millisAtPercentile(99.9),
+                histogram.maxNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+        return sb.toString();
+    }
+}
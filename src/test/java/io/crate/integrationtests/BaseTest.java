@@ -30,13 +30,14 @@ import io.crate.testing.CrateTestCluster;
 import io.crate.testing.CrateTestServer;
 import io.crate.testing.Utils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 @ThreadLeakScope(ThreadLeakScope.Scope.SUITE)
 public abstract class BaseTest extends RandomizedTest {
@@ -71,13 +72,8 @@ public abstract class BaseTest extends RandomizedTest {
     }
 
     private static JsonObject parseResponse(InputStream inputStream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-        StringBuilder res = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            res.append(line);
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
         }
-        br.close();
-        return new JsonParser().parse(res.toString()).getAsJsonObject();
     }
 }
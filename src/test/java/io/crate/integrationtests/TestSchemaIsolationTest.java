@@ -0,0 +1,96 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.integrationtests;
+
+import io.crate.testing.CrateTestCluster;
+import io.crate.testing.SqlResult;
+import io.crate.testing.TestSchema;
+import io.crate.testing.TestSchemas;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import static io.crate.testing.Constants.CRATE_VERSION_FOR_TESTS;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestSchemaIsolationTest extends BaseTest {
+
+    @ClassRule
+    public static CrateTestCluster CLUSTER = CrateTestCluster
+        .fromVersion(CRATE_VERSION_FOR_TESTS)
+        .clusterName("schema-isolation")
+        .build();
+
+    private static TestSchemas schemas;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private TestSchema schema;
+
+    @Before
+    public void createSchema() {
+        if (schemas == null) {
+            schemas = new TestSchemas(CLUSTER);
+        }
+        schema = schemas.create(testName.getMethodName());
+    }
+
+    @After
+    public void dropSchema() {
+        schema.close();
+    }
+
+    @AfterClass
+    public static void closeSchemas() throws Exception {
+        schemas.close();
+        assertThat(schemas.leftovers().size(), is(2));
+        SqlResult result = CLUSTER.execute(
+            "select count(*) from information_schema.tables where table_name = 'isolated'");
+        assertThat(result.rows().get(0)[0], is(0L));
+        schemas = null;
+    }
+
+    @Test
+    public void testFirstSchema() throws Exception {
+        insertAndCount();
+    }
+
+    @Test
+    public void testSecondSchema() throws Exception {
+        insertAndCount();
+    }
+
+    private void insertAndCount() throws Exception {
+        schema.execute("create table isolated (id int) with (number_of_replicas = 0)");
+        schema.execute("insert into isolated (id) values (?)", 1);
+        schema.execute("refresh table isolated");
+        SqlResult result = schema.execute("select count(*) from isolated");
+        assertThat(result.rows().get(0)[0], is(1L));
+    }
+}
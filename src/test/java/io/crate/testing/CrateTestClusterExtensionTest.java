@@ -0,0 +1,181 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import io.crate.testing.fake.FakeCrateDistribution;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.platform.testkit.engine.EngineTestKit;
+import org.junit.platform.testkit.engine.Events;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+/**
+ * Runs fixture classes using the {@link CrateTestClusterExtension} against fake nodes,
+ * see {@link FakeCrateDistribution}.
+ */
+public class CrateTestClusterExtensionTest {
+
+    private static final List<CrateTestCluster> INJECTED = new CopyOnWriteArrayList<>();
+    private static volatile Path distribution;
+    private static volatile boolean runFixtures;
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    static void createDistribution() throws Exception {
+        assumeTrue(FakeCrateDistribution.isSupported(), "fake distribution needs a POSIX shell");
+        distribution = FakeCrateDistribution.create(tempDir, "5.0.0");
+    }
+
+    @BeforeEach
+    void clearInjected() {
+        INJECTED.clear();
+    }
+
+    static boolean runFixtures() {
+        return runFixtures;
+    }
+
+    private static Events run(Class<?>... classes) {
+        runFixtures = true;
+        try {
+            EngineTestKit.Builder builder = EngineTestKit.engine("junit-jupiter");
+            for (Class<?> clazz : classes) {
+                builder.selectors(selectClass(clazz));
+            }
+            return builder.execute().testEvents();
+        } finally {
+            runFixtures = false;
+        }
+    }
+
+    private static CrateTestCluster.Builder fakeCluster() {
+        return CrateTestCluster.fromFile(distribution.toString()).numberOfNodes(2);
+    }
+
+    @Test
+    public void testSessionScopedClusterIsSharedAcrossClasses() {
+        Events events = run(SessionFixtureA.class, SessionFixtureB.class);
+
+        events.assertStatistics(stats -> stats.started(4).succeeded(4));
+        assertThat(INJECTED.size(), is(4));
+        for (CrateTestCluster cluster : INJECTED) {
+            assertThat(cluster, sameInstance(INJECTED.get(0)));
+        }
+        // stopped at the end of the run
+        assertThrows(IllegalStateException.class, () -> INJECTED.get(0).servers());
+    }
+
+    @Test
+    public void testClassScopedClusterIsStoppedAfterEachClass() {
+        Events events = run(ClassFixtureA.class, ClassFixtureB.class);
+
+        events.assertStatistics(stats -> stats.started(3).succeeded(3));
+        assertThat(INJECTED.size(), is(3));
+        // the nested class uses the cluster of its enclosing class
+        assertThat(INJECTED.get(1), sameInstance(INJECTED.get(0)));
+        assertThat(INJECTED.get(2), not(sameInstance(INJECTED.get(0))));
+        for (CrateTestCluster cluster : INJECTED) {
+            assertThrows(IllegalStateException.class, cluster::servers);
+        }
+    }
+
+    @EnabledIf("io.crate.testing.CrateTestClusterExtensionTest#runFixtures")
+    static class SessionFixtureA {
+
+        @RegisterExtension
+        static final CrateTestClusterExtension CLUSTER = CrateTestClusterExtension.sessionScoped(
+            "fake", CrateTestClusterExtensionTest::fakeCluster);
+
+        @Test
+        void testCluster(CrateTestCluster cluster) throws Exception {
+            INJECTED.add(cluster);
+            assertThat(cluster.servers().size(), is(2));
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+        }
+
+        @Test
+        void testServer(CrateTestServer server, CrateTestCluster cluster) throws Exception {
+            INJECTED.add(cluster);
+            assertThat(cluster.servers(), hasItem(server));
+            server.execute("select 1");
+        }
+    }
+
+    @EnabledIf("io.crate.testing.CrateTestClusterExtensionTest#runFixtures")
+    static class SessionFixtureB extends SessionFixtureA {
+    }
+
+    @EnabledIf("io.crate.testing.CrateTestClusterExtensionTest#runFixtures")
+    static class ClassFixtureA {
+
+        @RegisterExtension
+        static final CrateTestClusterExtension CLUSTER = CrateTestClusterExtension.classScoped(
+            CrateTestClusterExtensionTest::fakeCluster);
+
+        @Test
+        void testCluster(CrateTestCluster cluster) {
+            INJECTED.add(cluster);
+        }
+
+        @Nested
+        class Inner {
+
+            @Test
+            void testCluster(CrateTestCluster cluster) {
+                INJECTED.add(cluster);
+            }
+        }
+    }
+
+    @EnabledIf("io.crate.testing.CrateTestClusterExtensionTest#runFixtures")
+    static class ClassFixtureB {
+
+        @RegisterExtension
+        static final CrateTestClusterExtension CLUSTER = CrateTestClusterExtension.classScoped(
+            CrateTestClusterExtensionTest::fakeCluster);
+
+        @Test
+        void testCluster(CrateTestCluster cluster) {
+            INJECTED.add(cluster);
+        }
+    }
+}
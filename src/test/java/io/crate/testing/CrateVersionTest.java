@@ -48,4 +48,48 @@ public class CrateVersionTest {
         assertThat(new CrateVersion("1.0.0").lt("1.1.1"), is(true));
         assertThat(new CrateVersion("1.0.0").lt("latest"), is(true));
     }
+
+    @Test
+    public void testParseQualifiers() {
+        CrateVersion snapshot = CrateVersion.of("5.1.0-SNAPSHOT");
+        assertThat(snapshot.major(), is(5));
+        assertThat(snapshot.minor(), is(1));
+        assertThat(snapshot.hotfix(), is(0));
+        assertThat(snapshot.qualifier(), is("SNAPSHOT"));
+        assertThat(snapshot.lt("5.1.0"), is(true));
+        assertThat(snapshot.gt("5.0.9"), is(true));
+
+        CrateVersion nightly = CrateVersion.of("nightly-5.1.0-20220601");
+        assertThat(nightly.qualifier(), is("nightly-20220601"));
+        assertThat(nightly.lt("5.1.0"), is(true));
+        assertThat(CrateVersion.of("1.0").compareTo("1.0.0"), is(0));
+
+        assertThat(CrateVersion.of("latest").isLatest(), is(true));
+        assertThat(CrateVersion.of("latest-nightly").gt("99.0.0"), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVersion() {
+        CrateVersion.of("not-a-version");
+    }
+
+    @Test
+    public void testVersionsAreCached() {
+        assertThat(CrateVersion.of("4.8.1") == CrateVersion.of("4.8.1"), is(true));
+        assertThat(CrateVersion.of("4.8.1"), is(new CrateVersion("4.8.1")));
+    }
+
+    @Test
+    public void testFeatures() {
+        assertThat(CrateVersion.of("0.57.1").supportsCOption(), is(false));
+        assertThat(CrateVersion.of("1.0.0").supportsCOption(), is(true));
+        assertThat(CrateVersion.of("1.2.0").usesLegacyDiscovery(), is(true));
+        assertThat(CrateVersion.of("2.0.0").usesLegacyDiscovery(), is(false));
+        assertThat(CrateVersion.of("3.1.9").requiresJava8(), is(true));
+        assertThat(CrateVersion.of("3.2.0").requiresJava8(), is(false));
+        assertThat(CrateVersion.of("3.3.5").usesSeedHosts(), is(false));
+        assertThat(CrateVersion.of("4.0.0-SNAPSHOT").usesSeedHosts(), is(true));
+        assertThat(CrateVersion.of("latest").usesSeedHosts(), is(true));
+        assertThat(CrateVersion.of("latest").supportsDecommission(), is(true));
+    }
 }
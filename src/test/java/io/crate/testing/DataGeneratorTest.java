@@ -0,0 +1,204 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class DataGeneratorTest extends RandomizedTest {
+
+    private static DataGenerator.Builder builder() {
+        return DataGenerator.builder()
+            .column("id", "bigint")
+            .column("name", "text")
+            .column("country", "varchar(2)")
+            .column("ts", "timestamp with time zone")
+            .column("tags", "text_array")
+            .column("location", "geo_point")
+            .primaryKey("id");
+    }
+
+    @Test
+    public void testSameSeedGeneratesSameRows() {
+        long seed = randomLong();
+        Iterator<Object[]> first = builder().seed(seed).build().rows(100);
+        Iterator<Object[]> second = builder().seed(seed).build().rows(100);
+        int rows = 0;
+        while (first.hasNext()) {
+            Object[] a = first.next();
+            Object[] b = second.next();
+            assertThat(a[0], is(b[0]));
+            assertThat(a[1], is(b[1]));
+            assertThat(a[4], is(b[4]));
+            rows++;
+        }
+        assertThat(rows, is(100));
+        assertThat(second.hasNext(), is(false));
+    }
+
+    @Test
+    public void testValuesMatchColumnTypes() {
+        Iterator<Object[]> rows = builder().stringLength(3, 8).build().rows(50);
+        Set<Object> ids = new HashSet<>();
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            ids.add(row[0]);
+            assertThat(row[1], instanceOf(String.class));
+            assertThat(((String) row[1]).length(), allOf(greaterThanOrEqualTo(3), lessThanOrEqualTo(8)));
+            assertThat(row[3], instanceOf(Long.class));
+            assertThat(((List<?>) row[4]).size(), lessThanOrEqualTo(3));
+            double[] point = (double[]) row[5];
+            assertThat(point[0], closeTo(0, 180));
+            assertThat(point[1], closeTo(0, 90));
+        }
+        assertThat(ids.size(), is(50));
+    }
+
+    @Test
+    public void testNullRatioAndCardinality() {
+        DataGenerator generator = builder()
+            .nullRatio(0.2)
+            .nullRatio("tags", 0)
+            .cardinality("country", 10)
+            .build();
+        int nulls = 0;
+        Set<Object> countries = new HashSet<>();
+        Iterator<Object[]> rows = generator.rows(10_000);
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            assertThat(row[0] == null, is(false));
+            assertThat(row[4] == null, is(false));
+            if (row[1] == null) {
+                nulls++;
+            }
+            if (row[2] != null) {
+                countries.add(row[2]);
+            }
+        }
+        assertThat(nulls / 10_000.0, closeTo(0.2, 0.03));
+        assertThat(countries.size(), is(10));
+    }
+
+    @Test
+    public void testTextPrimaryKeysAreUnique() {
+        DataGenerator generator = DataGenerator.builder()
+            .column("id", "text")
+            .primaryKey("id")
+            .stringLength(5, 8)
+            .build();
+        Set<Object> keys = new HashSet<>();
+        Iterator<Object[]> rows = generator.rows(1_000_000);
+        while (rows.hasNext()) {
+            Object key = rows.next()[0];
+            assertThat(((String) key).length(), greaterThanOrEqualTo(14));
+            keys.add(key);
+        }
+        assertThat(keys.size(), is(1_000_000));
+    }
+
+    @Test
+    public void testPrimaryKeyTypeTooSmall() {
+        DataGenerator generator = DataGenerator.builder()
+            .column("id", "smallint")
+            .primaryKey("id")
+            .build();
+        Set<Object> keys = new HashSet<>();
+        Iterator<Object[]> rows = generator.rows(65_536);
+        while (rows.hasNext()) {
+            keys.add(rows.next()[0]);
+        }
+        assertThat(keys.size(), is(65_536));
+        try {
+            generator.rows(65_537);
+            fail("expected too many rows for a smallint primary key");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is(
+                "primary key column id of type short holds at most 65536 distinct values, cannot generate 65537 rows"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArrayPrimaryKey() {
+        DataGenerator.builder().column("ids", "bigint_array").primaryKey("ids").build();
+    }
+
+    @Test
+    public void testZipfSamplerIsSkewed() {
+        DataGenerator.ZipfSampler sampler = new DataGenerator.ZipfSampler(1000, 1.0);
+        SplittableRandom random = new SplittableRandom(randomLong());
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long rank = sampler.sample(random);
+            assertThat(rank, allOf(greaterThanOrEqualTo(1L), lessThanOrEqualTo(1000L)));
+            counts.merge(rank, 1, Integer::sum);
+        }
+        // the first rank occurs twice as often as the second one
+        assertThat(counts.get(1L) / (double) counts.get(2L), closeTo(2.0, 0.2));
+        assertThat(counts.get(1L), greaterThan(counts.getOrDefault(1000L, 0) * 100));
+    }
+
+    @Test
+    public void testParseType() {
+        assertThat(DataGenerator.parseType("INTEGER"), is(DataGenerator.Type.INTEGER));
+        assertThat(DataGenerator.parseType("double precision"), is(DataGenerator.Type.DOUBLE));
+        assertThat(DataGenerator.parseType("timestamp without time zone"), is(DataGenerator.Type.TIMESTAMP));
+        assertThat(DataGenerator.parseType("string_array"), is(DataGenerator.Type.STRING));
+        assertThat(DataGenerator.isArray("string_array"), is(true));
+        assertThat(DataGenerator.isArray("bigint[]"), is(true));
+        assertThat(DataGenerator.isArray("object"), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        DataGenerator.builder().column("shape", "geo_shape");
+    }
+
+    @Test
+    public void testWriteCsv() throws Exception {
+        Path file = newTempDir().resolve("data.csv");
+        builder().build().writeTo(file, FixtureLoader.Format.CSV, 10);
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines.size(), is(11));
+        assertThat(lines.get(0), is("id,name,country,ts,tags,location"));
+    }
+}
@@ -0,0 +1,861 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.google.gson.JsonObject;
+import io.crate.integrationtests.BaseTest;
+import io.crate.testing.fake.FakeCrateDistribution;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the cluster lifecycle against fake nodes, see {@link FakeCrateDistribution}.
+ */
+public class FakeClusterTest extends BaseTest {
+
+    private static final String VERSION = "5.0.0";
+
+    private Path distribution;
+
+    @Before
+    public void createDistribution() throws Exception {
+        Assume.assumeTrue("fake distribution needs a POSIX shell", FakeCrateDistribution.isSupported());
+        distribution = FakeCrateDistribution.create(newTempDir(), VERSION);
+    }
+
+    @Test
+    public void testStartAndStopFakeCluster() throws Throwable {
+        StartupTimingReport timings = new StartupTimingReport();
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("fake.join_delay_ms", 50);
+        settings.put("fake.latency.max_ms", 5);
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .clusterName("fake")
+            .numberOfNodes(3)
+            .settings(settings)
+            .listener(timings)
+            .build();
+
+        try {
+            cluster.before();
+            prepare(cluster);
+            assertThat(cluster.servers().size(), is(3));
+            JsonObject response = execute("select name from sys.cluster");
+            assertThat(response.getAsJsonArray("rows").get(0).getAsString(), is("fake"));
+            response = execute("select version['number'] from sys.nodes");
+            assertThat(response.getAsJsonArray("rows").get(0).getAsString(), is(VERSION));
+        } finally {
+            cluster.after();
+        }
+        assertThat(Files.exists(cluster.crateWorkingDir()), is(false));
+        assertThat(timings.count(StartupTimingReport.SPAWN), is(3L));
+        assertThat(timings.count(StartupTimingReport.NODE_READY), is(3L));
+        assertThat(timings.count(StartupTimingReport.CLUSTER_READY), is(1L));
+        assertThat(timings.count(StartupTimingReport.SHUTDOWN), is(3L));
+        assertThat(timings.count(StartupTimingReport.DELETE_DIR), is(1L));
+    }
+
+    @Test
+    public void testLatencyRecorder() throws Throwable {
+        QueryLatencyRecorder recorder = new QueryLatencyRecorder();
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .latencyRecorder(recorder)
+            .build();
+        String firstNode;
+        try {
+            cluster.before();
+            firstNode = NodeResourceSampler.nodeKey(cluster.randomServer());
+            for (CrateTestServer server : cluster.servers()) {
+                server.execute("select name from sys.cluster where 1 = 1");
+                try (PsqlConnection connection = server.psqlConnection()) {
+                    connection.query("select name from sys.cluster where 1 = 2");
+                }
+            }
+        } finally {
+            cluster.after();
+        }
+        String fingerprint = "select name from sys.cluster where ? = ?";
+        assertThat(recorder.fingerprints(), is(List.of(fingerprint)));
+        assertThat(recorder.latency(fingerprint).count(), is(4L));
+        assertThat(recorder.serverDuration(fingerprint, null).count(), is(2L));
+        assertThat(recorder.latency(fingerprint, firstNode).count(), is(2L));
+    }
+
+    @Test
+    public void testWorkloadDriver() throws Throwable {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("fake.latency.max_ms", 2);
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .settings(settings)
+            .build();
+        Workload workload = Workload.builder()
+            .statement("cluster", 3, "select name from sys.cluster")
+            .statement("nodes", 1, "select count(*) from sys.nodes where 1 = ?", random -> new Object[]{1})
+            .build();
+        try {
+            cluster.before();
+            WorkloadDriver driver = new WorkloadDriver(cluster);
+            WorkloadResult openLoop = driver.runOpenLoop(workload, 200, 1, TimeUnit.SECONDS, 4);
+            assertThat(openLoop.crateVersion(), is(VERSION));
+            assertThat(openLoop.successes(), is(200L));
+            assertThat(openLoop.latencies().get("cluster").count(), greaterThan(openLoop.latencies().get("nodes").count()));
+            assertThat(openLoop.errors("nodes"), is(0L));
+
+            WorkloadResult closedLoop = driver.runClosedLoop(workload, 4, 500, TimeUnit.MILLISECONDS);
+            assertThat(closedLoop.successes(), greaterThan(0L));
+            assertThat(closedLoop.report(), containsString("closed-loop 4 workers"));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testOpenLoopThroughputExcludesDrain() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .settings(Map.of("fake.latency.min_ms", 300))
+            .build();
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        try {
+            cluster.before();
+            WorkloadResult result = new WorkloadDriver(cluster).runOpenLoop(workload, 50, 500, TimeUnit.MILLISECONDS, 50);
+            assertThat(result.successes(), is(25L));
+            // the responses to the last statements arrive 300ms after the run ended
+            assertThat(result.elapsedMillis(), lessThan(600L));
+            assertThat(result.throughput(), greaterThan(40d));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testWorkloadDriverCountsRuntimeExceptions() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString()).build();
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            // NaN cannot be serialized to JSON
+            .statement("nan", 1, "select ?", random -> new Object[]{Double.NaN})
+            .build();
+        Workload broken = Workload.builder()
+            .statement("broken", 1, "select ?", random -> {
+                throw new IllegalStateException("no parameters");
+            })
+            .build();
+        try {
+            cluster.before();
+            WorkloadDriver driver = new WorkloadDriver(cluster);
+            WorkloadResult closedLoop = driver.runClosedLoop(workload, 2, 300, TimeUnit.MILLISECONDS);
+            assertThat(closedLoop.errors("nan"), greaterThan(0L));
+            assertThat(closedLoop.errors("cluster"), is(0L));
+            assertThat(closedLoop.successes(), greaterThan(0L));
+
+            try {
+                driver.runClosedLoop(broken, 2, 300, TimeUnit.MILLISECONDS);
+                fail("expected the parameter function to fail");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), is("no parameters"));
+            }
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testComparativeBenchmark() throws Exception {
+        Path newer = FakeCrateDistribution.create(newTempDir(), "5.1.0");
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        List<WorkloadResult> results = ComparativeBenchmark.builder(workload)
+            .cluster(CrateTestCluster.fromFile(distribution.toString()))
+            .cluster(CrateTestCluster.fromFile(newer.toString()))
+            .setup(cluster -> cluster.execute("select 1"))
+            .warmup(100, TimeUnit.MILLISECONDS)
+            .measure(300, TimeUnit.MILLISECONDS)
+            .openLoop(100, 2)
+            .build()
+            .run();
+        assertThat(results.size(), is(2));
+        assertThat(results.get(0).crateVersion(), is(VERSION));
+        assertThat(results.get(1).crateVersion(), is("5.1.0"));
+        assertThat(results.get(1).successes(), is(30L));
+        assertThat(ComparativeBenchmark.report(results), containsString("5.1.0"));
+    }
+
+    @Test
+    public void testComparativeBenchmarkReportsStartFailure() throws Exception {
+        Path corrupt = newTempDir().resolve("crate-5.2.0.tar.gz");
+        Files.write(corrupt, new byte[]{1, 2, 3});
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        ComparativeBenchmark benchmark = ComparativeBenchmark.builder(workload)
+            .cluster(CrateTestCluster.fromFile(corrupt.toString()))
+            .measure(100, TimeUnit.MILLISECONDS)
+            .build();
+        try {
+            benchmark.run();
+            fail("expected the cluster not to start");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Could not start cluster"));
+            assertThat(String.valueOf(e.getCause().getMessage()), not(containsString("servers not started yet")));
+        }
+    }
+
+    @Test
+    public void testNodeResources() throws Throwable {
+        Assume.assumeTrue("/proc is available", ResourceSample.isSupported());
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .nodeResources(NodeResources.builder().cpuPool(0).cpusPerNode(1).heapSize("64m").build())
+            .build();
+        try {
+            cluster.before();
+            long pid = cluster.randomServer().pid().toCompletableFuture().get();
+            String commandLine = new String(Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "cmdline")))
+                .replace('\0', ' ');
+            assertThat(commandLine, containsString("-Xmx64m"));
+            assertThat(commandLine, containsString("-XX:ActiveProcessorCount=1"));
+            if (NodeResources.isPinningSupported()) {
+                List<String> status = Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"));
+                assertThat(status, hasItem(matchesPattern("Cpus_allowed_list:\\s+0")));
+            }
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testNodesDoNotRunOnHarnessCpus() throws Throwable {
+        Assume.assumeTrue("taskset and /proc are available",
+            NodeResources.isPinningSupported() && ResourceSample.isSupported());
+        int[] pool = NodeResources.processCpus();
+        int[] nodeCpus = pool.length > 1 ? Arrays.copyOfRange(pool, 1, pool.length) : pool;
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .nodeResources(NodeResources.builder().cpuPool(pool).harnessCpus(1).build())
+            .build();
+        try {
+            cluster.before();
+            assertThat(allowedCpus(cluster.randomServer()), is(nodeCpus));
+            // nodes started while the test JVM is pinned don't inherit its CPUs either
+            cluster.restartNode(0);
+            assertThat(allowedCpus(cluster.randomServer()), is(nodeCpus));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    private static int[] allowedCpus(CrateTestServer server) throws Exception {
+        long pid = server.pid().toCompletableFuture().get();
+        for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+            if (line.startsWith("Cpus_allowed_list:")) {
+                return NodeResources.parseCpuList(line.substring("Cpus_allowed_list:".length()));
+            }
+        }
+        throw new AssertionError("no Cpus_allowed_list for node " + pid);
+    }
+
+    @Test
+    public void testFailedDropDoesNotSkipOtherObjects() throws Throwable {
+        QueryLatencyRecorder recorder = new QueryLatencyRecorder();
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .settings(Map.of("fake.tables", "a,b,c:VIEW", "fake.drop_error", "b"))
+            .latencyRecorder(recorder)
+            .build();
+        try {
+            cluster.before();
+            TestSchemas schemas = new TestSchemas(cluster);
+            TestSchema first = schemas.create("first");
+            TestSchema second = schemas.create("second");
+            first.close();
+            second.close();
+            try {
+                schemas.close();
+                fail("expected the failed drops to be reported");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), containsString("Could not drop 2 leftover objects"));
+                assertThat(e.getMessage(), containsString("\"" + second.name() + "\".\"b\""));
+            }
+            assertThat(schemas.leftovers().size(), is(6));
+            for (TestSchema schema : List.of(first, second)) {
+                assertThat(recorder.latency(
+                    "DROP VIEW IF EXISTS \"" + schema.name() + "\".\"c\"").count(), is(1L));
+                assertThat(recorder.latency(
+                    "DROP TABLE IF EXISTS \"" + schema.name() + "\".\"a\"").count(), is(1L));
+            }
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testNodeLifecycle() throws Throwable {
+        StartupTimingReport timings = new StartupTimingReport();
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(3)
+            .listener(timings)
+            .build();
+        try {
+            cluster.before();
+            List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+            CrateTestServer second = servers.get(1);
+            long pid = second.pid().toCompletableFuture().get();
+
+            cluster.stopNode(1);
+            assertThat(second.isRunning(), is(false));
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+
+            cluster.startNode(1);
+            assertThat(second.isRunning(), is(true));
+            assertThat(second.pid().toCompletableFuture().get(), not(pid));
+            assertThat(second.execute("select count(*) from sys.nodes").rows().get(0)[0], is(3L));
+
+            long[] durations = cluster.rollingRestart();
+            assertThat(durations.length, is(3));
+            for (CrateTestServer server : servers) {
+                assertThat(server.isRunning(), is(true));
+            }
+        } finally {
+            cluster.after();
+        }
+        assertThat(timings.count(StartupTimingReport.SPAWN), is(7L));
+        assertThat(timings.count(StartupTimingReport.SHUTDOWN), is(7L));
+    }
+
+    @Test
+    public void testStartNodeFailsWhenTheProcessCannotBeSpawned() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .build();
+        try {
+            cluster.before();
+            CrateTestServer server = new ArrayList<>(cluster.servers()).get(1);
+            cluster.stopNode(1);
+            Path executable = server.configDir().getParent().resolve("bin").resolve("crate");
+            Path moved = executable.resolveSibling("crate.moved");
+            Files.move(executable, moved);
+            long startNanos = System.nanoTime();
+            try {
+                cluster.startNode(1, 60, TimeUnit.SECONDS);
+                fail("expected the node not to start");
+            } catch (IOException e) {
+                assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos), lessThan(10L));
+            } finally {
+                Files.move(moved, executable);
+            }
+            cluster.startNode(1);
+            assertThat(server.isRunning(), is(true));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testStopAndKillNodeWithUnassignedReplicas() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(3)
+            .settings(Map.of("fake.unassigned_replicas", 2))
+            .build();
+        try {
+            cluster.before();
+            cluster.stopNode(1, 10, TimeUnit.SECONDS);
+            try {
+                cluster.waitUntilHealthy(500);
+                fail("expected the replicas of the stopped node to stay unassigned");
+            } catch (TimeoutException e) {
+                assertThat(e.getMessage(), containsString("did not become healthy"));
+            }
+            cluster.startNode(1, 10, TimeUnit.SECONDS);
+
+            long[] durations = cluster.rollingRestart(10, TimeUnit.SECONDS);
+            assertThat(durations.length, is(3));
+
+            cluster.killNode(2, 10, TimeUnit.SECONDS);
+            cluster.startNode(2, 10, TimeUnit.SECONDS);
+            cluster.killAndRestartNode(0, 10, TimeUnit.SECONDS);
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testScaleOutAndIn() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString()).build();
+        try {
+            cluster.before();
+            ScalingReport scaleOut = cluster.addNodes(2);
+            assertThat(scaleOut.nodesAfter(), is(3));
+            assertThat(cluster.servers().size(), is(3));
+            for (CrateTestServer server : cluster.servers()) {
+                assertThat(server.execute("select count(*) from sys.nodes").rows().get(0)[0], is(3L));
+            }
+
+            List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+            ScalingReport scaleIn = cluster.removeNodes(1);
+            assertThat(scaleIn.nodesAfter(), is(2));
+            assertThat(cluster.servers().size(), is(2));
+            assertThat(servers.get(2).isRunning(), is(false));
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testFailedScaleOutIsRolledBack() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            // the second added node exits before it binds its ports
+            .nodeSettings(2, Map.of("fake.startup_delay_ms", "never"))
+            .build();
+        try {
+            cluster.before();
+            CrateTestServer existing = cluster.servers().iterator().next();
+            try {
+                cluster.addNodes(2, 30, TimeUnit.SECONDS);
+                fail("expected the added node to fail");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage(), containsString("exited before it joined cluster"));
+            }
+            assertThat(cluster.servers().size(), is(1));
+            assertThat(existing.isRunning(), is(true));
+
+            ScalingReport scaleOut = cluster.addNodes(1, 30, TimeUnit.SECONDS);
+            assertThat(scaleOut.nodesAfter(), is(2));
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testFaultInjection() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .faultInjection(true)
+            .build();
+        try {
+            cluster.before();
+            CrateTestServer server = new ArrayList<>(cluster.servers()).get(0);
+            FaultProxy httpProxy = cluster.httpProxy(0);
+            assertThat(httpProxy.listenPort(), is(server.httpPort()));
+            assertThat(cluster.transportProxy(0).listenPort(), is(server.transportPort()));
+
+            httpProxy.latency(100, TimeUnit.MILLISECONDS);
+            long startNanos = System.nanoTime();
+            server.execute("select name from sys.cluster");
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), greaterThanOrEqualTo(200L));
+
+            httpProxy.reset().partition();
+            try {
+                server.execute("select name from sys.cluster");
+                fail("partitioned node answered");
+            } catch (IOException expected) {
+            }
+            httpProxy.heal();
+            assertThat(server.execute("select name from sys.cluster").rows().size(), is(1));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testFreezeAndKillNodes() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .build();
+        try {
+            cluster.before();
+            CrateTestServer server = new ArrayList<>(cluster.servers()).get(1);
+            long pid = server.pid().toCompletableFuture().get();
+
+            cluster.freezeNode(1);
+            assertThat(server.isRunning(), is(false));
+            if (ResourceSample.isSupported()) {
+                assertThat(Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status")),
+                    hasItem(matchesPattern("State:\\s+T.*")));
+            }
+            cluster.unfreezeNode(1);
+            assertThat(server.isRunning(), is(true));
+
+            cluster.freezeNode(1, 100, TimeUnit.MILLISECONDS);
+            assertThat(server.isRunning(), is(true));
+
+            cluster.killNode(1);
+            assertThat(server.isRunning(), is(false));
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(1L));
+
+            cluster.startNode(1);
+            assertThat(server.pid().toCompletableFuture().get(), not(pid));
+            cluster.killAndRestartNode(0);
+            assertThat(cluster.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+
+            cluster.freezeNode(0);
+        } finally {
+            // stopping a frozen node must not hang
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testRepeatedStartsOfSameCluster() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .build();
+        for (int i = 0; i < 5; i++) {
+            try {
+                cluster.before();
+                assertThat(cluster.servers().size(), is(2));
+            } finally {
+                cluster.after();
+            }
+        }
+    }
+
+    @Test
+    public void testKeepWarmClusterIsReattached() throws Throwable {
+        CrateTestCluster first = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .keepWarm(1, TimeUnit.MINUTES)
+            .build();
+        CrateTestCluster second = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .keepWarm(1, TimeUnit.MINUTES)
+            .build();
+        try {
+            first.before();
+            List<Long> pids = new ArrayList<>();
+            for (CrateTestServer server : first.servers()) {
+                pids.add(server.pid().toCompletableFuture().get());
+                assertThat(Files.exists(server.logFile()), is(true));
+            }
+            first.after();
+            for (long pid : pids) {
+                assertThat(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), is(true));
+            }
+
+            second.before();
+            assertThat(second.crateWorkingDir(), is(first.crateWorkingDir()));
+            List<Long> reattachedPids = new ArrayList<>();
+            for (CrateTestServer server : second.servers()) {
+                reattachedPids.add(server.pid().toCompletableFuture().get());
+            }
+            assertThat(reattachedPids, is(pids));
+            assertThat(second.execute("select count(*) from sys.nodes").rows().get(0)[0], is(2L));
+
+            // a killed node makes the cluster stop regularly
+            second.killNode(1);
+            second.after();
+            assertThat(ProcessHandle.of(pids.get(0)).map(ProcessHandle::isAlive).orElse(false), is(false));
+            assertThat(Files.exists(second.crateWorkingDir()), is(false));
+        } finally {
+            CrateTestCluster.stopWarmClusters();
+        }
+    }
+
+    @Test
+    public void testIdleWarmClusterIsReaped() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .keepWarm(1, TimeUnit.SECONDS)
+            .build();
+        try {
+            cluster.before();
+            long pid = cluster.randomServer().pid().toCompletableFuture().get();
+            cluster.after();
+
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)
+                   || Files.exists(cluster.crateWorkingDir())) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("warm cluster was not reaped");
+                }
+                Thread.sleep(100);
+            }
+        } finally {
+            CrateTestCluster.stopWarmClusters();
+        }
+    }
+
+    @Test
+    public void testLeasedWarmClusterIsNotSharedOrReaped() throws Throwable {
+        CrateTestCluster first = CrateTestCluster.fromFile(distribution.toString())
+            .keepWarm(1, TimeUnit.SECONDS)
+            .build();
+        CrateTestCluster second = CrateTestCluster.fromFile(distribution.toString())
+            .keepWarm(1, TimeUnit.SECONDS)
+            .build();
+        try {
+            first.before();
+            long pid = first.randomServer().pid().toCompletableFuture().get();
+            second.before();
+            assertThat(second.randomServer().pid().toCompletableFuture().get(), not(pid));
+            assertThat(second.crateWorkingDir(), not(first.crateWorkingDir()));
+            second.after();
+            assertThat(Files.exists(second.crateWorkingDir()), is(false));
+
+            // the time to live only starts when the lease is released
+            Thread.sleep(2000);
+            assertThat(CrateTestCluster.stopWarmClusters(), is(0));
+            assertThat(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), is(true));
+            assertThat(first.execute("select name from sys.cluster").rows().get(0)[0], is("TestingCluster"));
+            first.after();
+            assertThat(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), is(true));
+        } finally {
+            CrateTestCluster.stopWarmClusters();
+        }
+    }
+
+    @Test
+    public void testFixtureLoader() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .numberOfNodes(2)
+            .build();
+        try {
+            cluster.before();
+            List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < 101; i++) {
+                rows.add(new Object[]{i, i % 10 == 0 ? null : "name, \"" + i + "\""});
+            }
+            FixtureLoader loader = new FixtureLoader(cluster).keepFiles(true);
+            assertThat(loader.load("doc.t", List.of("id", "name"), rows.iterator()), is(101L));
+
+            Path fixtures = cluster.crateWorkingDir().resolve("fixtures");
+            List<String> lines = new ArrayList<>();
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(fixtures)) {
+                for (Path dir : dirs) {
+                    assertThat(dir.resolve("part-0.json").toFile().exists(), is(true));
+                    assertThat(dir.resolve("part-1.json").toFile().exists(), is(true));
+                    lines.addAll(Files.readAllLines(dir.resolve("part-0.json")));
+                }
+            }
+            assertThat(lines.size(), is(51));
+            assertThat(lines.get(0), is("{\"id\":0,\"name\":null}"));
+            assertThat(lines.get(1), is("{\"id\":2,\"name\":\"name, \\\"2\\\"\"}"));
+
+            Path csv = newTempDir().resolve("data.csv");
+            Files.write(csv, List.of("id,name", "1,\"a, b\"", "2,"));
+            assertThat(new FixtureLoader(cluster).format(FixtureLoader.Format.CSV).files(3)
+                .load("doc.t", List.of("id", "name"), rows.iterator()), is(101L));
+            assertThat(new FixtureLoader(cluster).load("doc.t", csv), is(2L));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testStreamResults() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString()).build();
+        try {
+            cluster.before();
+            try (ResultStream rows = cluster.stream("select count(*) from sys.nodes")) {
+                assertThat(rows.next().getLong("nodes"), is(1L));
+                assertThat(rows.hasNext(), is(false));
+            }
+
+            try (PsqlConnection connection = cluster.randomServer().psqlConnection()) {
+                long expected = 1;
+                try (ResultStream rows = connection.stream(100, "select * from generate_series(1, 250)")) {
+                    while (rows.hasNext()) {
+                        assertThat(rows.next().getLong("n"), is(expected++));
+                    }
+                    assertThat(rows.rowCount(), is(250L));
+                }
+                assertThat(expected, is(251L));
+                // the connection is usable again once the stream is closed
+                assertThat(connection.query("select count(*) from sys.nodes").rows().get(0)[0], is(1L));
+            }
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testSettingsInConfigFile() throws Throwable {
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .clusterName("from \"yml\"")
+            .numberOfNodes(2)
+            .configFile(true)
+            .nodeSettings(1, Map.of("node.name", "second"))
+            .build();
+        try {
+            cluster.before();
+            List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+            for (CrateTestServer server : servers) {
+                List<String> config = Files.readAllLines(server.configDir().resolve("crate.yml"));
+                assertThat(config, hasItem("cluster.name: \"from \\\"yml\\\"\""));
+                assertThat(config, hasItem("http.port: \"" + server.httpPort() + "\""));
+            }
+            assertThat(servers.get(0).execute("select name from sys.nodes").rows().get(0)[0], is("fake-" + servers.get(0).httpPort()));
+            assertThat(servers.get(1).execute("select name from sys.nodes").rows().get(0)[0], is("second"));
+            assertThat(servers.get(1).execute("select name from sys.cluster").rows().get(0)[0], is("from \"yml\""));
+
+            cluster.setGlobal(Map.of("thread_pool.search.size", 4, "stats.enabled", false));
+            cluster.resetGlobal("thread_pool.search.size", "stats.enabled");
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testLoopbackAddressPerNode() throws Throwable {
+        Assume.assumeTrue("loopback addresses per node are only supported on Linux", LoopbackAddress.isSupported());
+        CrateTestCluster cluster = CrateTestCluster.fromFile(distribution.toString())
+            .clusterName("loopback")
+            .numberOfNodes(2)
+            .loopbackPerNode(true)
+            .build();
+        try {
+            cluster.before();
+            List<CrateTestServer> servers = new ArrayList<>(cluster.servers());
+            assertThat(servers.get(0).crateHost(), not(servers.get(1).crateHost()));
+            for (CrateTestServer server : servers) {
+                assertThat(server.httpPort(), is(4200));
+                assertThat(server.transportPort(), is(4300));
+                assertThat(server.execute("select name from sys.cluster").rows().get(0)[0], is("loopback"));
+            }
+
+            // the nodes share their ports, so only the address tells them apart
+            ScalingReport scaleIn = cluster.removeNodes(1, 30, TimeUnit.SECONDS);
+            assertThat(scaleIn.nodesAfter(), is(1));
+            assertThat(servers.get(1).isRunning(), is(false));
+            assertThat(servers.get(0).isRunning(), is(true));
+            assertThat(cluster.servers().iterator().next(), is(servers.get(0)));
+        } finally {
+            cluster.after();
+        }
+    }
+
+    @Test
+    public void testParameterSweep() throws Exception {
+        List<Path> extracted = new ArrayList<>();
+        List<Path> started = new ArrayList<>();
+        ClusterLifecycleListener listener = new ClusterLifecycleListener() {
+            @Override
+            public void extractStarted(Path archive, Path destination) {
+                extracted.add(destination);
+            }
+
+            @Override
+            public void nodeReady(CrateTestServer server, long durationNanos) {
+                started.add(server.configDir().getParent());
+            }
+        };
+        AtomicInteger setups = new AtomicInteger();
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        List<ParameterSweep.Result> results = ParameterSweep.builder(
+                () -> CrateTestCluster.fromFile(distribution.toString()).numberOfNodes(2).listener(listener))
+            .nodeSetting("fake.latency.max_ms", 0, 1)
+            .runtimeSetting("stats.enabled", true, false)
+            .runtimeSetting("thread_pool.search.size", 2, 4)
+            .workload("lookup", workload)
+            .setup(cluster -> setups.incrementAndGet())
+            .warmup(0, TimeUnit.MILLISECONDS)
+            .measure(100, TimeUnit.MILLISECONDS)
+            .build()
+            .run();
+
+        assertThat(results.size(), is(8));
+        assertThat(setups.get(), is(1));
+        assertThat(extracted.size(), is(1));
+        assertThat(started.size(), is(4));
+        assertThat(started.get(3), is(extracted.get(0)));
+        assertThat(Files.exists(extracted.get(0)), is(false));
+        assertThat(results.get(3).nodeSettings(), is(Map.of("fake.latency.max_ms", 0)));
+        assertThat(results.get(4).nodeSettings(), is(Map.of("fake.latency.max_ms", 1)));
+        assertThat(results.get(4).runtimeSettings(), is(results.get(0).runtimeSettings()));
+        assertThat(results.get(0).result().successes(), greaterThan(0L));
+        assertThat(ParameterSweep.report(results), containsString("stats.enabled=false,thread_pool.search.size=4"));
+    }
+
+    @Test
+    public void testParameterSweepKeepsBaseSettings() throws Exception {
+        Map<String, Object> shared = new HashMap<>(Map.of("fake.latency.min_ms", 1));
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        List<ParameterSweep.Result> results = ParameterSweep.builder(
+                () -> CrateTestCluster.fromFile(distribution.toString())
+                    .settings(Map.of("fake.join_delay_ms", 0))
+                    .settings(shared)
+                    .numberOfNodes(2))
+            .nodeSetting("fake.latency.max_ms", 1, 2)
+            .workload("lookup", workload)
+            .warmup(0, TimeUnit.MILLISECONDS)
+            .measure(100, TimeUnit.MILLISECONDS)
+            .build()
+            .run();
+
+        assertThat(results.size(), is(2));
+        assertThat(results.get(1).result().successes(), greaterThan(0L));
+        assertThat(shared, is(Map.of("fake.latency.min_ms", 1)));
+    }
+
+    @Test
+    public void testParameterSweepReportsStartFailure() throws Exception {
+        Path corrupt = newTempDir().resolve("crate-5.2.0.tar.gz");
+        Files.write(corrupt, new byte[]{1, 2, 3});
+        Workload workload = Workload.builder()
+            .statement("cluster", 1, "select name from sys.cluster")
+            .build();
+        ParameterSweep sweep = ParameterSweep.builder(() -> CrateTestCluster.fromFile(corrupt.toString()))
+            .workload("lookup", workload)
+            .measure(100, TimeUnit.MILLISECONDS)
+            .build();
+        try {
+            sweep.run();
+            fail("expected the cluster not to start");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Could not start cluster"));
+            assertThat(String.valueOf(e.getCause().getMessage()), not(containsString("servers not started yet")));
+        }
+    }
+}
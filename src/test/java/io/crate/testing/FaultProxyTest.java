@@ -0,0 +1,188 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class FaultProxyTest {
+
+    private static final String HOST = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private ServerSocket echoServer;
+    private FaultProxy proxy;
+
+    @Before
+    public void startEchoServerAndProxy() throws IOException {
+        echoServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = echoServer.accept();
+                    Thread echo = new Thread(() -> echo(socket));
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        int port = Utils.randomAvailablePort(20000, 30000);
+        proxy = FaultProxy.start(HOST, port, echoServer.getLocalPort());
+    }
+
+    private static void echo(Socket socket) {
+        try (Socket s = socket; InputStream in = s.getInputStream(); OutputStream out = s.getOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    @After
+    public void stop() throws IOException {
+        proxy.close();
+        echoServer.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(HOST, proxy.listenPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static byte[] roundTrip(Socket socket, byte[] data) throws IOException {
+        socket.getOutputStream().write(data);
+        socket.getOutputStream().flush();
+        byte[] response = new byte[data.length];
+        new DataInputStream(socket.getInputStream()).readFully(response);
+        return response;
+    }
+
+    @Test
+    public void testForwardsData() throws IOException {
+        try (Socket socket = connect()) {
+            byte[] data = new byte[100_000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            assertThat(roundTrip(socket, data), is(data));
+        }
+        assertThat(proxy.forwardedBytes(), is(200_000L));
+    }
+
+    @Test
+    public void testForwardsDataThroughReusedBuffers() throws IOException {
+        proxy.latency(1, TimeUnit.MILLISECONDS);
+        try (Socket socket = connect()) {
+            // more data than the queued buffers hold, so buffers are written and filled again
+            for (int round = 0; round < 40; round++) {
+                byte[] data = new byte[100_000];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) (i + round);
+                }
+                assertThat(roundTrip(socket, data), is(data));
+            }
+        }
+        assertThat(proxy.forwardedBytes(), is(8_000_000L));
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        proxy.latency(100, TimeUnit.MILLISECONDS);
+        try (Socket socket = connect()) {
+            long startNanos = System.nanoTime();
+            roundTrip(socket, new byte[]{1, 2, 3});
+            // delayed on the way to the echo server and back
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), greaterThanOrEqualTo(200L));
+        }
+    }
+
+    @Test
+    public void testBandwidth() throws IOException {
+        proxy.bandwidth(200_000);
+        try (Socket socket = connect()) {
+            long startNanos = System.nanoTime();
+            roundTrip(socket, new byte[100_000]);
+            // 200KB in both directions at 200KB/s, minus the initial burst
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), greaterThanOrEqualTo(700L));
+        }
+    }
+
+    @Test
+    public void testStallAndResume() throws Exception {
+        try (Socket socket = connect()) {
+            roundTrip(socket, new byte[]{1});
+            proxy.stall();
+            socket.setSoTimeout(300);
+            socket.getOutputStream().write(2);
+            try {
+                socket.getInputStream().read();
+                fail("stalled proxy forwarded data");
+            } catch (SocketTimeoutException expected) {
+            }
+            proxy.resume();
+            socket.setSoTimeout(5000);
+            assertThat(socket.getInputStream().read(), is(2));
+        }
+    }
+
+    @Test
+    public void testPartitionAndHeal() throws IOException {
+        try (Socket socket = connect()) {
+            roundTrip(socket, new byte[]{1});
+            proxy.partition();
+            assertThat(socket.getInputStream().read(), is(-1));
+        }
+        try (Socket socket = connect()) {
+            assertThat(socket.getInputStream().read(), lessThan(0));
+        }
+        proxy.heal();
+        try (Socket socket = connect()) {
+            assertThat(roundTrip(socket, new byte[]{3}), is(new byte[]{3}));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class ForkSlotTest extends RandomizedTest {
+
+    @Test
+    public void testSlotsAreExclusive() throws Exception {
+        Path slotsDir = newTempDir();
+        ForkSlot first = ForkSlot.acquire(slotsDir, 2);
+        ForkSlot second = ForkSlot.acquire(slotsDir, 2);
+        try {
+            assertThat(first.index(), is(0));
+            assertThat(second.index(), is(1));
+            try {
+                ForkSlot.acquire(slotsDir, 2);
+                fail("expected all slots to be in use");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage().startsWith("All 2 fork slots are in use"), is(true));
+            }
+
+            first.release();
+            ForkSlot third = ForkSlot.acquire(slotsDir, 2);
+            assertThat(third.index(), is(0));
+            third.release();
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    @Test
+    public void testPortRangesAreDisjoint() throws Exception {
+        Path slotsDir = newTempDir();
+        ForkSlot first = ForkSlot.acquire(slotsDir, 4);
+        ForkSlot second = ForkSlot.acquire(slotsDir, 4);
+        try {
+            assertThat(first.portRange(4200, 4399, 3)[0], is(4200));
+            assertThat(first.portRange(4200, 4399, 3)[1], is(4249));
+            assertThat(second.portRange(4200, 4399, 3)[0], is(4250));
+            assertThat(second.portRange(4200, 4399, 3)[1], is(4299));
+            assertThat(first.cpus().length >= 1, is(true));
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    @Test
+    public void testPortRangeTooSmallForNodes() throws Exception {
+        ForkSlot slot = ForkSlot.acquire(newTempDir(), 8);
+        try {
+            // 12 ports per slot are enough for a single node, but not for 3 nodes
+            assertThat(slot.portRange(4500, 4600, 1)[1], is(4511));
+            slot.portRange(4500, 4600, 3);
+            fail("expected the share of the port range to be too small");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("port range 4500-4600 split into 8 fork slots leaves 12 ports per slot, " +
+                "but 13 are needed; widen the port range or lower the \"crate.testing.fork_slots\" system property"));
+        } finally {
+            slot.release();
+        }
+    }
+}
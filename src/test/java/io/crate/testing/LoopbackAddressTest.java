@@ -0,0 +1,57 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+package io.crate.testing;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+
+public class LoopbackAddressTest extends RandomizedTest {
+
+    @Test
+    public void testHosts() {
+        assertThat(LoopbackAddress.host(0), is("127.42.0.1"));
+        assertThat(LoopbackAddress.host(253), is("127.42.0.254"));
+        assertThat(LoopbackAddress.host(254), is("127.42.1.1"));
+        assertThat(LoopbackAddress.host(256 * 254 - 1), is("127.42.255.254"));
+    }
+
+    @Test
+    public void testAddressesAreExclusive() throws Exception {
+        assumeTrue("loopback addresses per node are only supported on Linux", LoopbackAddress.isSupported());
+        Path addressesDir = newTempDir();
+        LoopbackAddress first = LoopbackAddress.acquire(addressesDir);
+        LoopbackAddress second = LoopbackAddress.acquire(addressesDir);
+        try {
+            assertThat(first.host(), not(second.host()));
+            assertThat(first.host().startsWith("127.42."), is(true));
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+public class NodeResourcesTest {
+
+    @Test
+    public void testCpusAreSplitBetweenHarnessAndNodes() {
+        NodeResources resources = NodeResources.builder()
+            .cpuPool(0, 1, 2, 3, 4, 5, 6, 7)
+            .harnessCpus(2)
+            .cpusPerNode(2)
+            .build();
+        int[][] cpus = resources.assignCpus(null, 3);
+        assertThat(cpus[0], is(new int[]{0, 1}));
+        assertThat(cpus[1], is(new int[]{2, 3}));
+        assertThat(cpus[2], is(new int[]{4, 5}));
+        assertThat(cpus[3], is(new int[]{6, 7}));
+        assertThat(resources.activeProcessorCount(), is(2));
+    }
+
+    @Test
+    public void testNodesShareCpusIfPoolIsTooSmall() {
+        NodeResources resources = NodeResources.builder()
+            .cpuPool(0, 1, 2)
+            .harnessCpus(1)
+            .cpusPerNode(2)
+            .build();
+        int[][] cpus = resources.assignCpus(null, 2);
+        assertThat(cpus[1], is(new int[]{1, 2}));
+        assertThat(cpus[2], is(new int[]{1, 2}));
+    }
+
+    @Test
+    public void testNodesAvoidHarnessCpusWithoutCpusPerNode() {
+        NodeResources resources = NodeResources.builder()
+            .cpuPool(0, 1, 2, 3)
+            .harnessCpus(1)
+            .build();
+        int[][] cpus = resources.assignCpus(null, 2);
+        assertThat(cpus[0], is(new int[]{0}));
+        assertThat(cpus[1], is(new int[]{1, 2, 3}));
+        assertThat(cpus[2], is(new int[]{1, 2, 3}));
+    }
+
+    @Test
+    public void testNoPinningWithoutCpusPerNode() {
+        NodeResources resources = NodeResources.builder().heapSize("1g").build();
+        int[][] cpus = resources.assignCpus(null, 2);
+        assertThat(cpus[0], nullValue());
+        assertThat(cpus[1], nullValue());
+        assertThat(resources.activeProcessorCount(), is(0));
+        assertThat(NodeResources.pinningCommand(null).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testParseCpuList() {
+        assertThat(NodeResources.parseCpuList("0-3,8,10-11\n"), is(new int[]{0, 1, 2, 3, 8, 10, 11}));
+        assertThat(NodeResources.parseCpuList("5"), is(new int[]{5}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidCpuList() {
+        NodeResources.parseCpuList("0-a");
+    }
+
+    @Test
+    public void testPinnedJvmIsRestored() throws Exception {
+        Assume.assumeTrue("taskset and /proc are available",
+            NodeResources.isPinningSupported() && ResourceSample.isSupported());
+        int[] processCpus = NodeResources.processCpus();
+        assertThat(NodeResources.pinCurrentProcess(new int[]{processCpus[processCpus.length - 1]}), is(true));
+        try {
+            assertThat(NodeResources.processCpus(), is(processCpus));
+        } finally {
+            NodeResources.unpinCurrentProcess();
+        }
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("Cpus_allowed_list:")) {
+                assertThat(NodeResources.parseCpuList(line.substring("Cpus_allowed_list:".length())), is(processCpus));
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ParameterSweepTest {
+
+    @Test
+    public void testGridChangesOneSettingAtATime() {
+        Map<String, List<Object>> axes = new LinkedHashMap<>();
+        axes.put("a", List.of(1, 2, 3));
+        axes.put("b", List.of("x", "y"));
+        axes.put("c", List.of(true, false));
+        List<Map<String, Object>> grid = ParameterSweep.grid(axes);
+
+        assertThat(grid.size(), is(12));
+        assertThat(new HashSet<>(grid).size(), is(12));
+        for (int i = 0; i < grid.size(); i++) {
+            if (i > 0) {
+                int changed = 0;
+                for (String key : axes.keySet()) {
+                    if (!grid.get(i).get(key).equals(grid.get(i - 1).get(key))) {
+                        changed++;
+                    }
+                }
+                assertThat(changed, is(1));
+            }
+        }
+        assertThat(grid.get(0), is(Map.of("a", 1, "b", "x", "c", true)));
+        assertThat(ParameterSweep.grid(Map.of()), is(List.of(Map.of())));
+    }
+}
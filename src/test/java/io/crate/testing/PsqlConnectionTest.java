@@ -0,0 +1,156 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import io.crate.integrationtests.BaseTest;
+import io.crate.testing.fake.FakeCrateDistribution;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class PsqlConnectionTest extends BaseTest {
+
+    @Test
+    public void testRowCountFromCommandTag() {
+        assertThat(PsqlConnection.rowCount("INSERT 0 5"), is(5L));
+        assertThat(PsqlConnection.rowCount("SELECT 3"), is(3L));
+        assertThat(PsqlConnection.rowCount("BEGIN"), is(-1L));
+    }
+
+    @Test
+    public void testConvertTextValues() {
+        assertThat(PsqlConnection.convert(16, "t"), is(true));
+        assertThat(PsqlConnection.convert(23, "42"), is(42L));
+        assertThat(PsqlConnection.convert(701, "1.5"), is(1.5d));
+        assertThat(PsqlConnection.convert(1043, "foo"), is("foo"));
+    }
+
+    @Test
+    public void testConvertArraysObjectsAndTimestamps() {
+        assertThat(PsqlConnection.convert(1016, "{1,NULL,3}"), is(Arrays.asList(1L, null, 3L)));
+        assertThat(PsqlConnection.convert(1007, "{{1,2},{3,4}}"),
+            is(List.of(List.of(1L, 2L), List.of(3L, 4L))));
+        assertThat(PsqlConnection.convert(1015, "{a,\"b,\\\"c\",NULL}"), is(Arrays.asList("a", "b,\"c", null)));
+        assertThat(PsqlConnection.convert(114, "{\"a\": [1, 2.5], \"b\": {\"c\": null}}"),
+            is(Map.of("a", List.of(1L, 2.5d), "b", Collections.singletonMap("c", null))));
+        assertThat(PsqlConnection.convert(199, "{\"{\\\"x\\\": 1}\"}"), is(List.of(Map.of("x", 1L))));
+        assertThat(PsqlConnection.convert(1184, "2020-01-31 10:15:30.123+00"), is(1580465730123L));
+        assertThat(PsqlConnection.convert(1184, "2020-01-31 11:15:30.123+01:00"), is(1580465730123L));
+        assertThat(PsqlConnection.convert(1114, "2020-01-31 10:15:30.123"), is(1580465730123L));
+        assertThat(PsqlConnection.convert(1115, "{\"1970-01-01 00:00:01\"}"), is(List.of(1000L)));
+    }
+
+    @Test
+    public void testEncodeParameters() {
+        assertThat(PsqlConnection.encode(42), is("42"));
+        assertThat(PsqlConnection.encode(Arrays.asList(1, null, "a\"b\\")), is("{\"1\",NULL,\"a\\\"b\\\\\"}"));
+        assertThat(PsqlConnection.encode(new int[][]{{1, 2}, {3}}), is("{{\"1\",\"2\"},{\"3\"}}"));
+        assertThat(PsqlConnection.encode(Map.of("a", List.of(1, 2))), is("{\"a\":[1,2]}"));
+        assertThat(PsqlConnection.encode(List.of(Map.of("a", 1))), is("{\"{\\\"a\\\":1}\"}"));
+    }
+
+    @Test
+    public void testEmptyBatchSendsNothing() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Character> firstMessage = CompletableFuture.supplyAsync(() -> {
+                try (Socket socket = server.accept();
+                     DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    in.readFully(new byte[in.readInt() - 4]);
+                    // AuthenticationOk and ReadyForQuery
+                    out.write(new byte[]{'R', 0, 0, 0, 8, 0, 0, 0, 0, 'Z', 0, 0, 0, 5, 'I'});
+                    out.flush();
+                    return (char) in.readByte();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            try (PsqlConnection connection = PsqlConnection.open(
+                server.getInetAddress().getHostAddress(), server.getLocalPort(), "crate")) {
+                assertThat(connection.executeBatch("insert into t (x) values (?)", List.of()).length, is(0));
+            }
+            // Terminate, not a Parse left over by the batch
+            assertThat(firstMessage.get(10, TimeUnit.SECONDS), is('X'));
+        }
+    }
+
+    @Test
+    public void testQueriesAgainstFakeNode() throws Throwable {
+        Assume.assumeTrue("fake distribution needs a POSIX shell", FakeCrateDistribution.isSupported());
+        CrateTestCluster cluster = CrateTestCluster
+            .fromFile(FakeCrateDistribution.create(newTempDir(), "5.0.0").toString())
+            .clusterName("psql")
+            .build();
+        try {
+            cluster.before();
+            CrateTestServer server = cluster.randomServer();
+            assertThat(PsqlConnection.isAvailable(server.crateHost(), server.psqlPort()), is(true));
+            try (PsqlConnection connection = server.psqlConnection()) {
+                SqlResult result = connection.query("select name from sys.cluster");
+                assertThat(result.columns().get(0), is("name"));
+                assertThat(result.rows().get(0)[0], is("psql"));
+
+                result = connection.execute("select count(*) from sys.nodes where name = ?", "n1");
+                assertThat(result.rows().get(0)[0], is(1L));
+
+                List<Object[]> bulkArgs = new ArrayList<>();
+                for (int i = 0; i < PsqlConnection.PIPELINE_SIZE + 10; i++) {
+                    bulkArgs.add(new Object[]{i, null});
+                }
+                long[] rowCounts = connection.executeBatch("insert into t (x, y) values (?, ?)", bulkArgs);
+                assertThat(rowCounts.length, is(bulkArgs.size()));
+                assertThat(rowCounts[rowCounts.length - 1], is(1L));
+
+                try {
+                    connection.stream(10, "select * from t");
+                    fail("expected the cursor declaration to fail");
+                } catch (IOException e) {
+                    assertThat(e.getMessage(), containsString("generate_series"));
+                }
+                // the failed transaction was rolled back
+                assertThat(connection.query("select name from sys.cluster").rows().get(0)[0], is("psql"));
+            }
+        } finally {
+            cluster.after();
+        }
+    }
+}
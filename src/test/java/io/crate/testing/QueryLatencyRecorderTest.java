@@ -0,0 +1,111 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+
+public class QueryLatencyRecorderTest {
+
+    @Test
+    public void testFingerprintNormalizesLiterals() {
+        assertThat(QueryLatencyRecorder.fingerprint("select * from t1 where name = 'it''s'  and x > -1.5e3 limit 10;"),
+            is("select * from t1 where name = ? and x > ? limit ?"));
+        assertThat(QueryLatencyRecorder.fingerprint("select \"col2\" from t where id in (1, 2,3)"),
+            is("select \"col2\" from t where id in (?, ...)"));
+        assertThat(QueryLatencyRecorder.fingerprint("insert into t (a, b) values ($1, $2)"),
+            is("insert into t (a, b) values (?, ...)"));
+    }
+
+    @Test
+    public void testFingerprintCacheIsBounded() {
+        QueryLatencyRecorder recorder = new QueryLatencyRecorder();
+        int statements = QueryLatencyRecorder.MAX_CACHED_FINGERPRINTS + 100;
+        for (int i = 0; i < statements; i++) {
+            recorder.record("select * from t where id = " + i, "n1", 1000, -1);
+            recorder.record("select * from t where id = ?", "n1", 1000, -1);
+        }
+        assertThat(recorder.fingerprints(), is(List.of("select * from t where id = ?")));
+        assertThat(recorder.latency("select * from t where id = ?").count(), is(2L * statements));
+        assertThat(recorder.fingerprintCache.size(), is(QueryLatencyRecorder.MAX_CACHED_FINGERPRINTS));
+    }
+
+    @Test
+    public void testHistogramBucketsCoverAllValues() {
+        long previous = -1;
+        for (int bucket = 0; bucket < 3712; bucket++) {
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertThat(LatencyHistogram.bucket(previous + 1), is(bucket));
+            assertThat(LatencyHistogram.bucket(highest), is(bucket));
+            previous = highest;
+        }
+        assertThat(previous, is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertThat(histogram.count(), is(1000L));
+        assertThat((double) histogram.valueAtPercentile(50), closeTo(500_000, 500_000 * 0.02));
+        assertThat((double) histogram.valueAtPercentile(99), closeTo(990_000, 990_000 * 0.02));
+        assertThat(histogram.valueAtPercentile(100), is(1_000_000L));
+        assertThat(histogram.valueAtPercentile(99.9), lessThanOrEqualTo(histogram.maxNanos()));
+    }
+
+    @Test
+    public void testRecordFromManyThreads() throws Exception {
+        QueryLatencyRecorder recorder = new QueryLatencyRecorder();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String node = "n" + (t % 2);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    recorder.record("select " + i, node, 1000, 0.5);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(recorder.fingerprints(), is(List.of("select ?")));
+        assertThat(recorder.latency("select ?").count(), is(4000L));
+        assertThat(recorder.latency("select ?", "n1").count(), is(2000L));
+        assertThat(recorder.serverDuration("select ?", null).millisAtPercentile(50), closeTo(0.5, 0.01));
+        assertThat(recorder.report(), containsString("select ?"));
+
+        recorder.reset();
+        assertThat(recorder.fingerprints().isEmpty(), is(true));
+    }
+}
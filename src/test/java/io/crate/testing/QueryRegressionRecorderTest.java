@@ -0,0 +1,110 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+public class QueryRegressionRecorderTest extends RandomizedTest {
+
+    private static SqlResult result(double duration, Object[]... rows) {
+        return new SqlResult(List.of("id", "name"), new ArrayList<>(List.of(rows)), rows.length, duration);
+    }
+
+    private static void run(QueryRegressionRecorder recorder, String statement, SqlResult result, Object... args) {
+        recorder.record(statement, args, null, System.nanoTime(), result);
+    }
+
+    private static QueryRegressionRecorder recorder(Path store, QueryRegressionRecorder.Mode mode) {
+        return new QueryRegressionRecorder(store, mode).capturePlans(false);
+    }
+
+    @Test
+    public void testReplayDetectsChangedResultsAndSlowdowns() throws Exception {
+        Path store = newTempDir().resolve("golden").resolve("queries.golden");
+        try (QueryRegressionRecorder recorder = recorder(store, QueryRegressionRecorder.Mode.RECORD)) {
+            run(recorder, "select id, name from t where id = ?", result(10, new Object[]{1L, "a"}), 1);
+            run(recorder, "select id, name from t order by id", result(5, new Object[]{1L, "a"}, new Object[]{2L, "b"}));
+            run(recorder, "select id, name from t", result(5, new Object[]{1L, "a"}, new Object[]{2L, "b"}));
+            run(recorder, "select count(*) from sys.nodes", result(1, new Object[]{3L}));
+        }
+        assertThat(Files.readAllLines(store).size(), is(3));
+
+        QueryRegressionRecorder replay = recorder(store, QueryRegressionRecorder.Mode.REPLAY);
+        run(replay, "select id, name from t where id = ?", result(10.5, new Object[]{1L, "b"}), 1);
+        run(replay, "select id, name from t where id = ?", result(100, new Object[]{2L, "b"}), 2);
+        run(replay, "select id, name from t order by id", result(50, new Object[]{2L, "b"}, new Object[]{1L, "a"}));
+        run(replay, "select id, name from t", result(5, new Object[]{2L, "b"}, new Object[]{1L, "a"}));
+
+        List<QueryRegressionRecorder.Regression> regressions = replay.regressions();
+        assertThat(regressions.size(), is(3));
+        assertThat(regressions.get(0).kind(), is(QueryRegressionRecorder.Regression.Kind.RESULT_CHANGED));
+        assertThat(regressions.get(0).statement(), is("select id, name from t order by id"));
+        assertThat(regressions.get(1).kind(), is(QueryRegressionRecorder.Regression.Kind.SLOWER));
+        assertThat(regressions.get(1).actual(), is("50.000ms (+900%)"));
+        assertThat(regressions.get(2).kind(), is(QueryRegressionRecorder.Regression.Kind.RESULT_CHANGED));
+        assertThat(regressions.get(2).statement(), is("select id, name from t where id = ?"));
+        try {
+            replay.assertNoRegressions();
+            fail("regressions are expected");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("3 regressions"));
+        }
+    }
+
+    @Test
+    public void testRecordKeepsStatementsWhichWereNotExecuted() throws Exception {
+        Path store = newTempDir().resolve("queries.golden");
+        try (QueryRegressionRecorder recorder = recorder(store, QueryRegressionRecorder.Mode.RECORD)) {
+            run(recorder, "select id, name from t1", result(1, new Object[]{1L, "a"}));
+        }
+        try (QueryRegressionRecorder recorder = recorder(store, QueryRegressionRecorder.Mode.RECORD)) {
+            run(recorder, "select id, name from t2", result(1, new Object[]{1L, "a"}));
+            run(recorder, "select id, name from t2", result(1, new Object[]{1L, "a"}));
+            run(recorder, "select id, name from t2", result(1));
+        }
+        List<String> lines = Files.readAllLines(store);
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(1), containsString("\"results\":[[\"rows=1 "));
+        assertThat(lines.get(1), containsString(",2],[\"rows=0 "));
+
+        QueryRegressionRecorder replay = recorder(store, QueryRegressionRecorder.Mode.REPLAY);
+        run(replay, "select id, name from t2", result(1, new Object[]{1L, "a"}));
+        run(replay, "select id, name from t2", result(1, new Object[]{1L, "a"}));
+        run(replay, "select id, name from t2", result(1, new Object[]{1L, "a"}));
+        List<QueryRegressionRecorder.Regression> regressions = replay.regressions();
+        assertThat(regressions.size(), is(1));
+        assertThat(regressions.get(0).expected(), containsString("rows=0 "));
+        assertThat(regressions.get(0).expected(), containsString("(execution 3)"));
+    }
+}
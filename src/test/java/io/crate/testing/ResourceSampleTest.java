@@ -0,0 +1,78 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+
+public class ResourceSampleTest {
+
+    private static final String STAT = "4242 (java (crate)) S 1 4242 4242 0 -1 4194560 9021 0 0 0 " +
+                                       "250 50 0 0 20 0 37 0 123456 5000000000 120000 18446744073709551615";
+
+    @Test
+    public void testParse() {
+        ResourceSample sample = ResourceSample.parse(
+            1000L,
+            STAT,
+            List.of("Name:\tjava", "VmRSS:\t  524288 kB", "Threads:\t37"),
+            List.of("rchar: 100", "read_bytes: 4096", "write_bytes: 8192"),
+            12);
+
+        assertThat(sample.cpuTimeMillis(), is(3000L));
+        assertThat(sample.threads(), is(37L));
+        assertThat(sample.rssBytes(), is(512L * 1024 * 1024));
+        assertThat(sample.openFileDescriptors(), is(12L));
+        assertThat(sample.readBytes(), is(4096L));
+        assertThat(sample.writtenBytes(), is(8192L));
+    }
+
+    @Test
+    public void testDelta() {
+        ResourceSample earlier = new ResourceSample(1000, 100, 10, 5, 3, -1, 0);
+        ResourceSample later = new ResourceSample(3000, 150, 40, 4, 3, 100, 50);
+        ResourceSample delta = later.minus(earlier);
+
+        assertThat(delta.timestampMillis(), is(2000L));
+        assertThat(delta.rssBytes(), is(50L));
+        assertThat(delta.cpuTimeMillis(), is(30L));
+        assertThat(delta.threads(), is(-1L));
+        assertThat(delta.readBytes(), is(-1L));
+        assertThat(delta.writtenBytes(), is(50L));
+    }
+
+    @Test
+    public void testReadOwnProcess() throws Exception {
+        Assume.assumeTrue("/proc is available", ResourceSample.isSupported());
+        ResourceSample sample = ResourceSample.read(ProcessHandle.current().pid());
+        assertThat(sample.rssBytes(), greaterThan(0L));
+        assertThat(sample.threads(), greaterThan(0L));
+        assertThat(sample.openFileDescriptors(), greaterThan(0L));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.fail;
+
+public class ResultDigestTest {
+
+    private static ResultStream stream(List<Object[]> rows) {
+        Iterator<Object[]> it = rows.iterator();
+        return new ResultStream(new ResultStream.Source() {
+            @Override
+            public List<String> columns() {
+                return List.of("a", "b");
+            }
+
+            @Override
+            public Object[] nextRow() {
+                return it.hasNext() ? it.next().clone() : null;
+            }
+
+            @Override
+            public long rowCount() {
+                return -1;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private static List<Object[]> rows(int count) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new Object[]{(long) i, "row " + i});
+        }
+        return rows;
+    }
+
+    private static String assertionError(ResultAssertions.Query expected,
+                                         ResultAssertions.Query actual,
+                                         boolean orderSensitive) throws Exception {
+        try {
+            ResultAssertions.assertSameResult(expected, actual, orderSensitive);
+        } catch (AssertionError e) {
+            return e.getMessage();
+        }
+        fail("results are expected to differ");
+        return null;
+    }
+
+    @Test
+    public void testXxHash64ReferenceValues() {
+        assertThat(XxHash64.hash(new byte[0], 0, 0, 0), is(0xEF46DB3751D8E999L));
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        assertThat(XxHash64.hash(abc, 0, abc.length, 0), is(0x44BC2CF5AD770999L));
+        byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        assertThat(XxHash64.hash(fox, 0, fox.length, 0), is(0x0B242D361FDA71BCL));
+    }
+
+    @Test
+    public void testCanonicalEncoding() {
+        assertThat(ResultDigest.hashRow(new Object[]{1, 3.0, new BigDecimal("2.50")}),
+            is(ResultDigest.hashRow(new Object[]{1L, 3L, 2.5})));
+        assertThat(ResultDigest.hashRow(new Object[]{Map.of("x", 1, "y", List.of("a"))}),
+            is(ResultDigest.hashRow(new Object[]{Map.of("y", new Object[]{"a"}, "x", 1L)})));
+        assertThat(ResultDigest.hashRow(new Object[]{"1"}), not(ResultDigest.hashRow(new Object[]{1L})));
+        assertThat(ResultDigest.hashRow(new Object[]{null, "a"}), not(ResultDigest.hashRow(new Object[]{"a", null})));
+        assertThat(ResultDigest.hashRow(new Object[]{"ab", "c"}), not(ResultDigest.hashRow(new Object[]{"a", "bc"})));
+    }
+
+    @Test
+    public void testOrderedAndUnorderedDigests() throws Exception {
+        List<Object[]> rows = rows(3000);
+        List<Object[]> reversed = new ArrayList<>(rows);
+        Collections.reverse(reversed);
+
+        ResultDigest digest = ResultDigest.of(stream(rows));
+        ResultDigest reversedDigest = ResultDigest.of(stream(reversed));
+        assertThat(digest.rowCount(), is(3000L));
+        assertThat(digest, is(ResultDigest.of(rows.iterator())));
+        assertThat(digest.matches(reversedDigest, false), is(true));
+        assertThat(digest.matches(reversedDigest, true), is(false));
+        assertThat(ResultDigest.parse(digest.toString()), is(digest));
+    }
+
+    @Test
+    public void testAssertDigestAgainstGolden() throws Exception {
+        String golden = ResultDigest.of(stream(rows(10))).toString();
+        ResultAssertions.assertDigest(golden, () -> stream(rows(10)), true);
+        try {
+            ResultAssertions.assertDigest(golden, () -> stream(rows(11)), true);
+            fail("digest is expected to differ");
+        } catch (AssertionError e) {
+            assertThat(e.getMessage(), containsString("rows=11"));
+        }
+    }
+
+    @Test
+    public void testSecondPassListsDifferingRows() throws Exception {
+        List<Object[]> actual = rows(5000);
+        actual.remove(1234);
+        actual.add(new Object[]{42L, "surprise"});
+        actual.add(new Object[]{42L, "surprise"});
+        AtomicInteger opened = new AtomicInteger();
+
+        String message = assertionError(() -> stream(rows(5000)), () -> {
+            opened.incrementAndGet();
+            return stream(actual);
+        }, false);
+        assertThat(opened.get(), is(2));
+        assertThat(message, containsString("1 rows missing:\n  [1234, row 1234]".replace("\n", System.lineSeparator())));
+        assertThat(message, containsString("2 rows unexpected:\n  [42, surprise] x2".replace("\n", System.lineSeparator())));
+    }
+
+    @Test
+    public void testSecondPassFindsFirstRowOutOfOrder() throws Exception {
+        List<Object[]> actual = rows(5000);
+        Object[] moved = actual.remove(3000);
+        actual.add(2500, moved);
+
+        ResultAssertions.assertSameResult(() -> stream(rows(5000)), () -> stream(actual), false);
+        String message = assertionError(() -> stream(rows(5000)), () -> stream(actual), true);
+        assertThat(message, containsString("first difference at row 2500"));
+        assertThat(message, containsString("[3000, row 3000]"));
+    }
+}
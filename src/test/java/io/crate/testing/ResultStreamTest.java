@@ -0,0 +1,85 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class ResultStreamTest {
+
+    private static ResultStream stream(String json) throws IOException {
+        return new ResultStream(new HttpSqlClient.JsonRowSource(
+            new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testReadsRowsWithTypedAccessors() throws Exception {
+        try (ResultStream rows = stream("{\"cols\":[\"id\",\"name\",\"score\",\"ok\",\"tags\",\"obj\"]," +
+                                        "\"rows\":[[1,\"a\",1.5,true,[\"x\",\"y\"],{\"k\":2}],[2,null,3,false,[],null]]," +
+                                        "\"rowcount\":2,\"duration\":1.2}")) {
+            assertThat(rows.columns(), is(List.of("id", "name", "score", "ok", "tags", "obj")));
+
+            ResultStream.Row first = rows.next();
+            assertThat(first.getLong(0), is(1L));
+            assertThat(first.getString("name"), is("a"));
+            assertThat(first.getDouble("score"), is(1.5));
+            assertThat(first.getBoolean(3), is(true));
+            assertThat(first.get("tags"), is(List.of("x", "y")));
+            assertThat(first.get("obj"), is(Map.of("k", 2L)));
+
+            ResultStream.Row second = rows.next();
+            assertThat(second.getInt("id"), is(2));
+            assertThat(second.isNull("name"), is(true));
+            assertThat(second.getDouble(2), is(3.0));
+
+            assertThat(rows.hasNext(), is(false));
+            assertThat(rows.rowCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void testEmptyResultAndRowCountOfDml() throws Exception {
+        try (ResultStream rows = stream("{\"cols\":[],\"rows\":[],\"rowcount\":5,\"duration\":1}")) {
+            assertThat(rows.hasNext(), is(false));
+            assertThat(rows.rowCount(), is(5L));
+        }
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testTruncatedResponse() throws Exception {
+        try (ResultStream rows = stream("{\"cols\":[\"id\"],\"rows\":[[1],[2")) {
+            while (rows.hasNext()) {
+                rows.next();
+            }
+        }
+    }
+}
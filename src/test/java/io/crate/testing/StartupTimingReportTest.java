@@ -0,0 +1,58 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class StartupTimingReportTest {
+
+    @Test
+    public void testPhasesAreAggregated() {
+        StartupTimingReport report = new StartupTimingReport();
+        report.downloadFinished(null, 1024, TimeUnit.MILLISECONDS.toNanos(300));
+        report.extractFinished(Paths.get("crate"), 42, TimeUnit.MILLISECONDS.toNanos(100));
+        report.nodeReady(null, TimeUnit.MILLISECONDS.toNanos(2000));
+        report.nodeReady(null, TimeUnit.MILLISECONDS.toNanos(4000));
+
+        assertThat(report.count(StartupTimingReport.DOWNLOAD), is(1L));
+        assertThat(report.downloadedBytes(), is(1024L));
+        assertThat(report.extractedEntries(), is(42L));
+        assertThat(report.count(StartupTimingReport.NODE_READY), is(2L));
+        assertThat(report.totalMillis(StartupTimingReport.NODE_READY), is(6000L));
+        assertThat(report.maxMillis(StartupTimingReport.NODE_READY), is(4000L));
+        assertThat(report.count(StartupTimingReport.CLUSTER_READY), is(0L));
+        assertThat(report.report(), containsString("node ready"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPhase() {
+        new StartupTimingReport().count("boot");
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class TestSchemasTest {
+
+    @Test
+    public void testSchemaNameIsSanitized() {
+        assertThat(TestSchemas.schemaName("tx1", 3, "testFoo[Bar 1]"), is("tx1_3_testfoo_bar_1"));
+        assertThat(TestSchemas.schemaName("tx1", 4, null), is("tx1_4"));
+    }
+
+    @Test
+    public void testSchemaNameIsTruncated() {
+        String name = TestSchemas.schemaName("tx1", 5, "a_very_long_test_method_name_that_goes_on_and_on_and_on_forever");
+        assertThat(name.length(), is(TestSchemas.MAX_NAME_LENGTH));
+        assertThat(name.startsWith("tx1_5_a_very_long"), is(true));
+    }
+}
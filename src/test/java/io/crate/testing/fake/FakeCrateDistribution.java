@@ -0,0 +1,96 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing.fake;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Builds a tar.gz distribution whose {@code bin/crate} starts a {@link FakeCrateNode}
+ * instead of CrateDB. It can be passed to {@code CrateTestCluster.fromFile} to test
+ * the harness without network access and within milliseconds per cluster.
+ * <p>
+ * Only works on platforms with a POSIX shell.
+ */
+public final class FakeCrateDistribution {
+
+    private FakeCrateDistribution() {
+    }
+
+    public static boolean isSupported() {
+        return !System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("win");
+    }
+
+    /**
+     * @param directory folder to create the distribution in
+     * @param version the version the fake nodes report; it is also part of the file name
+     *                so that the test cluster can derive the version from it
+     * @return the path to the created tar.gz file
+     */
+    public static Path create(Path directory, String version) throws IOException {
+        Path tarGz = directory.resolve(String.format(Locale.ENGLISH, "crate-%s-fake.tar.gz", version));
+        byte[] script = startScript(version).getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tarGz));
+             TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new GzipCompressorOutputStream(out))) {
+            TarArchiveEntry entry = new TarArchiveEntry("crate-fake/bin/crate");
+            entry.setMode(0755);
+            entry.setSize(script.length);
+            tarOut.putArchiveEntry(entry);
+            tarOut.write(script);
+            tarOut.closeArchiveEntry();
+        }
+        return tarGz;
+    }
+
+    private static String startScript(String version) throws IOException {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        return String.format(Locale.ENGLISH,
+            "#!/bin/sh%n" +
+            // mimics how bin/crate applies the heap size and java options
+            "if [ -n \"$CRATE_HEAP_SIZE\" ]; then HEAP=\"-Xms$CRATE_HEAP_SIZE -Xmx$CRATE_HEAP_SIZE\"; fi%n" +
+            "exec \"%s\" $HEAP $CRATE_JAVA_OPTS -Dfake.version=%s -cp \"%s\" %s \"$@\"%n",
+            java,
+            version,
+            classPath(),
+            FakeCrateNode.class.getName());
+    }
+
+    private static Path classPath() throws IOException {
+        try {
+            return Paths.get(FakeCrateNode.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Cannot determine location of the fake node classes", e);
+        }
+    }
+}
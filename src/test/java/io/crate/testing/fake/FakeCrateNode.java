@@ -0,0 +1,692 @@
+/*
+ * Licensed to Crate under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.  Crate licenses this file
+ * to you under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.  You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ * However, if you have executed another commercial license agreement
+ * with Crate these terms will supersede the license and you may use the
+ * software solely pursuant to the terms of the relevant commercial
+ * agreement.
+ */
+
+package io.crate.testing.fake;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in for the CrateDB process started by {@code bin/crate} of a
+ * {@link FakeCrateDistribution}.
+ * <p>
+ * Parses the {@code -C} settings passed by the {@code CrateTestServer} and the
+ * {@code crate.yml} of the {@code path.conf} directory, binds the transport, psql
+ * and HTTP ports and answers the handful of statements the test harness and its
+ * tests issue, both on the {@code _sql} endpoint and using
+ * the PostgreSQL wire protocol. Every other statement returns an empty result.
+ * <p>
+ * The following settings control its behaviour:
+ * <ul>
+ *     <li>{@code fake.startup_delay_ms}: time to wait before binding the ports</li>
+ *     <li>{@code fake.join_delay_ms}: time after binding during which
+ *     {@code sys.nodes} only contains the node itself; afterwards it contains
+ *     every running node which was started in the same working directory</li>
+ *     <li>{@code fake.latency.min_ms} and {@code fake.latency.max_ms}: range of the
+ *     uniformly distributed latency added to every {@code _sql} request</li>
+ *     <li>{@code fake.unassigned_replicas}: number of replica shards reported as not started while
+ *     a node which was started in the same working directory is down, like replicas which wait for
+ *     the delayed allocation after a node left; primaries are always reported as started</li>
+ *     <li>{@code fake.tables}: comma separated tables, or views with a {@code :VIEW} suffix, which
+ *     {@code information_schema.tables} lists for every schema the statement asks for</li>
+ *     <li>{@code fake.drop_error}: name of a table or view whose {@code DROP} fails</li>
+ * </ul>
+ * {@code COPY FROM 'file:///...'} answers the number of rows in the matching local files and
+ * the psql endpoint supports cursors over {@code generate_series(1, n)}.
+ */
+public class FakeCrateNode {
+
+    private static final Pattern STMT = Pattern.compile("\"stmt\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern ARRAY_ARG = Pattern.compile("\"args\"\\s*:\\s*\\[\\s*\\[([^\\]]*)\\]");
+    private static final Pattern FIRST_ARG = Pattern.compile("\"args\"\\s*:\\s*\\[\\s*(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^,\\]\\s]+))");
+    private static final Pattern DECLARE_CURSOR = Pattern.compile("declare (\\w+) .*generate_series\\(1,\\s*(\\d+)\\)");
+    private static final Pattern FETCH = Pattern.compile("fetch forward (\\d+) from (\\w+)");
+    private static final Pattern COPY_FROM_FILE = Pattern.compile("from\\s+'(file://[^']*)'", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, String> settings;
+    private final String version;
+    private final String clusterId;
+    private final String name;
+    private final String restUrl;
+    private final Path membersDir = Paths.get("fake-nodes").toAbsolutePath();
+    private final long joinDelayMs;
+    private final long minLatencyMs;
+    private final long maxLatencyMs;
+    private final long unassignedReplicas;
+    private volatile long boundAtMillis;
+
+    FakeCrateNode(Map<String, String> settings, String version) {
+        this.settings = settings;
+        this.version = version;
+        this.clusterId = UUID.nameUUIDFromBytes(
+            (setting("cluster.name", "crate") + membersDir).getBytes(StandardCharsets.UTF_8)).toString();
+        this.joinDelayMs = Long.parseLong(setting("fake.join_delay_ms", "0"));
+        this.minLatencyMs = Long.parseLong(setting("fake.latency.min_ms", "0"));
+        this.maxLatencyMs = Math.max(minLatencyMs, Long.parseLong(setting("fake.latency.max_ms", "0")));
+        this.unassignedReplicas = Long.parseLong(setting("fake.unassigned_replicas", "0"));
+        String host = setting("network.host", "127.0.0.1");
+        String httpPort = setting("http.port", "4200");
+        // nodes on their own loopback address share the ports, so their names include the address
+        this.name = setting("node.name", "127.0.0.1".equals(host) ? "fake-" + httpPort : "fake-" + host + "-" + httpPort);
+        this.restUrl = host + ":" + setting("http.publish_port", httpPort);
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeCrateNode node = new FakeCrateNode(parseSettings(args), System.getProperty("fake.version", "0.0.0"));
+        node.start();
+    }
+
+    static Map<String, String> parseSettings(String[] args) {
+        Map<String, String> settings = new HashMap<>();
+        for (String arg : args) {
+            String setting;
+            if (arg.startsWith("-C")) {
+                setting = arg.substring(2);
+            } else if (arg.startsWith("-Des.")) {
+                setting = arg.substring(5);
+            } else {
+                continue;
+            }
+            int idx = setting.indexOf('=');
+            if (idx > 0) {
+                settings.put(setting.substring(0, idx), setting.substring(idx + 1));
+            }
+        }
+        String conf = settings.get("path.conf");
+        if (conf != null) {
+            Map<String, String> fromFile = readConfig(Paths.get(conf, "crate.yml"));
+            // settings on the command line take precedence
+            fromFile.putAll(settings);
+            return fromFile;
+        }
+        return settings;
+    }
+
+    /**
+     * Reads a {@code crate.yml} with one {@code key: "value"} line per setting, as rendered by the harness.
+     */
+    private static Map<String, String> readConfig(Path crateYml) {
+        Map<String, String> settings = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(crateYml, StandardCharsets.UTF_8)) {
+                int idx = line.indexOf(": ");
+                if (line.startsWith("#") || idx <= 0) {
+                    continue;
+                }
+                String value = line.substring(idx + 2).trim();
+                if (value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1).replaceAll("\\\\(.)", "$1");
+                }
+                settings.put(line.substring(0, idx), value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return settings;
+    }
+
+    private String setting(String key, String defaultValue) {
+        String value = settings.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    void start() throws Exception {
+        Thread.sleep(Long.parseLong(setting("fake.startup_delay_ms", "0")));
+        InetAddress host = InetAddress.getByName(setting("network.host", "127.0.0.1"));
+
+        int transportPort = Integer.parseInt(setting("transport.tcp.port", "4300"));
+        acceptAndClose(new ServerSocket(transportPort, 50, host));
+        // nodes of a cluster share the working directory, which stands in for discovery
+        Files.createDirectories(membersDir);
+        Files.write(membersDir.resolve(host.getHostAddress() + "_" + transportPort),
+            List.of(host.getHostAddress() + ":" + transportPort, restUrl, name), StandardCharsets.UTF_8);
+        if (Boolean.parseBoolean(setting("psql.enabled", "false"))) {
+            acceptPsql(new ServerSocket(Integer.parseInt(setting("psql.port", "5432")), 50, host));
+        }
+
+        HttpServer server = HttpServer.create(
+            new InetSocketAddress(host, Integer.parseInt(setting("http.port", "4200"))), 50);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/_sql", this::handleSql);
+        server.createContext("/", exchange -> respond(exchange, 200,
+            String.format(Locale.ENGLISH, "{\"ok\":true,\"version\":{\"number\":\"%s\"}}", version)));
+        server.start();
+        boundAtMillis = System.currentTimeMillis();
+    }
+
+    private void acceptPsql(ServerSocket serverSocket) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread connection = new Thread(() -> servePsql(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Speaks just enough of the PostgreSQL wire protocol to test the psql client:
+     * trust authentication, simple queries and unnamed statements and portals.
+     * A {@code DECLARE} of anything but {@code generate_series} fails and, like in PostgreSQL,
+     * aborts the transaction, so further statements fail until {@code ROLLBACK} or {@code COMMIT}.
+     */
+    private void servePsql(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            in.readFully(new byte[in.readInt() - 4]);
+            writeMessage(out, 'R', new byte[]{0, 0, 0, 0});
+            writeMessage(out, 'Z', new byte[]{'I'});
+            out.flush();
+            String statement = "";
+            Map<String, long[]> cursors = new HashMap<>();
+            boolean inTransaction = false;
+            boolean aborted = false;
+            while (true) {
+                char type = (char) in.readByte();
+                byte[] body = new byte[in.readInt() - 4];
+                in.readFully(body);
+                switch (type) {
+                    case 'Q':
+                        statement = cString(body, 0).toLowerCase(Locale.ENGLISH);
+                        boolean endsTransaction = statement.equals("rollback") || statement.equals("commit");
+                        if (aborted && !endsTransaction) {
+                            writeError(out, "current transaction is aborted, commands ignored until end of transaction block");
+                        } else if (statement.startsWith("declare ") && !DECLARE_CURSOR.matcher(statement).find()) {
+                            writeError(out, "fake cursors only support generate_series");
+                            aborted = inTransaction;
+                        } else {
+                            if (!writeCursorResponse(out, statement, cursors)) {
+                                writeRowDescription(out, statement);
+                                writeRowsAndCommandComplete(out, statement);
+                            }
+                            if (statement.equals("begin")) {
+                                inTransaction = true;
+                            }
+                        }
+                        if (endsTransaction) {
+                            inTransaction = false;
+                            aborted = false;
+                        }
+                        writeMessage(out, 'Z', new byte[]{(byte) (aborted ? 'E' : inTransaction ? 'T' : 'I')});
+                        out.flush();
+                        break;
+                    case 'P':
+                        String name = cString(body, 0);
+                        statement = cString(body, name.getBytes(StandardCharsets.UTF_8).length + 1).toLowerCase(Locale.ENGLISH);
+                        writeMessage(out, '1', new byte[0]);
+                        break;
+                    case 'B':
+                        writeMessage(out, '2', new byte[0]);
+                        break;
+                    case 'D':
+                        if (!writeRowDescription(out, statement)) {
+                            writeMessage(out, 'n', new byte[0]);
+                        }
+                        break;
+                    case 'E':
+                        writeRowsAndCommandComplete(out, statement);
+                        break;
+                    case 'S':
+                        writeMessage(out, 'Z', new byte[]{'I'});
+                        out.flush();
+                        break;
+                    case 'X':
+                        return;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // connection closed
+        }
+    }
+
+    /**
+     * Answers {@code DECLARE} of a cursor over {@code generate_series(1, n)} and {@code FETCH} from it.
+     *
+     * @param cursors the next value and the last value of each cursor of the connection
+     * @return false if the statement is not about cursors
+     */
+    private static boolean writeCursorResponse(DataOutputStream out, String statement, Map<String, long[]> cursors)
+        throws IOException {
+        Matcher declare = DECLARE_CURSOR.matcher(statement);
+        Matcher fetch = FETCH.matcher(statement);
+        String tag;
+        if (declare.find()) {
+            cursors.put(declare.group(1), new long[]{1, Long.parseLong(declare.group(2))});
+            tag = "DECLARE CURSOR";
+        } else if (fetch.find()) {
+            long[] cursor = cursors.get(fetch.group(2));
+            long end = Math.min(cursor[1], cursor[0] + Long.parseLong(fetch.group(1)) - 1);
+            ByteArrayOutputStream description = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(description);
+            data.writeShort(1);
+            data.write("n".getBytes(StandardCharsets.UTF_8));
+            data.writeByte(0);
+            data.writeInt(0);
+            data.writeShort(0);
+            data.writeInt(20);
+            data.writeShort(8);
+            data.writeInt(-1);
+            data.writeShort(0);
+            writeMessage(out, 'T', description.toByteArray());
+            long rows = 0;
+            for (long value = cursor[0]; value <= end; value++, rows++) {
+                ByteArrayOutputStream row = new ByteArrayOutputStream();
+                DataOutputStream rowData = new DataOutputStream(row);
+                byte[] bytes = Long.toString(value).getBytes(StandardCharsets.UTF_8);
+                rowData.writeShort(1);
+                rowData.writeInt(bytes.length);
+                rowData.write(bytes);
+                writeMessage(out, 'D', row.toByteArray());
+            }
+            cursor[0] = end + 1;
+            tag = "FETCH " + rows;
+        } else if (statement.startsWith("close ") || statement.equals("begin") || statement.equals("commit")
+            || statement.equals("rollback")) {
+            tag = statement.toUpperCase(Locale.ENGLISH).split(" ")[0];
+        } else {
+            return false;
+        }
+        writeMessage(out, 'C', (tag + "\0").getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    private boolean writeRowDescription(DataOutputStream out, String statement) throws IOException {
+        String[] answer = lookup(statement);
+        if (answer == null) {
+            return false;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeShort(1);
+        data.write(answer[0].getBytes(StandardCharsets.UTF_8));
+        data.writeByte(0);
+        data.writeInt(0);
+        data.writeShort(0);
+        data.writeInt(answer[2] == null ? 1043 : 20);
+        data.writeShort(-1);
+        data.writeInt(-1);
+        data.writeShort(0);
+        writeMessage(out, 'T', body.toByteArray());
+        return true;
+    }
+
+    private void writeRowsAndCommandComplete(DataOutputStream out, String statement) throws IOException {
+        String[] answer = lookup(statement);
+        String tag;
+        if (answer != null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(body);
+            byte[] value = answer[1].getBytes(StandardCharsets.UTF_8);
+            data.writeShort(1);
+            data.writeInt(value.length);
+            data.write(value);
+            writeMessage(out, 'D', body.toByteArray());
+            tag = "SELECT 1";
+        } else if (statement.startsWith("insert")) {
+            tag = "INSERT 0 1";
+        } else {
+            tag = "SELECT 0";
+        }
+        writeMessage(out, 'C', (tag + "\0").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeError(DataOutputStream out, String message) throws IOException {
+        writeMessage(out, 'E', ("SERROR\0M" + message + "\0\0").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeMessage(DataOutputStream out, char type, byte[] body) throws IOException {
+        out.writeByte(type);
+        out.writeInt(body.length + 4);
+        out.write(body);
+    }
+
+    private static String cString(byte[] body, int offset) {
+        int end = offset;
+        while (body[end] != 0) {
+            end++;
+        }
+        return new String(body, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static void acceptAndClose(ServerSocket serverSocket) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try (Socket ignored = serverSocket.accept()) {
+                    // the fake node does not speak the protocol
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void handleSql(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Matcher matcher = STMT.matcher(body);
+        if (!matcher.find()) {
+            respond(exchange, 400, "{\"error\":{\"message\":\"missing stmt\",\"code\":4000}}");
+            return;
+        }
+        long latencyMs = minLatencyMs == maxLatencyMs
+            ? minLatencyMs
+            : ThreadLocalRandom.current().nextLong(minLatencyMs, maxLatencyMs + 1);
+        if (latencyMs > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String rawStmt = unescape(matcher.group(1));
+        String stmt = rawStmt.toLowerCase(Locale.ENGLISH);
+        Matcher argMatcher = FIRST_ARG.matcher(body);
+        String firstArg = null;
+        if (argMatcher.find()) {
+            firstArg = argMatcher.group(1) == null ? argMatcher.group(2) : unescape(argMatcher.group(1));
+        }
+        if (stmt.startsWith("copy ")) {
+            respond(exchange, 200, String.format(Locale.ENGLISH,
+                "{\"cols\":[],\"rows\":[],\"rowcount\":%d,\"duration\":%d}", copyFrom(rawStmt), latencyMs));
+            return;
+        }
+        if (stmt.contains("from information_schema.tables")) {
+            respond(exchange, 200, tables(body, latencyMs));
+            return;
+        }
+        String dropError = settings.get("fake.drop_error");
+        if (stmt.startsWith("drop ") && dropError != null && stmt.endsWith(".\"" + dropError + "\"")) {
+            respond(exchange, 400, "{\"error\":{\"message\":\"fake drop error\",\"code\":4000}}");
+            return;
+        }
+        respond(exchange, 200, answer(stmt, firstArg, latencyMs));
+        if (stmt.startsWith("alter cluster decommission")) {
+            decommission(body, firstArg);
+        }
+    }
+
+    /**
+     * A decommissioned node shuts down once its shards are moved away; the fake has none.
+     * The statement names the node and may be sent to any node of the cluster.
+     */
+    private void decommission(String body, String nodeName) throws IOException {
+        if (nodeName == null || nodeName.equals(name)) {
+            Thread exit = new Thread(() -> System.exit(0));
+            exit.start();
+            return;
+        }
+        for (String[] member : reachableMembers()) {
+            if (member.length > 2 && member[2].equals(nodeName)) {
+                HttpURLConnection connection = (HttpURLConnection) new URL("http://" + member[1] + "/_sql").openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+                connection.getResponseCode();
+                connection.disconnect();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the {@code fake.tables} of every schema of the array parameter, views first
+     */
+    private String tables(String body, long durationMs) {
+        List<String> rows = new ArrayList<>();
+        Matcher matcher = ARRAY_ARG.matcher(body);
+        String tables = setting("fake.tables", "");
+        if (matcher.find() && !tables.isEmpty()) {
+            for (String type : List.of("VIEW", "BASE TABLE")) {
+                for (String schema : matcher.group(1).split(",")) {
+                    for (String table : tables.split(",")) {
+                        boolean view = table.endsWith(":VIEW");
+                        if (view == type.equals("VIEW")) {
+                            rows.add(String.format(Locale.ENGLISH, "[%s,%s,\"%s\"]",
+                                schema.trim(), quote(view ? table.substring(0, table.length() - 5) : table), type));
+                        }
+                    }
+                }
+            }
+        }
+        return String.format(Locale.ENGLISH,
+            "{\"cols\":[\"table_schema\",\"table_name\",\"table_type\"],\"rows\":[%s],\"rowcount\":%d,\"duration\":%d}",
+            String.join(",", rows), rows.size(), durationMs);
+    }
+
+    String answer(String stmt, String firstArg, long durationMs) {
+        String[] answer = lookup(stmt, firstArg);
+        if (answer == null) {
+            return String.format(Locale.ENGLISH, "{\"cols\":[],\"rows\":[],\"rowcount\":0,\"duration\":%d}", durationMs);
+        }
+        String value = answer[2] == null ? quote(answer[1]) : answer[1];
+        return String.format(Locale.ENGLISH,
+            "{\"cols\":[\"%s\"],\"rows\":[[%s]],\"rowcount\":1,\"duration\":%d}", answer[0], value, durationMs);
+    }
+
+    /**
+     * @return column name, value and a non-null third element if the value is numeric,
+     * or null if the statement has no known answer
+     */
+    private String[] lookup(String stmt) {
+        return lookup(stmt, null);
+    }
+
+    /**
+     * @param firstArg the first parameter of the statement, if any
+     */
+    private String[] lookup(String stmt, String firstArg) {
+        if (stmt.contains("from sys.nodes") && stmt.contains("count(*)")) {
+            boolean joined = System.currentTimeMillis() - boundAtMillis >= joinDelayMs;
+            return new String[]{"nodes", String.valueOf(joined ? reachableNodes() : 1), "number"};
+        } else if (stmt.contains("from sys.shards") && stmt.contains("count(*)")) {
+            return new String[]{"count(*)", String.valueOf(notStartedShards(stmt)), "number"};
+        } else if (stmt.contains("version['number']")) {
+            return new String[]{"version['number']", version, null};
+        } else if (stmt.contains("name from sys.nodes") && stmt.contains(" where ")) {
+            String member = memberName(stmt, firstArg);
+            return member == null ? null : new String[]{"name", member, null};
+        } else if (stmt.contains("name from sys.nodes")) {
+            return new String[]{"name", name, null};
+        } else if (stmt.contains("name from sys.cluster")) {
+            return new String[]{"name", setting("cluster.name", "crate"), null};
+        } else if (stmt.contains("id from sys.cluster")) {
+            return new String[]{"id", clusterId, null};
+        }
+        return null;
+    }
+
+    private long notStartedShards(String stmt) {
+        if (unassignedReplicas == 0 || stmt.contains("\"primary\"") || !stmt.contains("<> 'started'")) {
+            return 0;
+        }
+        try (Stream<Path> members = Files.list(membersDir)) {
+            return members.count() > reachableNodes() ? unassignedReplicas : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the name of the first reachable node matching a {@code rest_url = ?} or {@code port['http'] = ?}
+     * filter, or null if none matches
+     */
+    private String memberName(String stmt, String firstArg) {
+        boolean byRestUrl = stmt.contains("rest_url = ?");
+        if (firstArg == null || !(byRestUrl || stmt.contains("port['http'] = ?"))) {
+            return null;
+        }
+        for (String[] member : reachableMembers()) {
+            if (member.length > 2 && (byRestUrl ? member[1].equals(firstArg) : member[1].endsWith(":" + firstArg))) {
+                return member[2];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of nodes started in the same working directory whose transport port is bound,
+     * the node itself included
+     */
+    private int reachableNodes() {
+        return Math.max(1, reachableMembers().size());
+    }
+
+    /**
+     * @return the transport address, REST URL and name of the reachable nodes started in the same
+     * working directory, ordered by their transport address
+     */
+    private List<String[]> reachableMembers() {
+        List<String[]> reachable = new ArrayList<>();
+        try (Stream<Path> members = Files.list(membersDir).sorted()) {
+            for (Path member : (Iterable<Path>) members::iterator) {
+                String[] lines = Files.readAllLines(member, StandardCharsets.UTF_8).toArray(new String[0]);
+                int idx = lines[0].lastIndexOf(':');
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(lines[0].substring(0, idx), Integer.parseInt(lines[0].substring(idx + 1))), 200);
+                    reachable.add(lines);
+                } catch (IOException e) {
+                    // node is down
+                }
+            }
+        } catch (IOException e) {
+            return List.of();
+        }
+        return reachable;
+    }
+
+    /**
+     * @return the number of rows in the files matching the URI of a {@code COPY FROM} statement
+     */
+    private static long copyFrom(String stmt) throws IOException {
+        Matcher matcher = COPY_FROM_FILE.matcher(stmt);
+        if (!matcher.find()) {
+            return 0;
+        }
+        String uri = matcher.group(1);
+        int lastSlash = uri.lastIndexOf('/');
+        Path dir = Paths.get(URI.create(uri.substring(0, lastSlash + 1)));
+        long rows = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, uri.substring(lastSlash + 1))) {
+            for (Path file : files) {
+                long lines;
+                try (Stream<String> fileLines = Files.lines(file, StandardCharsets.UTF_8)) {
+                    lines = fileLines.filter(l -> !l.trim().isEmpty()).count();
+                }
+                rows += file.toString().endsWith(".csv") && lines > 0 ? lines - 1 : lines;
+            }
+        }
+        return rows;
+    }
+
+    private static String unescape(String jsonString) {
+        StringBuilder sb = new StringBuilder(jsonString.length());
+        for (int i = 0; i < jsonString.length(); i++) {
+            char c = jsonString.charAt(i);
+            if (c != '\\' || i + 1 == jsonString.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escaped = jsonString.charAt(++i);
+            switch (escaped) {
+                case 'u':
+                    sb.append((char) Integer.parseInt(jsonString.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}